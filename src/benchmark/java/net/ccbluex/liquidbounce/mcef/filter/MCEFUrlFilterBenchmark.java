@@ -0,0 +1,215 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.filter;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the match throughput of a {@link MCEFUrlFilter}.
+ * <p>
+ * Run with a filter list and a file of URLs, one per line, to measure real data, or without arguments to use
+ * a generated rule set and URL corpus shaped like EasyList and the subresource requests of ad-heavy pages.
+ * Also reports the bytes allocated per match, which should be zero.
+ * <p>
+ * Lives in the benchmark source set and is not part of the mod, run it with
+ * {@code ./gradlew benchmarkUrlFilter [-PbenchmarkArgs="<filter list> <urls>"]}.
+ */
+public final class MCEFUrlFilterBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private static final String[] WORDS = {
+            "ads", "track", "pixel", "banner", "analytics", "metrics", "stats", "promo", "sponsor", "beacon",
+            "img", "static", "assets", "cdn", "media", "api", "content", "video", "news", "shop",
+            "widget", "player", "social", "share", "login", "user", "event", "collect", "sync", "tag"
+    };
+    private static final String[] TLDS = {"com", "net", "org", "io", "de", "co.uk", "ru", "fr", "info", "xyz"};
+    private static final String[] EXTENSIONS = {".js", ".css", ".png", ".jpg", ".gif", ".webp", ".woff2", ".json", ""};
+
+    private MCEFUrlFilterBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> rules;
+        List<String> urls;
+
+        if (args.length >= 2) {
+            rules = Files.readAllLines(Path.of(args[0]), StandardCharsets.UTF_8);
+            urls = Files.readAllLines(Path.of(args[1]), StandardCharsets.UTF_8);
+        } else if (args.length == 0) {
+            var random = new Random(42);
+            rules = generateRules(random);
+            urls = generateUrls(random, rules);
+        } else {
+            System.err.println("Usage: MCEFUrlFilterBenchmark [<filter list> <url list>]");
+            return;
+        }
+
+        var compileStart = System.nanoTime();
+        var filter = MCEFUrlFilter.builder().addRules(rules).build();
+        var compileTime = System.nanoTime() - compileStart;
+        System.out.printf("Compiled %d of %d rules in %.1f ms%n", filter.getRuleCount(), rules.size(),
+                compileTime / 1e6);
+
+        var corpus = urls.toArray(String[]::new);
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            run(filter, corpus);
+        }
+
+        var blocked = 0;
+        var bestTime = Long.MAX_VALUE;
+        var allocatedBefore = allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            var start = System.nanoTime();
+            blocked = run(filter, corpus);
+            bestTime = Math.min(bestTime, System.nanoTime() - start);
+        }
+        var allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.printf("%d URLs, %d blocked (%.1f%%)%n", corpus.length, blocked, 100.0 * blocked / corpus.length);
+        System.out.printf("%.0f ns per URL, %.2f million URLs per second%n",
+                (double) bestTime / corpus.length, corpus.length / (bestTime / 1e9) / 1e6);
+        if (allocated >= 0) {
+            System.out.printf("%.3f bytes allocated per URL%n", (double) allocated / ((long) corpus.length * ROUNDS));
+        }
+    }
+
+    private static int run(MCEFUrlFilter filter, String[] corpus) {
+        var blocked = 0;
+        for (var url : corpus) {
+            if (filter.isBlocked(url)) {
+                blocked++;
+            }
+        }
+        return blocked;
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) {
+            return bean.getCurrentThreadAllocatedBytes();
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Roughly the mix of EasyList plus a hosts list: mostly domain rules, then path substrings,
+     * wildcard and anchored patterns, a few exceptions and cosmetic rules that get skipped.
+     */
+    private static List<String> generateRules(Random random) {
+        var rules = new ArrayList<String>();
+        rules.add("[Adblock Plus 2.0]");
+        rules.add("! Title: Generated benchmark list");
+
+        for (int i = 0; i < 40_000; i++) {
+            rules.add("||" + domain(random) + "^");
+        }
+        for (int i = 0; i < 20_000; i++) {
+            rules.add("0.0.0.0 " + domain(random));
+        }
+        for (int i = 0; i < 8_000; i++) {
+            rules.add("/" + word(random) + "-" + word(random) + i + "/");
+        }
+        for (int i = 0; i < 4_000; i++) {
+            rules.add("&" + word(random) + "_" + word(random) + i + "=");
+        }
+        for (int i = 0; i < 4_000; i++) {
+            rules.add("||" + domain(random) + "/" + word(random) + "/*." + word(random) + "$script,third-party");
+        }
+        for (int i = 0; i < 3_000; i++) {
+            rules.add("/" + word(random) + i + "/*/" + word(random) + "^");
+        }
+        for (int i = 0; i < 1_000; i++) {
+            rules.add("|https://" + word(random) + i + "." + word(random) + ".");
+        }
+        for (int i = 0; i < 2_000; i++) {
+            rules.add("@@||" + domain(random) + "^$image");
+        }
+        for (int i = 0; i < 5_000; i++) {
+            rules.add(domain(random) + "##." + word(random) + "-" + word(random));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            rules.add("||" + domain(random) + "^$domain=" + domain(random));
+        }
+        return rules;
+    }
+
+    /**
+     * A quarter of the URLs hit hosts from the rule set, the rest are ordinary CDN and first party requests
+     * with realistic path depths and query strings.
+     */
+    private static List<String> generateUrls(Random random, List<String> rules) {
+        var blockedHosts = new ArrayList<String>();
+        for (var rule : rules) {
+            if (rule.startsWith("||") && rule.endsWith("^")) {
+                blockedHosts.add(rule.substring(2, rule.length() - 1));
+            }
+        }
+
+        var urls = new ArrayList<String>();
+        for (int i = 0; i < 200_000; i++) {
+            String host;
+            if (random.nextInt(4) == 0) {
+                host = blockedHosts.get(random.nextInt(blockedHosts.size()));
+                if (random.nextBoolean()) {
+                    host = word(random) + "." + host;
+                }
+            } else {
+                host = word(random) + "." + domain(random);
+            }
+
+            var url = new StringBuilder(random.nextInt(10) == 0 ? "http://" : "https://").append(host);
+            var depth = 1 + random.nextInt(4);
+            for (int j = 0; j < depth; j++) {
+                url.append('/').append(word(random));
+                if (random.nextInt(3) == 0) {
+                    url.append('-').append(Integer.toHexString(random.nextInt()));
+                }
+            }
+            url.append(EXTENSIONS[random.nextInt(EXTENSIONS.length)]);
+
+            if (random.nextBoolean()) {
+                url.append("?v=").append(random.nextInt(100_000));
+                var parameters = random.nextInt(4);
+                for (int j = 0; j < parameters; j++) {
+                    url.append('&').append(word(random)).append('=').append(Long.toHexString(random.nextLong()));
+                }
+            }
+            urls.add(url.toString());
+        }
+        return urls;
+    }
+
+    private static String domain(Random random) {
+        return word(random) + word(random) + random.nextInt(1000) + "." + TLDS[random.nextInt(TLDS.length)];
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
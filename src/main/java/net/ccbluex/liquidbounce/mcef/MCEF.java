@@ -20,6 +20,7 @@
 
 package net.ccbluex.liquidbounce.mcef;
 
+import net.ccbluex.liquidbounce.mcef.cache.MCEFCacheDirectoryManager;
 import net.ccbluex.liquidbounce.mcef.cef.CefHelper;
 import net.minecraft.client.MinecraftClient;
 import org.slf4j.Logger;
@@ -28,6 +29,8 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 
 /**
  * An API to create Chromium web browsers in Minecraft. Uses
@@ -39,9 +42,13 @@ public enum MCEF {
 
     public final Logger LOGGER = LoggerFactory.getLogger("MCEF");
     private MCEFSettings settings;
-    private MCEFApp app;
-    private MCEFClient client;
+    private volatile MCEFApp app;
+    private volatile MCEFClient client;
     private MCEFResourceManager resourceManager;
+    private final MCEFRequestContexts requestContexts = new MCEFRequestContexts();
+    private final Object initializationLock = new Object();
+    private boolean initializationStarted;
+    private CompletableFuture<Boolean> initialization = new CompletableFuture<>();
     
     public Logger getLogger() {
         return LOGGER;
@@ -53,7 +60,7 @@ public enum MCEF {
      * Get access to various settings for MCEF.
      * @return Returns the existing {@link MCEFSettings} or creates a new {@link MCEFSettings} and loads from disk (blocking)
      */
-    public MCEFSettings getSettings() {
+    public synchronized MCEFSettings getSettings() {
         if (settings == null) {
             settings = new MCEFSettings();
         }
@@ -65,15 +72,148 @@ public enum MCEF {
         return resourceManager = MCEFResourceManager.newResourceManager();
     }
 
+    /**
+     * Initializes CEF on the calling thread, which has to be the render thread. If {@link #initializeAsync()} was
+     * called before, waits for it instead.
+     * If initializing fails, or after a {@link #shutdown()}, it can be called again to start over.
+     * @return true if MCEF is initialized correctly, false if not
+     */
     public boolean initialize() {
+        CompletableFuture<Boolean> future;
+        boolean started;
+        synchronized (initializationLock) {
+            future = initialization;
+            started = initializationStarted;
+            initializationStarted = true;
+        }
+
+        if (started) {
+            var renderThread = MinecraftClient.getInstance();
+            if (renderThread != null && renderThread.isOnThread()) {
+                // the pending attempt finishes with a render thread task
+                renderThread.runTasks(future::isDone);
+            }
+            return future.join();
+        }
+
+        try {
+            return completeInitialization(future, prepareCef() && startCef());
+        } catch (RuntimeException e) {
+            failInitialization(future, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the natives and starts the CEF processes on a separate thread, so they run in parallel with loading
+     * the game's resources. CEF itself is then initialized with the next task of the render thread, which pumps
+     * its message loop. The settings and the {@link #newResourceManager() resource manager} must be set up before.
+     * On macOS, all of it runs on the render thread.
+     * <p>
+     * Browsers requested in the meantime with {@link #createBrowserAsync} are created once it is done.
+     * Calling it again, or after {@link #initialize()}, returns the same future, unless initializing failed or
+     * MCEF was shut down since, in which case it starts over.
+     * @return completes with true if MCEF is initialized correctly, false if not
+     */
+    public CompletableFuture<Boolean> initializeAsync() {
+        CompletableFuture<Boolean> future;
+        synchronized (initializationLock) {
+            future = initialization;
+            if (initializationStarted) {
+                return future;
+            }
+            initializationStarted = true;
+        }
+
+        // Not the static field, it is null if MCEF was loaded before the client was created
+        var renderThread = MinecraftClient.getInstance();
+        if (MCEFPlatform.getPlatform().isMacOS()) {
+            renderThread.execute(() -> runInitializationStep(future, () -> prepareCef() && startCef()));
+        } else {
+            var thread = new Thread(() -> {
+                try {
+                    if (!prepareCef()) {
+                        completeInitialization(future, false);
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.error("Failed to initialize Chromium Embedded Framework", e);
+                    failInitialization(future, e);
+                    return;
+                }
+
+                renderThread.execute(() -> runInitializationStep(future, this::startCef));
+            }, "MCEF-Init");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return future;
+    }
+
+    private void runInitializationStep(CompletableFuture<Boolean> future, BooleanSupplier step) {
+        try {
+            completeInitialization(future, step.getAsBoolean());
+        } catch (RuntimeException e) {
+            LOGGER.error("Failed to initialize Chromium Embedded Framework", e);
+            failInitialization(future, e);
+        }
+    }
+
+    private boolean completeInitialization(CompletableFuture<Boolean> future, boolean initialized) {
+        if (!initialized) {
+            resetInitialization(future);
+        }
+        future.complete(initialized);
+        return initialized;
+    }
+
+    private void failInitialization(CompletableFuture<Boolean> future, RuntimeException e) {
+        resetInitialization(future);
+        future.completeExceptionally(e);
+    }
+
+    /**
+     * Lets the next {@link #initialize()} start over, if the given attempt is still the current one.
+     */
+    private void resetInitialization(CompletableFuture<Boolean> attempt) {
+        synchronized (initializationLock) {
+            if (initialization == attempt) {
+                initialization = new CompletableFuture<>();
+                initializationStarted = false;
+            }
+        }
+    }
+
+    /**
+     * The part of initializing that can run off the render thread, see {@link CefHelper#prepare()}.
+     */
+    private boolean prepareCef() {
         LOGGER.info("Initializing CEF on " + MCEFPlatform.getPlatform().getNormalizedName() + "...");
 
-        if (CefHelper.init()) {
+        if (CefHelper.prepare()) {
+            return true;
+        }
+
+        LOGGER.info("Could not initialize Chromium Embedded Framework");
+        shutdown();
+        return false;
+    }
+
+    /**
+     * Initializes CEF itself, must run on the render thread, see {@link CefHelper#start()}.
+     */
+    private boolean startCef() {
+        if (CefHelper.start()) {
             app = new MCEFApp(CefHelper.getCefApp());
             client = new MCEFClient(CefHelper.getCefClient());
 
             LOGGER.info("Chromium Embedded Framework initialized");
 
+            var cacheDirectoryManager = CefHelper.getCacheDirectoryManager();
+            if (cacheDirectoryManager != null) {
+                cacheDirectoryManager.scanAsync();
+            }
+
             // Handle shutdown events, macOS is special
             // These are important; the jcef process will linger around if not done
             MCEFPlatform platform = MCEFPlatform.getPlatform();
@@ -116,14 +256,45 @@ public enum MCEF {
         return resourceManager;
     }
 
+    /**
+     * @return the manager of {@link MCEFSettings#getCacheDirectory()}, or null if no cache directory is set
+     */
+    public MCEFCacheDirectoryManager getCacheDirectoryManager() {
+        return CefHelper.getCacheDirectoryManager();
+    }
+
+    public MCEFRequestContexts getRequestContexts() {
+        return requestContexts;
+    }
+
     /**
      * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
      * Creates a new Chromium web browser with some starting URL. Can set it to be transparent rendering.
      * @return the {@link MCEFBrowser} web browser instance
      */
     public MCEFBrowser createBrowser(String url, boolean transparent, int frameRate) {
+        return createBrowser(url, transparent, frameRate, MCEFContextOptions.global());
+    }
+
+    /**
+     * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
+     * Creates a new Chromium web browser with some starting URL, width, and height.
+     * Can set it to be transparent rendering.
+     * @return the {@link MCEFBrowser} web browser instance
+     */
+    public MCEFBrowser createBrowser(String url, boolean transparent, int width, int height, int frameRate) {
+        return createBrowser(url, transparent, width, height, frameRate, MCEFContextOptions.global());
+    }
+
+    /**
+     * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
+     * Creates a new Chromium web browser with some starting URL, using the request context described by
+     * the given options, e.g. {@link MCEFContextOptions#ephemeral()} for a browser that never touches the disk.
+     * @return the {@link MCEFBrowser} web browser instance
+     */
+    public MCEFBrowser createBrowser(String url, boolean transparent, int frameRate, MCEFContextOptions contextOptions) {
         assertInitialized();
-        MCEFBrowser browser = new MCEFBrowser(client, url, transparent, frameRate);
+        MCEFBrowser browser = new MCEFBrowser(client, url, transparent, frameRate, contextOptions);
         browser.setCloseAllowed();
         browser.createImmediately();
         return browser;
@@ -131,19 +302,49 @@ public enum MCEF {
 
     /**
      * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
-     * Creates a new Chromium web browser with some starting URL, width, and height.
-     * Can set it to be transparent rendering.
+     * Creates a new Chromium web browser with some starting URL, width, height and request context options.
      * @return the {@link MCEFBrowser} web browser instance
      */
-    public MCEFBrowser createBrowser(String url, boolean transparent, int width, int height, int frameRate) {
+    public MCEFBrowser createBrowser(String url, boolean transparent, int width, int height, int frameRate,
+                                     MCEFContextOptions contextOptions) {
         assertInitialized();
-        MCEFBrowser browser = new MCEFBrowser(client, url, transparent, frameRate);
+        MCEFBrowser browser = new MCEFBrowser(client, url, transparent, frameRate, contextOptions);
         browser.setCloseAllowed();
         browser.createImmediately();
         browser.resize(width, height);
         return browser;
     }
 
+    /**
+     * Creates a new Chromium web browser once MCEF is initialized, see {@link #initializeAsync()}.
+     * The browser is created on the render thread.
+     * @return completes with the {@link MCEFBrowser} web browser instance, or exceptionally if MCEF could not be initialized
+     */
+    public CompletableFuture<MCEFBrowser> createBrowserAsync(String url, boolean transparent, int width, int height,
+                                                            int frameRate) {
+        return createBrowserAsync(url, transparent, width, height, frameRate, MCEFContextOptions.global());
+    }
+
+    /**
+     * Creates a new Chromium web browser with the given request context options once MCEF is initialized,
+     * see {@link #initializeAsync()}. The browser is created on the render thread.
+     * @return completes with the {@link MCEFBrowser} web browser instance, or exceptionally if MCEF could not be initialized
+     */
+    public CompletableFuture<MCEFBrowser> createBrowserAsync(String url, boolean transparent, int width, int height,
+                                                            int frameRate, MCEFContextOptions contextOptions) {
+        CompletableFuture<Boolean> future;
+        synchronized (initializationLock) {
+            future = initialization;
+        }
+
+        return future.thenApplyAsync(initialized -> {
+            if (!initialized) {
+                throw new RuntimeException("Chromium Embedded Framework could not be initialized.");
+            }
+            return createBrowser(url, transparent, width, height, frameRate, contextOptions);
+        }, MinecraftClient.getInstance());
+    }
+
     /**
      * Check if MCEF is initialized.
      * @return true if MCEF is initialized correctly, false if not
@@ -154,13 +355,23 @@ public enum MCEF {
 
     /**
      * Request a shutdown of MCEF/CEF. Nothing will happen if not initialized.
+     * Afterwards, {@link #initialize()} and {@link #initializeAsync()} start over.
      */
     public void shutdown() {
         if (isInitialized()) {
+            MCEFResourceTracker.reportLeaks();
             CefHelper.shutdown();
             client = null;
             app = null;
         }
+
+        synchronized (initializationLock) {
+            // An attempt still running resets itself if it fails, see initialize()
+            if (initialization.isDone()) {
+                initialization = new CompletableFuture<>();
+                initializationStarted = false;
+            }
+        }
     }
 
     /**
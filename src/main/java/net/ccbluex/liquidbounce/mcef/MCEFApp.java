@@ -20,13 +20,24 @@
 
 package net.ccbluex.liquidbounce.mcef;
 
+import net.ccbluex.liquidbounce.mcef.scheme.MCEFResourceProvider;
+import net.ccbluex.liquidbounce.mcef.scheme.MCEFSchemeHandlerFactory;
+import net.ccbluex.liquidbounce.mcef.scheme.MCEFSchemeResource;
 import org.cef.CefApp;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * A wrapper around {@link CefApp}
  */
 public class MCEFApp {
     private final CefApp handle;
+    private final Map<String, MCEFSchemeHandlerFactory> schemeHandlerFactories = new ConcurrentHashMap<>();
 
     public MCEFApp(CefApp handle) {
         this.handle = handle;
@@ -35,4 +46,67 @@ public class MCEFApp {
     public CefApp getHandle() {
         return handle;
     }
+
+    /**
+     * Serves {@code scheme://domain/...} from the given provider, e.g. {@code mcef://ui/index.html}.
+     * The scheme has to be listed in {@link MCEFSettings#getCustomSchemes()} before initialization.
+     * <p>
+     * CEF only registers the provider with the global request context. Browsers with an
+     * {@link MCEFContextOptions#ephemeral() ephemeral} context are served by {@link MCEFClient} instead.
+     */
+    public void registerResourceProvider(String scheme, String domain, MCEFResourceProvider provider) {
+        if (!MCEF.INSTANCE.getSettings().getCustomSchemes().contains(scheme)) {
+            MCEF.INSTANCE.getLogger().warn("Scheme {} is not a registered custom scheme, requests may not reach it", scheme);
+        }
+
+        var factory = new MCEFSchemeHandlerFactory(provider);
+        if (!handle.registerSchemeHandlerFactory(scheme, domain, factory)) {
+            throw new RuntimeException("Failed to register resource provider for " + scheme + "://" + domain);
+        }
+        schemeHandlerFactories.put(originOf(scheme, domain), factory);
+    }
+
+    /**
+     * Opens a resource of a registered provider directly, without going through CEF.
+     *
+     * @return the resource, or null if no provider is registered for the URL or it has no such resource
+     */
+    public MCEFSchemeResource openResource(String url) throws IOException {
+        var factory = schemeHandlerFactoryOf(url);
+        return factory != null ? factory.open(url) : null;
+    }
+
+    /**
+     * @return the factory registered for the scheme and domain of the URL, or null if there is none
+     */
+    MCEFSchemeHandlerFactory schemeHandlerFactoryOf(String url) {
+        if (schemeHandlerFactories.isEmpty()) {
+            return null;
+        }
+
+        URI uri;
+        try {
+            uri = new URI(url);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            return null;
+        }
+
+        return schemeHandlerFactories.get(originOf(uri.getScheme(), uri.getHost()));
+    }
+
+    /**
+     * Removes all resource providers registered with {@link #registerResourceProvider}.
+     */
+    public void clearResourceProviders() {
+        handle.clearSchemeHandlerFactories();
+        schemeHandlerFactories.clear();
+    }
+
+    private static String originOf(String scheme, String domain) {
+        return scheme.toLowerCase(Locale.ROOT) + "://" + domain.toLowerCase(Locale.ROOT);
+    }
 }
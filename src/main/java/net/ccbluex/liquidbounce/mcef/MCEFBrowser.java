@@ -20,10 +20,13 @@
 
 package net.ccbluex.liquidbounce.mcef;
 
-import com.mojang.blaze3d.platform.GlStateManager;
-import com.mojang.blaze3d.systems.RenderSystem;
+import net.ccbluex.liquidbounce.mcef.audio.MCEFAudioStream;
+import net.ccbluex.liquidbounce.mcef.channel.MCEFMessageChannel;
+import net.ccbluex.liquidbounce.mcef.channel.MCEFStateSync;
 import net.ccbluex.liquidbounce.mcef.glfw.MCEFGlfwCursorHelper;
 import net.ccbluex.liquidbounce.mcef.listeners.MCEFCursorChangeListener;
+import net.ccbluex.liquidbounce.mcef.metrics.MCEFLatencyTracker;
+import net.ccbluex.liquidbounce.mcef.metrics.MCEFLatencyTracker.InputType;
 import org.cef.browser.CefBrowser;
 import org.cef.browser.CefBrowserOsr;
 import org.cef.callback.CefDragData;
@@ -36,10 +39,10 @@ import org.lwjgl.system.MemoryUtil;
 
 import java.awt.*;
 import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
 import static org.lwjgl.glfw.GLFW.*;
-import static org.lwjgl.opengl.GL11.*;
 
 /**
  * An instance of an "Off-screen rendered" Chromium web browser.
@@ -47,6 +50,9 @@ import static org.lwjgl.opengl.GL11.*;
  * browser control shortcuts, cursor handling, drag & drop support.
  */
 public class MCEFBrowser extends CefBrowserOsr {
+    private final MCEFClient client;
+    private final MCEFContextOptions contextOptions;
+    private final int frameRate;
     /**
      * The renderer for the browser.
      */
@@ -78,20 +84,109 @@ public class MCEFBrowser extends CefBrowserOsr {
     protected Rectangle popupSize;
     protected boolean showPopup = false;
     protected boolean popupDrawn = false;
+    private MCEFResourceTracker.Resource popupResource;
     private long lastClickTime = 0;
     private int clicks;
     private int mouseButton;
+    /**
+     * Queue used to coalesce input when {@link #setInputCoalescing(boolean)} is enabled.
+     */
+    private final MCEFInputQueue inputQueue = new MCEFInputQueue(this);
+    private boolean inputCoalescing = false;
+    /**
+     * Whether input is handed to CEF on the {@link MCEFInputDispatcher} thread instead of the calling thread.
+     */
+    private boolean asyncInputDispatch = false;
+    /**
+     * Optional input to paint latency instrumentation, disabled by default.
+     */
+    private final MCEFLatencyTracker latencyTracker = new MCEFLatencyTracker(this);
+    /**
+     * The latency probe of the input being handled, sent along with it by {@link #dispatchInput}.
+     */
+    private Runnable pendingProbe;
+    /**
+     * Created on first use, so pages of browsers that never use it do not get the script injected.
+     */
+    private volatile MCEFMessageChannel messageChannel;
+    private volatile MCEFStateSync stateSync;
+    private final MCEFAudioStream audio = new MCEFAudioStream();
+    /**
+     * System.nanoTime() of the last paint and the last input, watched by the {@link MCEFWatchdog}.
+     */
+    private volatile long lastPaintTime = System.nanoTime();
+    private volatile long lastInputTime = 0;
 
     private final boolean isMacOs = MCEFPlatform.getPlatform().isMacOS();
+    private final MCEFResourceTracker.Resource resource;
 
     public MCEFBrowser(MCEFClient client, String url, boolean transparent, int frameRate) {
-        super(client.getHandle(), url, transparent, null, new MCEFBrowserSettings(frameRate));
+        this(client, url, transparent, frameRate, MCEFContextOptions.global());
+    }
+
+    public MCEFBrowser(MCEFClient client, String url, boolean transparent, int frameRate, MCEFContextOptions contextOptions) {
+        super(client.getHandle(), url, transparent, MCEF.INSTANCE.getRequestContexts().acquire(contextOptions),
+                new MCEFBrowserSettings(frameRate));
+        this.client = client;
+        this.contextOptions = contextOptions;
+        this.frameRate = frameRate;
         renderer = new MCEFRenderer(transparent);
         cursorChangeListener = (cefCursorID) -> setCursor(CefCursorType.fromId(cefCursorID));
 
+        // the cleaner only gets to browsers that never reached CEF, all they hold is their request context
+        var requestContext = getRequestContext();
+        resource = MCEFResourceTracker.track(this, MCEFResourceTracker.Kind.BROWSER, 0, "browser " + url,
+                () -> MCEF.INSTANCE.getRequestContexts().release(contextOptions, requestContext));
+
+        client.onBrowserCreated(this);
+        var processSampler = MCEFProcessSampler.getInstanceIfPresent();
+        if (processSampler != null) {
+            processSampler.onBrowserCreated(this);
+        }
+
         mc.submit(renderer::initialize);
     }
 
+    public MCEFClient getMCEFClient() {
+        return client;
+    }
+
+    public MCEFContextOptions getContextOptions() {
+        return contextOptions;
+    }
+
+    public int getFrameRate() {
+        return frameRate;
+    }
+
+    public long getLastPaintTime() {
+        return lastPaintTime;
+    }
+
+    /**
+     * @return System.nanoTime() of the last input, 0 if there was none yet
+     */
+    public long getLastInputTime() {
+        return lastInputTime;
+    }
+
+    /**
+     * Creates a new browser with the same settings, size and URL, then closes this one.
+     * Handlers registered for this browser, a custom cursor change listener, its message channel
+     * and state sync are not carried over.
+     */
+    public MCEFBrowser recreate() {
+        var browser = new MCEFBrowser(client, getURL(), renderer.isTransparent(), frameRate, contextOptions);
+        browser.setCloseAllowed();
+        browser.createImmediately();
+        browser.resize(browser_rect_.width, browser_rect_.height);
+        browser.setInputCoalescing(inputCoalescing);
+        browser.setAsyncInputDispatch(asyncInputDispatch);
+
+        close();
+        return browser;
+    }
+
     public MCEFRenderer getRenderer() {
         return renderer;
     }
@@ -108,6 +203,97 @@ public class MCEFBrowser extends CefBrowserOsr {
         return dragContext;
     }
 
+    public MCEFInputQueue getInputQueue() {
+        return inputQueue;
+    }
+
+    public boolean isAsyncInputDispatch() {
+        return asyncInputDispatch;
+    }
+
+    /**
+     * When enabled, the JNI calls that send input to CEF are made on the {@link MCEFInputDispatcher} thread,
+     * so they can no longer stall the render thread. Input keeps its order and the button mask is still
+     * tracked on the calling thread. Disabling it waits for the input that is already in flight.
+     */
+    public void setAsyncInputDispatch(boolean asyncInputDispatch) {
+        if (this.asyncInputDispatch && !asyncInputDispatch) {
+            try {
+                MCEFInputDispatcher.getInstance().barrier().get(1, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                MCEF.INSTANCE.getLogger().warn("Timed out waiting for browser input to be dispatched", e);
+            }
+        }
+
+        this.asyncInputDispatch = asyncInputDispatch;
+    }
+
+    public MCEFLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    /**
+     * Creating the channel injects its script into the current and every following page, see {@link MCEFMessageChannel}.
+     */
+    public MCEFMessageChannel getMessageChannel() {
+        var channel = messageChannel;
+        if (channel == null) {
+            synchronized (this) {
+                channel = messageChannel;
+                if (channel == null) {
+                    messageChannel = channel = new MCEFMessageChannel(this);
+                }
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Creating the state sync also creates the {@link #getMessageChannel() message channel} it sends its patches through.
+     */
+    public MCEFStateSync getStateSync() {
+        var sync = stateSync;
+        if (sync == null) {
+            synchronized (this) {
+                sync = stateSync;
+                if (sync == null) {
+                    stateSync = sync = new MCEFStateSync(this);
+                }
+            }
+        }
+        return sync;
+    }
+
+    /**
+     * The audio of the page, played through the game's sound engine unless disabled.
+     */
+    public MCEFAudioStream getAudio() {
+        return audio;
+    }
+
+    /**
+     * @return the message channel, or null if {@link #getMessageChannel()} was never called
+     */
+    public MCEFMessageChannel getMessageChannelIfPresent() {
+        return messageChannel;
+    }
+
+    public boolean isInputCoalescing() {
+        return inputCoalescing;
+    }
+
+    /**
+     * When enabled, input is queued and sent to CEF once per frame instead of crossing JNI for
+     * every GLFW callback. Mouse moves are merged and wheel deltas are summed, see {@link MCEFInputQueue}.
+     * Disabling it sends whatever is still queued right away.
+     */
+    public void setInputCoalescing(boolean inputCoalescing) {
+        this.inputCoalescing = inputCoalescing;
+        if (!inputCoalescing) {
+            inputQueue.flush();
+        }
+    }
+
     // Popups
     @Override
     public void onPopupShow(CefBrowser browser, boolean show) {
@@ -120,9 +306,20 @@ public class MCEFBrowser extends CefBrowserOsr {
     public void onPopupSize(CefBrowser browser, Rectangle size) {
         super.onPopupSize(browser, size);
         popupSize = size;
-        this.popupGraphics = ByteBuffer.allocateDirect(
-                size.width * size.height * 4
-        );
+        freePopupGraphics();
+        var bytes = size.width * size.height * 4;
+        var graphics = MemoryUtil.memCalloc(bytes);
+        this.popupGraphics = graphics;
+        popupResource = MCEFResourceTracker.track(this, MCEFResourceTracker.Kind.DIRECT_BUFFER, bytes, "popup buffer",
+                () -> MemoryUtil.memFree(graphics));
+    }
+
+    private void freePopupGraphics() {
+        popupGraphics = null;
+        if (popupResource != null) {
+            popupResource.dispose();
+            popupResource = null;
+        }
     }
 
     // Graphics
@@ -132,6 +329,27 @@ public class MCEFBrowser extends CefBrowserOsr {
         if (dirtyRects.length == 0)
             return;
 
+        latencyTracker.onPaint();
+        lastPaintTime = System.nanoTime();
+        if (client.getNavigationTelemetry().isEnabled()) {
+            client.getNavigationTelemetry().onPaint(this);
+        }
+
+        var glState = renderer.getGlState();
+        glState.begin();
+        try {
+            paint(glState, popup, dirtyRects, buffer, width, height);
+        } finally {
+            // hand the unpack state back to the game once per batch
+            glState.end();
+        }
+    }
+
+    /**
+     * Uploads the dirty regions of a frame. All GL state changes go through the given
+     * {@link MCEFGlStateCache}, so anything that is already set is skipped.
+     */
+    protected void paint(MCEFGlStateCache glState, boolean popup, Rectangle[] dirtyRects, ByteBuffer buffer, int width, int height) {
         if (!popup) {
             if (lastWidth != width || lastHeight != height) {
                 lastWidth = width;
@@ -141,41 +359,41 @@ public class MCEFBrowser extends CefBrowserOsr {
                 renderer.onPaint(buffer, width, height);
             } else {
                 if (renderer.getTextureID() == 0) return;
-                RenderSystem.bindTexture(renderer.getTextureID());
-                RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, width);
+                glState.bindTexture(renderer.getTextureID());
+                glState.unpackRowLength(width);
                 for (Rectangle dirtyRect : dirtyRects) {
-                    GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
-                    GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
+                    glState.unpackSkipPixels(dirtyRect.x);
+                    glState.unpackSkipRows(dirtyRect.y);
                     renderer.onPaint(buffer, dirtyRect.x, dirtyRect.y, dirtyRect.width, dirtyRect.height);
                 }
                 if ((popupDrawn || showPopup) && popupSize != null) {
                     // interpret where the popup was as a dirty rect
                     if (!showPopup) {
                         // if the popup is not visible, just draw the contents of the buffer
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, popupSize.width);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, popupSize.height);
+                        glState.unpackSkipPixels(popupSize.width);
+                        glState.unpackSkipRows(popupSize.height);
                         renderer.onPaint(buffer, popupSize.x, popupSize.y, popupSize.width, popupSize.height);
-                        popupGraphics = null;
+                        freePopupGraphics();
                         popupSize = null;
                     } else if (popupDrawn) {
                         // else, a use copy of the popup graphics, as it needs to remain visible
                         // and for some reason that I do not for the life of me understand, chromium does not seem to keep this data in memory outside of the paint loop, meaning it has to be copied around, which wastes performance
-                        RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, popupSize.width);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, 0);
+                        glState.unpackRowLength(popupSize.width);
+                        glState.unpackSkipPixels(0);
+                        glState.unpackSkipRows(0);
                         renderer.onPaint(popupGraphics, popupSize.x, popupSize.y, popupSize.width, popupSize.height);
                     }
                 }
             }
         } else {
             if (renderer.getTextureID() == 0) return;
-            RenderSystem.bindTexture(renderer.getTextureID());
+            glState.bindTexture(renderer.getTextureID());
             int start = buffer.capacity();
             int end = 0;
             for (Rectangle dirtyRect : dirtyRects) {
-                RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, popupSize.width);
-                GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
-                GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
+                glState.unpackRowLength(popupSize.width);
+                glState.unpackSkipPixels(dirtyRect.x);
+                glState.unpackSkipRows(dirtyRect.y);
                 renderer.onPaint(buffer, popupSize.x + dirtyRect.x, popupSize.y + dirtyRect.y, dirtyRect.width, dirtyRect.height);
 
                 int rectStart = (dirtyRect.x + ((dirtyRect.y) * popupSize.width)) << 2;
@@ -209,16 +427,23 @@ public class MCEFBrowser extends CefBrowserOsr {
         wasResized(width, height);
     }
 
+    private void onInput(InputType type) {
+        pendingProbe = latencyTracker.onInput(type);
+        lastInputTime = System.nanoTime();
+    }
+
     // Inputs
     public void sendKeyPress(int keyCode, long scanCode, int modifiers) {
+        onInput(InputType.KEY);
+
         if (modifiers == GLFW_MOD_CONTROL && keyCode == GLFW_KEY_R) {
-            reload();
+            dispatchInput(this::reload);
             return;
         }
 
         CefKeyEvent e = new CefKeyEvent(CefKeyEvent.KEY_PRESS, keyCode, (char) keyCode, modifiers);
         e.scancode = scanCode;
-        sendKeyEvent(e);
+        dispatchInput(() -> sendKeyEvent(e));
     }
 
     public void sendKeyRelease(int keyCode, long scanCode, int modifiers) {
@@ -226,9 +451,11 @@ public class MCEFBrowser extends CefBrowserOsr {
             return;
         }
 
+        onInput(InputType.KEY);
+
         CefKeyEvent e = new CefKeyEvent(CefKeyEvent.KEY_RELEASE, keyCode, (char) keyCode, modifiers);
         e.scancode = scanCode;
-        sendKeyEvent(e);
+        dispatchInput(() -> sendKeyEvent(e));
     }
 
     public void sendKeyTyped(char c, int modifiers) {
@@ -236,13 +463,28 @@ public class MCEFBrowser extends CefBrowserOsr {
             return;
         }
 
+        onInput(InputType.KEY);
+
         CefKeyEvent e = new CefKeyEvent(CefKeyEvent.KEY_TYPE, c, c, modifiers);
-        sendKeyEvent(e);
+        dispatchInput(() -> sendKeyEvent(e));
     }
 
     public void sendMouseMove(int mouseX, int mouseY) {
-        sendMouseEvent(new CefMouseEvent(CefMouseEvent.MOUSE_MOVED, mouseX, mouseY, clicks, mouseButton,
-                dragContext.getVirtualModifiers(btnMask)));
+        onInput(InputType.MOUSE_MOVE);
+
+        var modifiers = dragContext.getVirtualModifiers(btnMask);
+
+        if (inputCoalescing) {
+            inputQueue.mouseMove(mouseX, mouseY, clicks, mouseButton, modifiers);
+        } else {
+            var clicks = this.clicks;
+            var button = this.mouseButton;
+            runInput(() -> dispatchMouseMove(mouseX, mouseY, clicks, button, modifiers));
+        }
+    }
+
+    void dispatchMouseMove(int mouseX, int mouseY, int clicks, int button, int modifiers) {
+        sendMouseEvent(new CefMouseEvent(CefMouseEvent.MOUSE_MOVED, mouseX, mouseY, clicks, button, modifiers));
 
         if (dragContext.isDragging()) {
             this.dragTargetDragOver(new Point(mouseX, mouseY), 0, dragContext.getMask());
@@ -250,6 +492,8 @@ public class MCEFBrowser extends CefBrowserOsr {
     }
 
     public void sendMousePress(int mouseX, int mouseY, int button) {
+        onInput(InputType.MOUSE_BUTTON);
+
         button = swapButton(button);
 
         if (button == 0) {
@@ -264,7 +508,8 @@ public class MCEFBrowser extends CefBrowserOsr {
         var time = System.currentTimeMillis();
         clicks = time - lastClickTime < 500 ? 2 : 1;
 
-        sendMouseEvent(new CefMouseEvent(GLFW_PRESS, mouseX, mouseY, clicks, button, btnMask));
+        var event = new CefMouseEvent(GLFW_PRESS, mouseX, mouseY, clicks, button, btnMask);
+        dispatchInput(() -> sendMouseEvent(event));
 
         this.lastClickTime = time;
         this.mouseButton = button;
@@ -272,6 +517,8 @@ public class MCEFBrowser extends CefBrowserOsr {
 
     // TODO: it may be necessary to add modifiers here
     public void sendMouseRelease(int mouseX, int mouseY, int button) {
+        onInput(InputType.MOUSE_BUTTON);
+
         button = swapButton(button);
 
         if (button == 0 && (btnMask & CefMouseEvent.BUTTON1_MASK) != 0) {
@@ -282,18 +529,24 @@ public class MCEFBrowser extends CefBrowserOsr {
             btnMask ^= CefMouseEvent.BUTTON3_MASK;
         }
 
-        // drag & drop
-        if (dragContext.isDragging()) {
-            if (button == 0) {
-                finishDragging(mouseX, mouseY);
+        var finishDrag = button == 0;
+        // captured here, the dispatch may run on the input thread while btnMask keeps changing
+        var mask = btnMask;
+        var event = new CefMouseEvent(GLFW_RELEASE, mouseX, mouseY, clicks, button, mask);
+        dispatchInput(() -> {
+            // drag & drop
+            if (finishDrag && dragContext.isDragging()) {
+                finishDragging(mouseX, mouseY, mask);
             }
-        }
 
-        sendMouseEvent(new CefMouseEvent(GLFW_RELEASE, mouseX, mouseY, clicks, button, btnMask));
+            sendMouseEvent(event);
+        });
         this.mouseButton = 0;
     }
 
     public void sendMouseWheel(int mouseX, int mouseY, double amount) {
+        onInput(InputType.MOUSE_WHEEL);
+
         // macOS generally has a slow scroll speed that feels more natural with their magic mice / trackpads
         if (!isMacOs) {
             // This removes the feeling of "smooth scroll"
@@ -307,10 +560,49 @@ public class MCEFBrowser extends CefBrowserOsr {
             amount = amount * 3;
         }
 
+        if (inputCoalescing) {
+            inputQueue.mouseWheel(mouseX, mouseY, amount);
+        } else {
+            var wheelAmount = amount;
+            runInput(() -> dispatchMouseWheel(mouseX, mouseY, wheelAmount));
+        }
+    }
+
+    void dispatchMouseWheel(int mouseX, int mouseY, double amount) {
         var event = new CefMouseWheelEvent(CefMouseWheelEvent.WHEEL_UNIT_SCROLL, mouseX, mouseY, amount, 0);
         sendMouseWheelEvent(event);
     }
 
+    /**
+     * Sends an input event right away, or queues it behind the pending input if input coalescing is enabled.
+     * The latency probe of the input, if any, is sent right after it.
+     */
+    private void dispatchInput(Runnable event) {
+        var probe = pendingProbe;
+        pendingProbe = null;
+        Runnable dispatch = probe == null ? event : () -> {
+            event.run();
+            probe.run();
+        };
+
+        if (inputCoalescing) {
+            inputQueue.event(dispatch);
+        } else {
+            runInput(dispatch);
+        }
+    }
+
+    /**
+     * Makes the actual call into CEF, on the dispatcher thread if asynchronous input dispatch is enabled.
+     */
+    void runInput(Runnable dispatch) {
+        if (asyncInputDispatch) {
+            MCEFInputDispatcher.getInstance().submit(dispatch);
+        } else {
+            dispatch.run();
+        }
+    }
+
     // Drag & drop
     @Override
     public boolean startDragging(CefBrowser browser, CefDragData dragData, int mask, int x, int y) {
@@ -338,7 +630,11 @@ public class MCEFBrowser extends CefBrowserOsr {
     }
 
     public void finishDragging(int x, int y) {
-        dragTargetDrop(new Point(x, y), btnMask);
+        finishDragging(x, y, btnMask);
+    }
+
+    private void finishDragging(int x, int y, int modifiers) {
+        dragTargetDrop(new Point(x, y), modifiers);
         dragTargetDragLeave();
         dragContext.stopDragging();
         this.onCursorChange(this, dragContext.getActualCursor());
@@ -352,15 +648,69 @@ public class MCEFBrowser extends CefBrowserOsr {
 
     // Closing
     public void close() {
+        client.removeHandlers(this);
+        client.onBrowserClosed(this);
+        var watchdog = MCEFWatchdog.getInstanceIfPresent();
+        if (watchdog != null) {
+            watchdog.unwatch(this);
+        }
+        var processSampler = MCEFProcessSampler.getInstanceIfPresent();
+        if (processSampler != null) {
+            processSampler.onBrowserClosed(this);
+        }
+        if (stateSync != null) {
+            stateSync.close();
+        }
+        if (messageChannel != null) {
+            messageChannel.close();
+        }
+        audio.close();
+        inputQueue.clear();
         renderer.cleanup();
+        freePopupGraphics();
         cursorChangeListener.onCursorChange(0);
-        super.close(true);
+        // close after any input that is still in flight, so none of it reaches a closed browser
+        runInput(() -> {
+            super.close(true);
+            // gives back the request context
+            resource.dispose();
+        });
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        mc.submit(renderer::cleanup);
-        super.finalize();
+    /**
+     * Drops everything a user of the browser attached to it and navigates to the given URL, without closing
+     * the native browser. Used by the {@link MCEFBrowserPool} when a browser is returned.
+     */
+    void reset(String url) {
+        client.removeHandlers(this);
+        var watchdog = MCEFWatchdog.getInstanceIfPresent();
+        if (watchdog != null) {
+            watchdog.unwatch(this);
+        }
+        synchronized (this) {
+            if (stateSync != null) {
+                stateSync.close();
+                stateSync = null;
+            }
+            if (messageChannel != null) {
+                messageChannel.close();
+                messageChannel = null;
+            }
+        }
+        audio.close();
+        audio.clearPosition();
+        if (dragContext.isDragging()) {
+            cancelDrag();
+        }
+        inputQueue.clear();
+        setInputCoalescing(false);
+        setAsyncInputDispatch(false);
+        btnMask = 0;
+        cursorChangeListener = (cefCursorID) -> setCursor(CefCursorType.fromId(cefCursorID));
+        cursorChangeListener.onCursorChange(0);
+
+        stopLoad();
+        loadURL(url);
     }
 
     // Cursor handling
@@ -372,6 +722,12 @@ public class MCEFBrowser extends CefBrowserOsr {
     }
 
     public void setCursor(CefCursorType cursorType) {
+        // GLFW cursors may only be changed from the main thread, drag handling can end up here from the input dispatcher
+        if (!mc.isOnThread()) {
+            mc.execute(() -> setCursor(cursorType));
+            return;
+        }
+
         var windowHandle = mc.getWindow().getHandle();
 
         // We do not want to change the cursor state since Minecraft does this for us.
@@ -0,0 +1,250 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.handler.CefLoadHandlerAdapter;
+
+import java.util.ArrayDeque;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Keeps browsers ready on {@code about:blank}, so opening a screen does not wait for a renderer process to
+ * start and the first frame to be painted.
+ * <p>
+ * Idle browsers are already created, sized and have their texture initialized. {@link #acquire} hands one
+ * out and navigates it, preferring browsers that finished loading, and the pool is refilled in the background.
+ * Browsers given back with {@link #release} are {@link MCEFBrowser#reset reset}: handlers, the message channel,
+ * state sync, watchdog and cursor listener registered by the previous user are dropped and the browser goes back
+ * to {@code about:blank}. Session storage and the history of the previous page survive this, so a pool should
+ * only be shared by pages that trust each other.
+ * <p>
+ * Everything but the counters must be called on the render thread, after {@link MCEF#initialize()}.
+ * <pre>{@code
+ * var pool = new MCEFBrowserPool(2, true, 60, 1920, 1080);
+ * // opening the screen
+ * browser = pool.acquire("mcef://ui/clickgui.html", width, height);
+ * // closing it
+ * pool.release(browser);
+ * }</pre>
+ */
+public final class MCEFBrowserPool {
+    private static final String BLANK = "about:blank";
+
+    private final boolean transparent;
+    private final int frameRate;
+    private final int width;
+    private final int height;
+    private final MCEFContextOptions contextOptions;
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+    private int size;
+    private boolean refillScheduled = false;
+    private boolean closed = false;
+
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+
+    public MCEFBrowserPool(int size, boolean transparent, int frameRate, int width, int height) {
+        this(size, transparent, frameRate, width, height, MCEFContextOptions.global());
+    }
+
+    /**
+     * Starts filling the pool right away.
+     *
+     * @param size   how many idle browsers are kept ready
+     * @param width  the size idle browsers are created with, ideally the size they will be shown at
+     * @param height see width
+     */
+    public MCEFBrowserPool(int size, boolean transparent, int frameRate, int width, int height,
+                           MCEFContextOptions contextOptions) {
+        this.size = size;
+        this.transparent = transparent;
+        this.frameRate = frameRate;
+        this.width = width;
+        this.height = height;
+        this.contextOptions = contextOptions;
+        scheduleRefill();
+    }
+
+    /**
+     * Takes an idle browser and navigates it to the URL, or creates a new browser if none is idle.
+     * The browser belongs to the caller until it is {@link #release released} or closed.
+     */
+    public MCEFBrowser acquire(String url, int width, int height) {
+        if (closed) {
+            throw new IllegalStateException("Browser pool is closed");
+        }
+
+        var entry = take();
+        scheduleRefill();
+
+        if (entry == null) {
+            misses++;
+            return MCEF.INSTANCE.createBrowser(url, transparent, width, height, frameRate, contextOptions);
+        }
+
+        hits++;
+        var browser = entry.browser();
+        browser.getMCEFClient().removeLoadHandler(browser, entry.handler());
+        if (width != this.width || height != this.height) {
+            browser.resize(width, height);
+        }
+        browser.loadURL(url);
+        return browser;
+    }
+
+    /**
+     * Gives a browser back to the pool, or closes it if the pool is full or the browser does not match it.
+     * The caller must not use the browser afterwards.
+     */
+    public void release(MCEFBrowser browser) {
+        if (closed || idle.size() >= size || browser.getRenderer().isTransparent() != transparent
+                || browser.getFrameRate() != frameRate || !browser.getContextOptions().equals(contextOptions)) {
+            browser.close();
+            return;
+        }
+
+        browser.reset(BLANK);
+        browser.resize(width, height);
+        idle.add(watch(browser));
+    }
+
+    /**
+     * Changes how many idle browsers are kept, closing the ones that are too many.
+     */
+    public void setSize(int size) {
+        this.size = size;
+        while (idle.size() > size) {
+            close(idle.pollLast());
+        }
+        scheduleRefill();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return how many idle browsers finished loading {@code about:blank}
+     */
+    public int getReadyCount() {
+        var ready = 0;
+        for (var entry : idle) {
+            if (entry.handler().ready) {
+                ready++;
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * @return how many browsers were handed out from the pool
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many browsers had to be created because the pool was empty
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Closes the idle browsers. Browsers that were handed out stay open, releasing them closes them.
+     */
+    public void close() {
+        closed = true;
+        while (!idle.isEmpty()) {
+            close(idle.poll());
+        }
+    }
+
+    private Idle take() {
+        for (var iterator = idle.iterator(); iterator.hasNext(); ) {
+            var entry = iterator.next();
+            if (entry.handler().ready) {
+                iterator.remove();
+                return entry;
+            }
+        }
+
+        // a browser that is still starting is further along than a new one
+        return idle.poll();
+    }
+
+    /**
+     * Creates one browser at a time, the next one once the previous finished loading, so filling the pool
+     * does not start several renderer processes at once.
+     */
+    private void scheduleRefill() {
+        if (refillScheduled || closed || idle.size() >= size) {
+            return;
+        }
+
+        refillScheduled = true;
+        mc.send(() -> {
+            refillScheduled = false;
+            if (closed || idle.size() >= size) {
+                return;
+            }
+
+            try {
+                idle.add(watch(MCEF.INSTANCE.createBrowser(BLANK, transparent, width, height, frameRate, contextOptions)));
+            } catch (Exception e) {
+                MCEF.INSTANCE.getLogger().error("Failed to create pooled browser", e);
+            }
+        });
+    }
+
+    private Idle watch(MCEFBrowser browser) {
+        var handler = new ReadyHandler();
+        browser.getMCEFClient().addLoadHandler(browser, handler);
+        return new Idle(browser, handler);
+    }
+
+    private static void close(Idle entry) {
+        entry.browser().close();
+    }
+
+    private record Idle(MCEFBrowser browser, ReadyHandler handler) {
+    }
+
+    private final class ReadyHandler extends CefLoadHandlerAdapter {
+        private volatile boolean ready = false;
+
+        @Override
+        public void onLoadEnd(CefBrowser browser, CefFrame frame, int httpStatusCode) {
+            if (frame.isMain() && !ready) {
+                ready = true;
+                mc.send(MCEFBrowserPool.this::scheduleRefill);
+            }
+        }
+    }
+}
@@ -20,79 +20,262 @@
 
 package net.ccbluex.liquidbounce.mcef;
 
+import net.ccbluex.liquidbounce.mcef.audio.MCEFAudioHandler;
+import net.ccbluex.liquidbounce.mcef.channel.MCEFMessageChannel;
+import net.ccbluex.liquidbounce.mcef.console.MCEFConsolePipeline;
+import net.ccbluex.liquidbounce.mcef.events.MCEFClientEvent;
+import net.ccbluex.liquidbounce.mcef.events.MCEFEventBus;
+import net.ccbluex.liquidbounce.mcef.metrics.MCEFNavigationTelemetry;
 import org.cef.CefClient;
 import org.cef.CefSettings;
 import org.cef.browser.CefBrowser;
 import org.cef.browser.CefFrame;
+import org.cef.browser.CefMessageRouter;
+import org.cef.callback.CefQueryCallback;
 import org.cef.callback.CefContextMenuParams;
 import org.cef.callback.CefMenuModel;
 import org.cef.handler.CefContextMenuHandler;
 import org.cef.handler.CefDisplayHandler;
 import org.cef.handler.CefLoadHandler;
+import org.cef.handler.CefMessageRouterHandlerAdapter;
+import org.cef.handler.CefRequestHandler;
+import org.cef.handler.CefRequestHandlerAdapter;
+import org.cef.handler.CefResourceHandler;
+import org.cef.handler.CefResourceRequestHandler;
+import org.cef.handler.CefResourceRequestHandlerAdapter;
+import org.cef.misc.BoolRef;
 import org.cef.network.CefRequest;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+
 
 /**
  * A wrapper around {@link CefClient}
+ * <p>
+ * Handlers can be added globally, receiving the callbacks of every browser, or for a single browser.
+ * Handlers registered for the browser a callback belongs to run first, followed by the global ones.
+ * <p>
+ * Handlers run on the CEF UI thread. Listeners that may be slow should subscribe to the
+ * {@link #getEventBus() event bus} instead, which delivers copies of the events asynchronously.
  */
 public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDisplayHandler {
     private final CefClient handle;
-    private final List<CefLoadHandler> loadHandlers = new ArrayList<>();
-    private final List<CefContextMenuHandler> contextMenuHandlers = new ArrayList<>();
-    private final List<CefDisplayHandler> displayHandlers = new ArrayList<>();
+    private final MCEFHandlerRegistry<CefLoadHandler> loadHandlers = new MCEFHandlerRegistry<>(new CefLoadHandler[0]);
+    private final MCEFHandlerRegistry<CefContextMenuHandler> contextMenuHandlers = new MCEFHandlerRegistry<>(new CefContextMenuHandler[0]);
+    private final MCEFHandlerRegistry<CefDisplayHandler> displayHandlers = new MCEFHandlerRegistry<>(new CefDisplayHandler[0]);
+    private final MCEFHandlerRegistry<CefRequestHandler> requestHandlers = new MCEFHandlerRegistry<>(new CefRequestHandler[0]);
+    private final MCEFEventBus eventBus = new MCEFEventBus();
+    private final MCEFConsolePipeline consolePipeline = new MCEFConsolePipeline(4096);
+    private final CefMessageRouter messageRouter;
+    private final MCEFNavigationTelemetry navigationTelemetry = new MCEFNavigationTelemetry();
+    // weak, so browsers that never reached CEF, which would otherwise hold them, can still be collected
+    private final Set<MCEFBrowser> browsers = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
 
     public MCEFClient(CefClient cefClient) {
         handle = cefClient;
         cefClient.addLoadHandler(this);
         cefClient.addContextMenuHandler(this);
         cefClient.addDisplayHandler(this);
+        cefClient.addRequestHandler(new RequestHandler());
+        cefClient.addAudioHandler(new MCEFAudioHandler());
+
+        messageRouter = CefMessageRouter.create();
+        messageRouter.addHandler(new MessageRouterHandler(), true);
+        cefClient.addMessageRouter(messageRouter);
     }
 
     public CefClient getHandle() {
         return handle;
     }
 
+    public MCEFEventBus getEventBus() {
+        return eventBus;
+    }
+
+    public MCEFConsolePipeline getConsolePipeline() {
+        return consolePipeline;
+    }
+
+    /**
+     * Load times per URL, disabled by default.
+     */
+    public MCEFNavigationTelemetry getNavigationTelemetry() {
+        return navigationTelemetry;
+    }
+
+    /**
+     * The router behind {@code window.cefQuery}. Queries that are not meant for a
+     * {@link MCEFBrowser#getMessageChannel() message channel} go on to handlers added here.
+     */
+    public CefMessageRouter getMessageRouter() {
+        return messageRouter;
+    }
+
+    /**
+     * @return the browsers of this client that were not closed yet
+     */
+    public List<MCEFBrowser> getBrowsers() {
+        synchronized (browsers) {
+            return List.copyOf(browsers);
+        }
+    }
+
+    void onBrowserCreated(MCEFBrowser browser) {
+        browsers.add(browser);
+    }
+
+    void onBrowserClosed(MCEFBrowser browser) {
+        browsers.remove(browser);
+    }
+
+    /**
+     * Signals memory pressure to the renderer processes of all browsers, which makes them drop caches they can
+     * rebuild, like decoded images and fonts. Optionally also runs a full garbage collection of every page's
+     * JavaScript heap. Meant for when the game itself is low on memory.
+     *
+     * @return completes once every browser handled it, never exceptionally
+     */
+    public CompletableFuture<Void> sendMemoryPressure(MemoryPressure level, boolean collectGarbage) {
+        var futures = new ArrayList<CompletableFuture<?>>();
+        for (var browser : getBrowsers()) {
+            try {
+                var devTools = browser.getDevToolsClient();
+                var future = devTools.executeDevToolsMethod("Memory.simulatePressureNotification",
+                        "{\"level\":\"" + level.id + "\"}");
+                if (collectGarbage) {
+                    future = future.thenCompose(ignored -> devTools.executeDevToolsMethod("HeapProfiler.collectGarbage"));
+                }
+                futures.add(future.exceptionally(throwable -> {
+                    MCEF.INSTANCE.getLogger().debug("Failed to send memory pressure to {}", browser.getURL(), throwable);
+                    return null;
+                }));
+            } catch (Exception e) {
+                // not created yet or already closing
+                MCEF.INSTANCE.getLogger().debug("Failed to send memory pressure to {}", browser.getURL(), e);
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+    }
+
+    public enum MemoryPressure {
+        /**
+         * Drop caches that are cheap to rebuild.
+         */
+        MODERATE("moderate"),
+        /**
+         * Free as much as possible, at the cost of slower rendering afterwards.
+         */
+        CRITICAL("critical");
+
+        private final String id;
+
+        MemoryPressure(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Removes every handler that was registered for the given browser only.
+     * Called when an {@link MCEFBrowser} is closed.
+     */
+    public void removeHandlers(CefBrowser browser) {
+        loadHandlers.removeAll(browser);
+        contextMenuHandlers.removeAll(browser);
+        displayHandlers.removeAll(browser);
+        requestHandlers.removeAll(browser);
+        navigationTelemetry.remove(browser);
+    }
+
     public void addLoadHandler(CefLoadHandler handler) {
         loadHandlers.add(handler);
     }
 
+    public void addLoadHandler(CefBrowser browser, CefLoadHandler handler) {
+        loadHandlers.add(browser, handler);
+    }
+
+    public void removeLoadHandler(CefLoadHandler handler) {
+        loadHandlers.remove(handler);
+    }
+
+    public void removeLoadHandler(CefBrowser browser, CefLoadHandler handler) {
+        loadHandlers.remove(browser, handler);
+    }
+
     @Override
     public void onLoadingStateChange(CefBrowser browser, boolean isLoading, boolean canGoBack, boolean canGoForward) {
-        for (CefLoadHandler loadHandler : loadHandlers)
+        for (CefLoadHandler loadHandler : loadHandlers.of(browser))
             loadHandler.onLoadingStateChange(browser, isLoading, canGoBack, canGoForward);
+        for (CefLoadHandler loadHandler : loadHandlers.global())
+            loadHandler.onLoadingStateChange(browser, isLoading, canGoBack, canGoForward);
+        if (eventBus.hasSubscribers())
+            eventBus.publish(new MCEFClientEvent.LoadingStateChange(browser, isLoading, canGoBack, canGoForward));
     }
 
     @Override
     public void onLoadStart(CefBrowser browser, CefFrame frame, CefRequest.TransitionType transitionType) {
-        for (CefLoadHandler loadHandler : loadHandlers) loadHandler.onLoadStart(browser, frame, transitionType);
+        if (navigationTelemetry.isEnabled() && isMain(frame)) navigationTelemetry.onLoadStart(browser, frame.getURL());
+        for (CefLoadHandler loadHandler : loadHandlers.of(browser)) loadHandler.onLoadStart(browser, frame, transitionType);
+        for (CefLoadHandler loadHandler : loadHandlers.global()) loadHandler.onLoadStart(browser, frame, transitionType);
+        if (eventBus.hasSubscribers())
+            eventBus.publish(new MCEFClientEvent.LoadStart(browser, urlOf(frame), isMain(frame), transitionType));
     }
 
     @Override
     public void onLoadEnd(CefBrowser browser, CefFrame frame, int httpStatusCode) {
-        for (CefLoadHandler loadHandler : loadHandlers) loadHandler.onLoadEnd(browser, frame, httpStatusCode);
+        if (navigationTelemetry.isEnabled() && isMain(frame)) navigationTelemetry.onLoadEnd(browser);
+        for (CefLoadHandler loadHandler : loadHandlers.of(browser)) loadHandler.onLoadEnd(browser, frame, httpStatusCode);
+        for (CefLoadHandler loadHandler : loadHandlers.global()) loadHandler.onLoadEnd(browser, frame, httpStatusCode);
+        if (eventBus.hasSubscribers())
+            eventBus.publish(new MCEFClientEvent.LoadEnd(browser, urlOf(frame), isMain(frame), httpStatusCode));
     }
 
     @Override
     public void onLoadError(CefBrowser browser, CefFrame frame, ErrorCode errorCode, String errorText, String failedUrl) {
-        for (CefLoadHandler loadHandler : loadHandlers)
+        if (navigationTelemetry.isEnabled() && isMain(frame)) navigationTelemetry.onLoadError(browser, failedUrl, errorCode);
+        for (CefLoadHandler loadHandler : loadHandlers.of(browser))
+            loadHandler.onLoadError(browser, frame, errorCode, errorText, failedUrl);
+        for (CefLoadHandler loadHandler : loadHandlers.global())
             loadHandler.onLoadError(browser, frame, errorCode, errorText, failedUrl);
+        if (eventBus.hasSubscribers())
+            eventBus.publish(new MCEFClientEvent.LoadError(browser, urlOf(frame), isMain(frame), errorCode, errorText, failedUrl));
     }
 
     public void addContextMenuHandler(CefContextMenuHandler handler) {
         contextMenuHandlers.add(handler);
     }
 
+    public void addContextMenuHandler(CefBrowser browser, CefContextMenuHandler handler) {
+        contextMenuHandlers.add(browser, handler);
+    }
+
+    public void removeContextMenuHandler(CefContextMenuHandler handler) {
+        contextMenuHandlers.remove(handler);
+    }
+
+    public void removeContextMenuHandler(CefBrowser browser, CefContextMenuHandler handler) {
+        contextMenuHandlers.remove(browser, handler);
+    }
+
     @Override
     public void onBeforeContextMenu(CefBrowser browser, CefFrame frame, CefContextMenuParams params, CefMenuModel model) {
-        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers)
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.of(browser))
+            contextMenuHandler.onBeforeContextMenu(browser, frame, params, model);
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.global())
             contextMenuHandler.onBeforeContextMenu(browser, frame, params, model);
     }
 
     @Override
     public boolean onContextMenuCommand(CefBrowser browser, CefFrame frame, CefContextMenuParams params, int commandId, int eventFlags) {
-        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers)
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.of(browser))
+            if (contextMenuHandler.onContextMenuCommand(browser, frame, params, commandId, eventFlags))
+                return true;
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.global())
             if (contextMenuHandler.onContextMenuCommand(browser, frame, params, commandId, eventFlags))
                 return true;
         return false;
@@ -100,7 +283,9 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
 
     @Override
     public void onContextMenuDismissed(CefBrowser browser, CefFrame frame) {
-        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers)
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.of(browser))
+            contextMenuHandler.onContextMenuDismissed(browser, frame);
+        for (CefContextMenuHandler contextMenuHandler : contextMenuHandlers.global())
             contextMenuHandler.onContextMenuDismissed(browser, frame);
     }
 
@@ -108,14 +293,32 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
         displayHandlers.add(handler);
     }
 
+    public void addDisplayHandler(CefBrowser browser, CefDisplayHandler handler) {
+        displayHandlers.add(browser, handler);
+    }
+
+    public void removeDisplayHandler(CefDisplayHandler handler) {
+        displayHandlers.remove(handler);
+    }
+
+    public void removeDisplayHandler(CefBrowser browser, CefDisplayHandler handler) {
+        displayHandlers.remove(browser, handler);
+    }
+
     @Override
     public void onAddressChange(CefBrowser browser, CefFrame frame, String url) {
-        for (CefDisplayHandler displayHandler : displayHandlers) displayHandler.onAddressChange(browser, frame, url);
+        for (CefDisplayHandler displayHandler : displayHandlers.of(browser)) displayHandler.onAddressChange(browser, frame, url);
+        for (CefDisplayHandler displayHandler : displayHandlers.global()) displayHandler.onAddressChange(browser, frame, url);
+        if (eventBus.hasSubscribers())
+            eventBus.publish(new MCEFClientEvent.AddressChange(browser, isMain(frame), url));
     }
 
     @Override
     public void onTitleChange(CefBrowser browser, String title) {
-        for (CefDisplayHandler displayHandler : displayHandlers) displayHandler.onTitleChange(browser, title);
+        for (CefDisplayHandler displayHandler : displayHandlers.of(browser)) displayHandler.onTitleChange(browser, title);
+        for (CefDisplayHandler displayHandler : displayHandlers.global()) displayHandler.onTitleChange(browser, title);
+        if (eventBus.hasSubscribers())
+            eventBus.publish(new MCEFClientEvent.TitleChange(browser, title));
     }
 
     @Override
@@ -123,7 +326,10 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
 
     @Override
     public boolean onTooltip(CefBrowser browser, String text) {
-        for (CefDisplayHandler displayHandler : displayHandlers)
+        for (CefDisplayHandler displayHandler : displayHandlers.of(browser))
+            if (displayHandler.onTooltip(browser, text))
+                return true;
+        for (CefDisplayHandler displayHandler : displayHandlers.global())
             if (displayHandler.onTooltip(browser, text))
                 return true;
         return false;
@@ -131,22 +337,182 @@ public class MCEFClient implements CefLoadHandler, CefContextMenuHandler, CefDis
 
     @Override
     public void onStatusMessage(CefBrowser browser, String value) {
-        for (CefDisplayHandler displayHandler : displayHandlers) displayHandler.onStatusMessage(browser, value);
+        for (CefDisplayHandler displayHandler : displayHandlers.of(browser)) displayHandler.onStatusMessage(browser, value);
+        for (CefDisplayHandler displayHandler : displayHandlers.global()) displayHandler.onStatusMessage(browser, value);
+        if (eventBus.hasSubscribers())
+            eventBus.publish(new MCEFClientEvent.StatusMessage(browser, value));
     }
 
     @Override
     public boolean onConsoleMessage(CefBrowser browser, CefSettings.LogSeverity level, String message, String source, int line) {
-        for (CefDisplayHandler displayHandler : displayHandlers)
+        // Swallow reports of the latency probe, they are not meant for handlers
+        if (browser instanceof MCEFBrowser mcefBrowser && mcefBrowser.getLatencyTracker().onConsoleMessage(message)) {
+            return true;
+        }
+        // Same for the reports of the navigation timing probe and the heartbeats of the watchdog
+        if (navigationTelemetry.isEnabled() && navigationTelemetry.onConsoleMessage(browser, message)) {
+            return true;
+        }
+        var watchdog = MCEFWatchdog.getInstanceIfPresent();
+        if (watchdog != null && browser instanceof MCEFBrowser mcefBrowser && watchdog.onConsoleMessage(mcefBrowser, message)) {
+            return true;
+        }
+
+        // Rate limit before the handlers, so a page logging in a loop cannot keep the CEF thread busy with them
+        var pipelineEnabled = consolePipeline.isEnabled();
+        if (pipelineEnabled && !consolePipeline.tryAcquire(source)) {
+            return true;
+        }
+
+        for (CefDisplayHandler displayHandler : displayHandlers.of(browser))
             if (displayHandler.onConsoleMessage(browser, level, message, source, line))
                 return true;
+        for (CefDisplayHandler displayHandler : displayHandlers.global())
+            if (displayHandler.onConsoleMessage(browser, level, message, source, line))
+                return true;
+
+        if (pipelineEnabled) {
+            consolePipeline.submit(browser != null ? browser.getIdentifier() : -1, level, message, source, line);
+            return true;
+        }
         return false;
     }
 
     @Override
     public boolean onCursorChange(CefBrowser browser, int cursorType) {
-        for (CefDisplayHandler displayHandler : displayHandlers)
+        for (CefDisplayHandler displayHandler : displayHandlers.of(browser))
+            if (displayHandler.onCursorChange(browser, cursorType))
+                return true;
+        for (CefDisplayHandler displayHandler : displayHandlers.global())
             if (displayHandler.onCursorChange(browser, cursorType))
                 return true;
         return false;
     }
+
+    public void addRequestHandler(CefRequestHandler handler) {
+        requestHandlers.add(handler);
+    }
+
+    public void addRequestHandler(CefBrowser browser, CefRequestHandler handler) {
+        requestHandlers.add(browser, handler);
+    }
+
+    public void removeRequestHandler(CefRequestHandler handler) {
+        requestHandlers.remove(handler);
+    }
+
+    public void removeRequestHandler(CefBrowser browser, CefRequestHandler handler) {
+        requestHandlers.remove(browser, handler);
+    }
+
+    /**
+     * {@link CefClient} only takes a single request handler, this one passes the callbacks on to ours.
+     * Kept separate from {@link MCEFClient} itself so only the callbacks we actually route need overriding.
+     */
+    private class RequestHandler extends CefRequestHandlerAdapter {
+        @Override
+        public boolean onBeforeBrowse(CefBrowser browser, CefFrame frame, CefRequest request, boolean userGesture, boolean isRedirect) {
+            if (navigationTelemetry.isEnabled() && isMain(frame) && !isRedirect)
+                navigationTelemetry.onBeforeBrowse(browser, request.getURL());
+            var processSampler = MCEFProcessSampler.getInstanceIfPresent();
+            if (processSampler != null && isMain(frame) && !isRedirect && browser instanceof MCEFBrowser mcefBrowser)
+                processSampler.onNavigation(mcefBrowser, request.getURL());
+            for (CefRequestHandler requestHandler : requestHandlers.of(browser))
+                if (requestHandler.onBeforeBrowse(browser, frame, request, userGesture, isRedirect))
+                    return true;
+            for (CefRequestHandler requestHandler : requestHandlers.global())
+                if (requestHandler.onBeforeBrowse(browser, frame, request, userGesture, isRedirect))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public CefResourceRequestHandler getResourceRequestHandler(CefBrowser browser, CefFrame frame, CefRequest request,
+                                                                   boolean isNavigation, boolean isDownload,
+                                                                   String requestInitiator, BoolRef disableDefaultHandling) {
+            // The first handler that wants to handle the request gets it
+            for (CefRequestHandler requestHandler : requestHandlers.of(browser)) {
+                var handler = requestHandler.getResourceRequestHandler(browser, frame, request, isNavigation,
+                        isDownload, requestInitiator, disableDefaultHandling);
+                if (handler != null) return handler;
+            }
+            for (CefRequestHandler requestHandler : requestHandlers.global()) {
+                var handler = requestHandler.getResourceRequestHandler(browser, frame, request, isNavigation,
+                        isDownload, requestInitiator, disableDefaultHandling);
+                if (handler != null) return handler;
+            }
+            return customSchemeHandler(browser, request);
+        }
+
+        /**
+         * Scheme handler factories are only registered with the global request context,
+         * so browsers with a context of their own get their custom scheme requests answered here.
+         */
+        private CefResourceRequestHandler customSchemeHandler(CefBrowser browser, CefRequest request) {
+            if (!(browser instanceof MCEFBrowser mcefBrowser)
+                    || mcefBrowser.getContextOptions().kind() == MCEFContextOptions.Kind.GLOBAL
+                    || !MCEF.INSTANCE.isInitialized()) {
+                return null;
+            }
+
+            var url = request.getURL();
+            var factory = MCEF.INSTANCE.getApp().schemeHandlerFactoryOf(url);
+            if (factory == null) {
+                return null;
+            }
+
+            var scheme = url.substring(0, url.indexOf(':'));
+            return new CefResourceRequestHandlerAdapter() {
+                @Override
+                public CefResourceHandler getResourceHandler(CefBrowser browser, CefFrame frame, CefRequest request) {
+                    return factory.create(browser, frame, scheme, request);
+                }
+            };
+        }
+
+        @Override
+        public void onRenderProcessTerminated(CefBrowser browser, TerminationStatus status) {
+            for (CefRequestHandler requestHandler : requestHandlers.of(browser))
+                requestHandler.onRenderProcessTerminated(browser, status);
+            for (CefRequestHandler requestHandler : requestHandlers.global())
+                requestHandler.onRenderProcessTerminated(browser, status);
+            var watchdog = MCEFWatchdog.getInstanceIfPresent();
+            if (watchdog != null && browser instanceof MCEFBrowser mcefBrowser)
+                watchdog.onRendererTerminated(mcefBrowser, status);
+            var processSampler = MCEFProcessSampler.getInstanceIfPresent();
+            if (processSampler != null && browser instanceof MCEFBrowser mcefBrowser)
+                processSampler.onRendererTerminated(mcefBrowser);
+        }
+    }
+
+    /**
+     * Hands {@code window.cefQuery} calls to the message channel of the browser they come from.
+     */
+    private static class MessageRouterHandler extends CefMessageRouterHandlerAdapter {
+        @Override
+        public boolean onQuery(CefBrowser browser, CefFrame frame, long queryId, String request, boolean persistent,
+                               CefQueryCallback callback) {
+            var channel = channelOf(browser);
+            return channel != null && channel.onQuery(frame, queryId, request, persistent, callback);
+        }
+
+        @Override
+        public void onQueryCanceled(CefBrowser browser, CefFrame frame, long queryId) {
+            var channel = channelOf(browser);
+            if (channel != null) channel.onQueryCanceled(queryId);
+        }
+
+        private static MCEFMessageChannel channelOf(CefBrowser browser) {
+            return browser instanceof MCEFBrowser mcefBrowser ? mcefBrowser.getMessageChannelIfPresent() : null;
+        }
+    }
+
+    // Frames are only valid during a callback, events copy what they need
+    private static String urlOf(CefFrame frame) {
+        return frame != null ? frame.getURL() : null;
+    }
+
+    private static boolean isMain(CefFrame frame) {
+        return frame != null && frame.isMain();
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+/**
+ * Which request context a browser uses. The request context holds cookies, the HTTP cache and local storage.
+ * <p>
+ * Resource providers of {@link MCEFApp#registerResourceProvider} are served in every context. For contexts other
+ * than the global one they are answered by {@link MCEFClient} rather than by CEF, so a request handler that takes
+ * over such a request sees it first.
+ *
+ * @param group the name of the shared in-memory context, only used with {@link Kind#EPHEMERAL_GROUP}
+ */
+public record MCEFContextOptions(Kind kind, String group) {
+    private static final MCEFContextOptions GLOBAL = new MCEFContextOptions(Kind.GLOBAL, null);
+    private static final MCEFContextOptions EPHEMERAL = new MCEFContextOptions(Kind.EPHEMERAL, null);
+
+    public MCEFContextOptions {
+        if (kind == Kind.EPHEMERAL_GROUP && group == null) {
+            throw new IllegalArgumentException("Ephemeral group contexts need a group name");
+        }
+    }
+
+    /**
+     * The global context, persisted to {@link MCEFSettings#getCacheDirectory()} if one is set.
+     */
+    public static MCEFContextOptions global() {
+        return GLOBAL;
+    }
+
+    /**
+     * A context of its own, kept in memory only and disposed with the browser.
+     */
+    public static MCEFContextOptions ephemeral() {
+        return EPHEMERAL;
+    }
+
+    /**
+     * An in-memory context shared by all browsers of the same group, e.g. to keep a login across previews.
+     * Disposed once the last browser of the group is closed.
+     */
+    public static MCEFContextOptions ephemeralGroup(String group) {
+        return new MCEFContextOptions(Kind.EPHEMERAL_GROUP, group);
+    }
+
+    public enum Kind {
+        GLOBAL,
+        EPHEMERAL,
+        EPHEMERAL_GROUP
+    }
+}
@@ -24,10 +24,12 @@ import org.cef.callback.CefDragData;
 import org.cef.misc.CefCursorType;
 
 public class MCEFDragContext {
-    private CefDragData dragData = null;
-    private int dragMask = 0;
-    private int cursorOverride = -1;
-    private int actualCursor = -1;
+    // Volatile since the drag state is read on the render thread while CEF callbacks and,
+    // with asynchronous input dispatch, the input dispatcher thread update it
+    private volatile CefDragData dragData = null;
+    private volatile int dragMask = 0;
+    private volatile int cursorOverride = -1;
+    private volatile int actualCursor = -1;
 
     /**
      * Used to prevent re-selecting stuff while dragging
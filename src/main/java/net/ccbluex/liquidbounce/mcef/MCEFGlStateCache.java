@@ -0,0 +1,103 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Shadows the GL state touched while uploading browser frames, so that binds and
+ * pixel store calls which would not change anything are skipped.
+ * <p>
+ * A batch is opened with {@link #begin()} and closed with {@link #end()}. Minecraft does not
+ * track the unpack parameters and sets them itself before every upload, so at the end of a batch
+ * the ones we changed are put back to the GL defaults. Querying them with glGetInteger instead
+ * would force a sync on drivers with threaded optimizations.
+ */
+public final class MCEFGlStateCache {
+    private static final int UNKNOWN = -1;
+
+    private int boundTexture = UNKNOWN;
+    private int rowLength = UNKNOWN;
+    private int skipPixels = UNKNOWN;
+    private int skipRows = UNKNOWN;
+
+    /**
+     * Starts a new upload batch. Whatever the game did since the last batch is unknown,
+     * so the first call for every parameter always reaches the driver.
+     */
+    public void begin() {
+        boundTexture = UNKNOWN;
+        rowLength = UNKNOWN;
+        skipPixels = UNKNOWN;
+        skipRows = UNKNOWN;
+    }
+
+    public void bindTexture(int textureId) {
+        if (boundTexture != textureId) {
+            RenderSystem.bindTexture(textureId);
+            boundTexture = textureId;
+        }
+    }
+
+    public void unpackRowLength(int value) {
+        if (rowLength != value) {
+            GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, value);
+            rowLength = value;
+        }
+    }
+
+    public void unpackSkipPixels(int value) {
+        if (skipPixels != value) {
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, value);
+            skipPixels = value;
+        }
+    }
+
+    public void unpackSkipRows(int value) {
+        if (skipRows != value) {
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, value);
+            skipRows = value;
+        }
+    }
+
+    /**
+     * Ends the current batch and restores every unpack parameter that was left at a non-default value.
+     * The texture binding goes through {@link RenderSystem}, which already keeps Minecraft's own shadow
+     * state in sync, so it is not touched here.
+     */
+    public void end() {
+        if (rowLength > 0) {
+            GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, 0);
+        }
+        if (skipPixels > 0) {
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
+        }
+        if (skipRows > 0) {
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, 0);
+        }
+
+        begin();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import org.cef.browser.CefBrowser;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the handlers of one kind for {@link MCEFClient}: global handlers that see every browser,
+ * and handlers registered for a single browser.
+ * <p>
+ * Both are stored as immutable snapshot arrays that are replaced on every change, so CEF callbacks
+ * iterate them without locking or allocating while game code adds and removes handlers on other threads.
+ * Browsers are keyed by their Java object rather than {@link CefBrowser#getIdentifier()}, since the
+ * identifier is only assigned once the native browser has been created.
+ */
+final class MCEFHandlerRegistry<H> {
+    private final H[] empty;
+    private volatile H[] global;
+    private final Map<CefBrowser, H[]> perBrowser = new ConcurrentHashMap<>();
+
+    MCEFHandlerRegistry(H[] empty) {
+        this.empty = empty;
+        this.global = empty;
+    }
+
+    synchronized void add(H handler) {
+        global = append(global, handler);
+    }
+
+    synchronized void remove(H handler) {
+        global = without(global, handler);
+    }
+
+    void add(CefBrowser browser, H handler) {
+        perBrowser.compute(browser, (key, handlers) -> append(handlers == null ? empty : handlers, handler));
+    }
+
+    void remove(CefBrowser browser, H handler) {
+        perBrowser.computeIfPresent(browser, (key, handlers) -> {
+            var remaining = without(handlers, handler);
+            return remaining.length == 0 ? null : remaining;
+        });
+    }
+
+    void removeAll(CefBrowser browser) {
+        perBrowser.remove(browser);
+    }
+
+    /**
+     * @return the handlers that receive the callbacks of every browser, must not be modified
+     */
+    H[] global() {
+        return global;
+    }
+
+    /**
+     * @return the handlers registered for the given browser only, must not be modified
+     */
+    H[] of(CefBrowser browser) {
+        if (browser == null || perBrowser.isEmpty()) {
+            return empty;
+        }
+
+        var handlers = perBrowser.get(browser);
+        return handlers == null ? empty : handlers;
+    }
+
+    private static <H> H[] append(H[] handlers, H handler) {
+        var copy = Arrays.copyOf(handlers, handlers.length + 1);
+        copy[handlers.length] = handler;
+        return copy;
+    }
+
+    private static <H> H[] without(H[] handlers, H handler) {
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] == handler) {
+                var copy = Arrays.copyOf(handlers, handlers.length - 1);
+                System.arraycopy(handlers, i + 1, copy, i, handlers.length - i - 1);
+                return copy;
+            }
+        }
+
+        return handlers;
+    }
+}
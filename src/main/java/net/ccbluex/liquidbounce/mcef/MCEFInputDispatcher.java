@@ -0,0 +1,102 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import net.ccbluex.liquidbounce.mcef.util.MCEFMpscQueue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands browser input to CEF on a dedicated thread, so JNI calls that block for a while
+ * do not show up as frame hitches on the render thread.
+ * <p>
+ * A single dispatcher is shared by all browsers. Input may be submitted from any thread, like the GLFW
+ * callbacks on the render thread or a browser being closed elsewhere. What one thread submits is dispatched
+ * in exactly the order it was submitted.
+ */
+public final class MCEFInputDispatcher {
+    private static MCEFInputDispatcher instance;
+
+    private final MCEFMpscQueue<Runnable> queue = new MCEFMpscQueue<>();
+    private final Thread thread;
+    private volatile boolean waiting = false;
+
+    private MCEFInputDispatcher() {
+        thread = new Thread(this::run, "MCEF-Input");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static synchronized MCEFInputDispatcher getInstance() {
+        if (instance == null) {
+            instance = new MCEFInputDispatcher();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Queues input to be sent on the dispatcher thread. Never blocks, may be called from any thread.
+     */
+    public void submit(Runnable dispatch) {
+        queue.offer(dispatch);
+
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return a future that completes once everything submitted before it has been dispatched
+     */
+    public CompletableFuture<Void> barrier() {
+        var future = new CompletableFuture<Void>();
+        submit(() -> future.complete(null));
+        return future;
+    }
+
+    private void run() {
+        while (true) {
+            var dispatch = queue.poll();
+
+            if (dispatch == null) {
+                waiting = true;
+                // re-check after announcing that we are about to park, the producer might have missed it
+                if ((dispatch = queue.poll()) == null) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+
+                if (dispatch == null) {
+                    continue;
+                }
+            }
+
+            try {
+                dispatch.run();
+            } catch (Throwable t) {
+                MCEF.INSTANCE.getLogger().error("Failed to dispatch browser input", t);
+            }
+        }
+    }
+}
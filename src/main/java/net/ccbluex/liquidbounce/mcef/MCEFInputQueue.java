@@ -0,0 +1,154 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import java.util.ArrayDeque;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Collects the input of a {@link MCEFBrowser} and hands it to CEF once per frame.
+ * <p>
+ * Consecutive mouse moves are merged into the latest position and consecutive wheel
+ * events have their deltas summed, everything else (presses, releases, key events) is
+ * kept as-is, so the order of input relative to each other never changes.
+ * <p>
+ * Not thread-safe, input is expected to arrive on the render thread like the GLFW callbacks do.
+ */
+public class MCEFInputQueue {
+    private final MCEFBrowser browser;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private boolean flushScheduled = false;
+
+    MCEFInputQueue(MCEFBrowser browser) {
+        this.browser = browser;
+    }
+
+    void mouseMove(int x, int y, int clicks, int button, int modifiers) {
+        var last = entries.peekLast();
+        if (last != null && last.kind == Kind.MOVE && last.clicks == clicks
+                && last.button == button && last.modifiers == modifiers) {
+            last.x = x;
+            last.y = y;
+            return;
+        }
+
+        var entry = new Entry(Kind.MOVE);
+        entry.x = x;
+        entry.y = y;
+        entry.clicks = clicks;
+        entry.button = button;
+        entry.modifiers = modifiers;
+        add(entry);
+    }
+
+    void mouseWheel(int x, int y, double amount) {
+        var last = entries.peekLast();
+        if (last != null && last.kind == Kind.WHEEL) {
+            last.x = x;
+            last.y = y;
+            last.amount += amount;
+            return;
+        }
+
+        var entry = new Entry(Kind.WHEEL);
+        entry.x = x;
+        entry.y = y;
+        entry.amount = amount;
+        add(entry);
+    }
+
+    void event(Runnable dispatch) {
+        var entry = new Entry(Kind.EVENT);
+        entry.dispatch = dispatch;
+        add(entry);
+    }
+
+    private void add(Entry entry) {
+        entries.addLast(entry);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            // Runs with the scheduled tasks at the start of the next frame
+            mc.send(this::flush);
+        }
+    }
+
+    /**
+     * Sends everything that has been queued so far to CEF.
+     * Called automatically once per frame, but can also be called manually, e.g. right before rendering the browser.
+     */
+    public void flush() {
+        flushScheduled = false;
+
+        Entry entry;
+        while ((entry = entries.pollFirst()) != null) {
+            // either runs right away or goes to the input dispatcher thread
+            browser.runInput(entry);
+        }
+    }
+
+    /**
+     * @return the number of queued entries, after coalescing
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Drops all queued input without sending it.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private enum Kind {
+        MOVE,
+        WHEEL,
+        EVENT
+    }
+
+    private final class Entry implements Runnable {
+        private final Kind kind;
+        private int x, y;
+        private int clicks, button, modifiers;
+        private double amount;
+        private Runnable dispatch;
+
+        private Entry(Kind kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        public void run() {
+            switch (kind) {
+                case MOVE -> browser.dispatchMouseMove(x, y, clicks, button, modifiers);
+                case WHEEL -> browser.dispatchMouseWheel(x, y, amount);
+                case EVENT -> dispatch.run();
+            }
+        }
+    }
+}
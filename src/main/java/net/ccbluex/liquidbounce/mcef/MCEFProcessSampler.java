@@ -0,0 +1,477 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import oshi.SystemInfo;
+import oshi.software.os.OSProcess;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Attributes the CPU and memory use of the anonymous renderer processes to the {@link MCEFBrowser}s they belong to.
+ * <p>
+ * CEF does not tell which renderer process serves which browser, so renderers are matched by the order they were
+ * spawned in: a browser waits for a renderer when it is created, after its renderer terminated and when it navigates
+ * to another site. Each new renderer, in the order of its {@code --renderer-client-id}, goes to the browser that has
+ * waited longest. Browsers that do not get a new renderer within a few seconds keep the one they had. This is exact
+ * as long as browsers are not created in the same instant, pages with cross-site iframes may have processes of
+ * theirs counted as unattributed.
+ * <p>
+ * Sampling runs with OSHI on its own thread at a configurable interval, disabled until {@link #start(Duration)} is
+ * called. Start it before creating browsers, renderers that already exist cannot be attributed anymore.
+ * {@link Threshold}s are checked after every sample and call their action on the sampler thread.
+ */
+public final class MCEFProcessSampler {
+    private static final long PENDING_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+    private static final long FIRED = Long.MIN_VALUE;
+
+    private static volatile MCEFProcessSampler instance;
+
+    private final ScheduledExecutorService scheduler;
+    private final SystemInfo systemInfo = new SystemInfo();
+    private final List<Threshold> thresholds = new CopyOnWriteArrayList<>();
+    private final Map<MCEFBrowser, Tracked> browsers = new HashMap<>();
+    private final Map<Integer, Process> processes = new HashMap<>();
+    private ScheduledFuture<?> task;
+    private volatile long sequence = 0;
+
+    private MCEFProcessSampler() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "MCEF-ProcessSampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized MCEFProcessSampler getInstance() {
+        if (instance == null) {
+            instance = new MCEFProcessSampler();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return the sampler if it was ever used, without creating it otherwise
+     */
+    static MCEFProcessSampler getInstanceIfPresent() {
+        return instance;
+    }
+
+    /**
+     * Starts sampling, or changes the interval if already started.
+     */
+    public synchronized void start(Duration interval) {
+        if (task != null) {
+            task.cancel(false);
+        }
+
+        task = scheduler.scheduleWithFixedDelay(this::sample, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return task != null;
+    }
+
+    public void addThreshold(Threshold threshold) {
+        thresholds.add(threshold);
+    }
+
+    public void removeThreshold(Threshold threshold) {
+        thresholds.remove(threshold);
+    }
+
+    /**
+     * @return the latest sample of the browser, or null if none was taken yet
+     */
+    public synchronized Sample getSample(MCEFBrowser browser) {
+        var tracked = browsers.get(browser);
+        return tracked != null ? tracked.sample : null;
+    }
+
+    /**
+     * @return the latest samples of all browsers
+     */
+    public synchronized Map<MCEFBrowser, Sample> getSamples() {
+        var samples = new HashMap<MCEFBrowser, Sample>();
+        browsers.forEach((browser, tracked) -> {
+            if (tracked.sample != null) {
+                samples.put(browser, tracked.sample);
+            }
+        });
+        return samples;
+    }
+
+    /**
+     * @return the latest sample of all renderer processes no browser could be matched to, e.g. spare renderers
+     */
+    public synchronized Sample getUnattributedSample() {
+        return aggregate(processes.values().stream().filter(process -> process.owner == null).toList());
+    }
+
+    /**
+     * Attributes a renderer process to a browser by hand, e.g. when its PID is known from elsewhere.
+     */
+    public synchronized void assign(MCEFBrowser browser, int pid) {
+        var process = processes.get(pid);
+        var tracked = browsers.computeIfAbsent(browser, key -> new Tracked());
+        if (process != null) {
+            if (process.owner != null) {
+                browsers.get(process.owner).pids.remove(pid);
+            }
+            process.owner = browser;
+        }
+        tracked.pids.add(pid);
+        tracked.pendingSince = 0;
+    }
+
+    /**
+     * Called when a browser is created.
+     */
+    synchronized void onBrowserCreated(MCEFBrowser browser) {
+        browsers.computeIfAbsent(browser, key -> new Tracked()).pendingSince = ++sequence;
+    }
+
+    /**
+     * Called when a browser is closed.
+     */
+    synchronized void onBrowserClosed(MCEFBrowser browser) {
+        var tracked = browsers.remove(browser);
+        if (tracked != null) {
+            for (var pid : tracked.pids) {
+                var process = processes.get(pid);
+                if (process != null) {
+                    process.owner = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called for main frame navigations, a navigation to another site gets a new renderer.
+     */
+    synchronized void onNavigation(MCEFBrowser browser, String url) {
+        var tracked = browsers.get(browser);
+        if (tracked == null) {
+            return;
+        }
+
+        var site = siteOf(url);
+        if (tracked.site != null && !Objects.equals(tracked.site, site)) {
+            tracked.pendingSince = ++sequence;
+        }
+        tracked.site = site;
+    }
+
+    /**
+     * Called when the renderer of a browser is gone, the next page gets a new one.
+     */
+    synchronized void onRendererTerminated(MCEFBrowser browser) {
+        var tracked = browsers.get(browser);
+        if (tracked != null) {
+            tracked.pendingSince = ++sequence;
+        }
+    }
+
+    private void sample() {
+        try {
+            var os = systemInfo.getOperatingSystem();
+            var renderers = os.getDescendantProcesses(os.getProcessId(), MCEFProcessSampler::isRenderer, null, 0);
+            var now = System.nanoTime();
+
+            List<Violation> violations;
+            synchronized (this) {
+                update(renderers, now);
+                assignPending(now);
+                violations = aggregateAll(now);
+            }
+
+            for (var violation : violations) {
+                try {
+                    violation.threshold.action().trigger(violation.browser, violation.sample);
+                } catch (Exception e) {
+                    MCEF.INSTANCE.getLogger().error("Process threshold action failed", e);
+                }
+            }
+        } catch (Exception e) {
+            MCEF.INSTANCE.getLogger().error("Failed to sample browser processes", e);
+        }
+    }
+
+    private void update(List<OSProcess> renderers, long now) {
+        var alive = new HashSet<Integer>();
+        for (var renderer : renderers) {
+            var pid = renderer.getProcessID();
+            alive.add(pid);
+
+            var process = processes.computeIfAbsent(pid, key -> new Process(pid, clientIdOf(renderer), renderer.getStartTime()));
+            var cpuTime = renderer.getKernelTime() + renderer.getUserTime();
+            if (process.sampledAt != 0) {
+                var elapsed = (now - process.sampledAt) / 1_000_000.0;
+                process.cpuLoad = elapsed > 0 ? Math.max(0, cpuTime - process.cpuTime) / elapsed : 0;
+            }
+            process.cpuTime = cpuTime;
+            process.residentSetSize = renderer.getResidentSetSize();
+            process.threadCount = renderer.getThreadCount();
+            process.sampledAt = now;
+        }
+
+        processes.keySet().retainAll(alive);
+        for (var tracked : browsers.values()) {
+            tracked.pids.retainAll(alive);
+        }
+    }
+
+    private void assignPending(long now) {
+        var pending = browsers.entrySet().stream()
+                .filter(entry -> entry.getValue().pendingSince != 0)
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().pendingSince))
+                .toList();
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        var unassigned = processes.values().stream()
+                .filter(process -> process.owner == null)
+                .sorted(Comparator.comparingLong((Process process) -> process.clientId)
+                        .thenComparingLong(process -> process.startTime))
+                .toList();
+
+        var index = 0;
+        for (var entry : pending) {
+            var tracked = entry.getValue();
+            if (index < unassigned.size()) {
+                var process = unassigned.get(index++);
+                process.owner = entry.getKey();
+                tracked.pids.add(process.pid);
+                tracked.pendingSince = 0;
+                tracked.pendingAt = 0;
+            } else if (tracked.pendingAt == 0) {
+                tracked.pendingAt = now;
+            } else if (now - tracked.pendingAt > PENDING_TIMEOUT) {
+                // the renderer was reused, e.g. a navigation within the same process
+                tracked.pendingSince = 0;
+                tracked.pendingAt = 0;
+            }
+        }
+    }
+
+    private List<Violation> aggregateAll(long now) {
+        var violations = new ArrayList<Violation>();
+
+        for (var entry : browsers.entrySet()) {
+            var tracked = entry.getValue();
+            var sample = aggregate(tracked.pids.stream().map(processes::get).filter(Objects::nonNull).toList());
+            tracked.sample = sample;
+
+            for (var threshold : thresholds) {
+                var since = tracked.exceededSince.get(threshold);
+                if (!threshold.isExceededBy(sample)) {
+                    tracked.exceededSince.remove(threshold);
+                } else if (since == null) {
+                    tracked.exceededSince.put(threshold, now);
+                    if (threshold.sustain().isZero()) {
+                        violations.add(new Violation(entry.getKey(), threshold, sample));
+                        tracked.exceededSince.put(threshold, FIRED);
+                    }
+                } else if (since != FIRED && now - since >= threshold.sustain().toNanos()) {
+                    violations.add(new Violation(entry.getKey(), threshold, sample));
+                    // fires once until the browser is back below the threshold
+                    tracked.exceededSince.put(threshold, FIRED);
+                }
+            }
+        }
+        return violations;
+    }
+
+    private static Sample aggregate(List<Process> processes) {
+        var pids = new ArrayList<Integer>();
+        var cpuLoad = 0.0;
+        var cpuTime = 0L;
+        var residentSetSize = 0L;
+        var threadCount = 0;
+        for (var process : processes) {
+            pids.add(process.pid);
+            cpuLoad += process.cpuLoad;
+            cpuTime += process.cpuTime;
+            residentSetSize += process.residentSetSize;
+            threadCount += process.threadCount;
+        }
+        return new Sample(List.copyOf(pids), cpuLoad, Duration.ofMillis(cpuTime), residentSetSize, threadCount,
+                System.currentTimeMillis());
+    }
+
+    private static boolean isRenderer(OSProcess process) {
+        return process.getArguments().contains("--type=renderer");
+    }
+
+    private static long clientIdOf(OSProcess process) {
+        for (var argument : process.getArguments()) {
+            if (argument.startsWith("--renderer-client-id=")) {
+                try {
+                    return Long.parseLong(argument.substring("--renderer-client-id=".length()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static String siteOf(String url) {
+        try {
+            var uri = new URI(url);
+            var host = uri.getHost();
+            if (host == null) {
+                return uri.getScheme();
+            }
+
+            // the registrable domain, close enough without a public suffix list
+            var labels = host.split("\\.");
+            var domain = labels.length > 2 ? labels[labels.length - 2] + "." + labels[labels.length - 1] : host;
+            return uri.getScheme() + "://" + domain;
+        } catch (Exception e) {
+            return url;
+        }
+    }
+
+    /**
+     * The resource use of the renderer processes of one browser, summed up.
+     *
+     * @param pids            the renderer processes attributed to the browser
+     * @param cpuLoad         CPU use since the previous sample, 1 is one core fully used
+     * @param cpuTime         total CPU time of the processes
+     * @param residentSetSize bytes of memory in RAM
+     * @param threadCount     the number of threads
+     * @param sampledAt       System.currentTimeMillis() of the sample
+     */
+    public record Sample(List<Integer> pids, double cpuLoad, Duration cpuTime, long residentSetSize, int threadCount,
+                         long sampledAt) {
+    }
+
+    /**
+     * Calls its action once a browser stays above a limit for {@code sustain}, and again only after it went back below.
+     *
+     * @param maxCpuLoad         CPU load, 1 is one core fully used
+     * @param maxResidentSetSize bytes of memory in RAM
+     * @param sustain            how long the limit has to be exceeded in a row, to ignore short spikes
+     */
+    public record Threshold(double maxCpuLoad, long maxResidentSetSize, Duration sustain, Action action) {
+
+        public static Threshold cpu(double maxCpuLoad, Duration sustain, Action action) {
+            return new Threshold(maxCpuLoad, Long.MAX_VALUE, sustain, action);
+        }
+
+        public static Threshold memory(long maxResidentSetSize, Duration sustain, Action action) {
+            return new Threshold(Double.MAX_VALUE, maxResidentSetSize, sustain, action);
+        }
+
+        boolean isExceededBy(Sample sample) {
+            return sample.cpuLoad() > maxCpuLoad || sample.residentSetSize() > maxResidentSetSize;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Action {
+        /**
+         * Called on the sampler thread.
+         */
+        void trigger(MCEFBrowser browser, Sample sample);
+
+        /**
+         * Reloads the page, which starts over with a fresh heap if it was leaking.
+         */
+        static Action reload() {
+            return (browser, sample) -> mc.execute(browser::reload);
+        }
+
+        /**
+         * Unloads the page like a discarded tab, the browser stays usable and shows a blank page.
+         */
+        static Action discard() {
+            return (browser, sample) -> mc.execute(() -> browser.loadURL("about:blank"));
+        }
+
+        /**
+         * Only logs the sample.
+         */
+        static Action log() {
+            return (browser, sample) -> MCEF.INSTANCE.getLogger().warn("Browser {} exceeded a process threshold: {}",
+                    browser.getURL(), sample);
+        }
+    }
+
+    private record Violation(MCEFBrowser browser, Threshold threshold, Sample sample) {
+    }
+
+    private static final class Tracked {
+        private final Set<Integer> pids = new HashSet<>();
+        private final Map<Threshold, Long> exceededSince = new HashMap<>();
+        /**
+         * The order in which browsers started waiting for a renderer, 0 if not waiting.
+         */
+        private long pendingSince = 0;
+        private long pendingAt = 0;
+        private String site;
+        private Sample sample;
+    }
+
+    private static final class Process {
+        private final int pid;
+        private final long clientId;
+        private final long startTime;
+        private MCEFBrowser owner;
+        private long cpuTime;
+        private double cpuLoad;
+        private long residentSetSize;
+        private int threadCount;
+        private long sampledAt = 0;
+
+        private Process(int pid, long clientId, long startTime) {
+            this.pid = pid;
+            this.clientId = clientId;
+            this.startTime = startTime;
+        }
+    }
+}
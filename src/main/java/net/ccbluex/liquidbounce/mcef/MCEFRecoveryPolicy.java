@@ -0,0 +1,78 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import java.time.Duration;
+
+/**
+ * How the {@link MCEFWatchdog} detects and recovers from hangs and crashes of a browser's renderer.
+ *
+ * @param onHang            what to do when the renderer stops responding
+ * @param onCrash           what to do when the renderer process terminated
+ * @param hangTimeout       how long a heartbeat, or without heartbeats an input, may go unanswered
+ * @param heartbeatInterval how often a heartbeat script is run in the page, null to only watch input and paints
+ * @param maxAttempts       recoveries in a row before giving up, until the browser stays healthy for {@code stablePeriod}
+ * @param initialBackoff    delay before the first recovery, doubled with every further attempt
+ * @param maxBackoff        upper bound of the delay
+ * @param stablePeriod      how long a browser has to stay healthy for its attempts to be reset
+ */
+public record MCEFRecoveryPolicy(Action onHang, Action onCrash, Duration hangTimeout, Duration heartbeatInterval,
+                                 int maxAttempts, Duration initialBackoff, Duration maxBackoff, Duration stablePeriod) {
+
+    /**
+     * Reloads the page after hangs and crashes, the browser the caller holds stays the one on screen.
+     * A crashed renderer is replaced on reload. A renderer stuck in a script may keep hanging, opt into
+     * {@link Action#RECREATE} for that if the caller listens for the replacement browser.
+     */
+    public static MCEFRecoveryPolicy defaults() {
+        return new MCEFRecoveryPolicy(Action.RELOAD, Action.RELOAD, Duration.ofSeconds(5), Duration.ofSeconds(2),
+                5, Duration.ofSeconds(1), Duration.ofMinutes(1), Duration.ofMinutes(1));
+    }
+
+    /**
+     * Only reports hangs and crashes through the watchdog listeners.
+     */
+    public static MCEFRecoveryPolicy reportOnly() {
+        return new MCEFRecoveryPolicy(Action.NONE, Action.NONE, Duration.ofSeconds(5), Duration.ofSeconds(2),
+                0, Duration.ZERO, Duration.ZERO, Duration.ofMinutes(1));
+    }
+
+    public Duration backoff(int attempt) {
+        var millis = initialBackoff.toMillis() << Math.min(attempt, 20);
+        return Duration.ofMillis(Math.min(millis, maxBackoff.toMillis()));
+    }
+
+    public enum Action {
+        NONE,
+        /**
+         * Reloads the page in the same browser, which starts a new renderer process after a crash.
+         */
+        RELOAD,
+        /**
+         * Replaces the browser with a new one at the same URL, see {@link MCEFBrowser#recreate()}.
+         * The old browser is closed and handlers, the message channel and the state sync are not carried
+         * over, so callers have to switch to the browser of {@link net.ccbluex.liquidbounce.mcef.events.MCEFWatchdogEvent.Recovered} and register
+         * everything again.
+         */
+        RECREATE
+    }
+}
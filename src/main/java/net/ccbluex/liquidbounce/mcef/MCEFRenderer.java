@@ -29,13 +29,24 @@ import static org.lwjgl.opengl.GL12.*;
 public class MCEFRenderer {
     private final boolean transparent;
     private final int[] textureID = new int[1];
+    private final MCEFGlStateCache glState = new MCEFGlStateCache();
+    private MCEFResourceTracker.Resource texture;
+    private boolean closed = false;
 
     protected MCEFRenderer(boolean transparent) {
         this.transparent = transparent;
     }
 
     public void initialize() {
-        textureID[0] = glGenTextures();
+        if (closed || textureID[0] != 0) {
+            // the browser was closed before the render thread got to this
+            return;
+        }
+
+        var id = glGenTextures();
+        textureID[0] = id;
+        texture = MCEFResourceTracker.track(this, MCEFResourceTracker.Kind.TEXTURE, 0, "texture " + id,
+                MCEFResourceTracker.onRenderThread(() -> glDeleteTextures(id)));
         RenderSystem.bindTexture(textureID[0]);
         RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
         RenderSystem.texParameter(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
@@ -50,11 +61,17 @@ public class MCEFRenderer {
         return transparent;
     }
 
+    public MCEFGlStateCache getGlState() {
+        return glState;
+    }
+
     protected void cleanup() {
-        if (textureID[0] != 0) {
-            glDeleteTextures(textureID[0]);
-            textureID[0] = 0;
+        closed = true;
+        if (texture != null) {
+            texture.dispose();
+            texture = null;
         }
+        textureID[0] = 0;
     }
 
     protected void onPaint(ByteBuffer buffer, int width, int height) {
@@ -62,16 +79,13 @@ public class MCEFRenderer {
             return;
         }
 
-        if (transparent) {
-            RenderSystem.enableBlend();
-        }
-
-        RenderSystem.bindTexture(textureID[0]);
-        RenderSystem.pixelStore(GL_UNPACK_ROW_LENGTH, width);
-        RenderSystem.pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
-        RenderSystem.pixelStore(GL_UNPACK_SKIP_ROWS, 0);
+        glState.bindTexture(textureID[0]);
+        glState.unpackRowLength(width);
+        glState.unpackSkipPixels(0);
+        glState.unpackSkipRows(0);
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0,
                 GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+        texture.resize((long) width * height * 4);
     }
 
     protected void onPaint(ByteBuffer buffer, int x, int y, int width, int height) {
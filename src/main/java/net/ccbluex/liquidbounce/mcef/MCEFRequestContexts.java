@@ -0,0 +1,100 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import org.cef.browser.CefRequestContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out the request contexts described by {@link MCEFContextOptions} and disposes them when their
+ * browsers are gone. Contexts are created without a cache path, which makes CEF keep them in memory.
+ */
+public final class MCEFRequestContexts {
+    private final Map<String, Group> groups = new HashMap<>();
+
+    MCEFRequestContexts() {
+    }
+
+    /**
+     * @return the context for a new browser, or null for the global context
+     */
+    synchronized CefRequestContext acquire(MCEFContextOptions options) {
+        return switch (options.kind()) {
+            case GLOBAL -> null;
+            case EPHEMERAL -> CefRequestContext.createContext(null);
+            case EPHEMERAL_GROUP -> {
+                var group = groups.computeIfAbsent(options.group(), name -> new Group(CefRequestContext.createContext(null)));
+                group.references++;
+                yield group.context;
+            }
+        };
+    }
+
+    /**
+     * Gives back a context acquired for a browser that has been closed.
+     */
+    synchronized void release(MCEFContextOptions options, CefRequestContext context) {
+        switch (options.kind()) {
+            case GLOBAL -> {
+            }
+            case EPHEMERAL -> dispose(context);
+            case EPHEMERAL_GROUP -> {
+                var group = groups.get(options.group());
+                if (group != null && --group.references <= 0) {
+                    groups.remove(options.group());
+                    dispose(group.context);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of browsers using the given group, 0 if it does not exist
+     */
+    public synchronized int getGroupSize(String group) {
+        var entry = groups.get(group);
+        return entry != null ? entry.references : 0;
+    }
+
+    private static void dispose(CefRequestContext context) {
+        if (context == null) {
+            return;
+        }
+
+        try {
+            context.dispose();
+        } catch (Exception e) {
+            MCEF.INSTANCE.getLogger().error("Failed to dispose request context", e);
+        }
+    }
+
+    private static final class Group {
+        private final CefRequestContext context;
+        private int references = 0;
+
+        private Group(CefRequestContext context) {
+            this.context = context;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import java.lang.ref.Cleaner;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Tracks the native resources of MCEF: browsers, their GL textures and off-heap buffers.
+ * <p>
+ * Resources are freed when their owner is closed. A browser that was created but never closed cannot be found
+ * by the garbage collector: CEF keeps it reachable until it is closed, and with it the texture and buffers it owns.
+ * Leaks are therefore reported at points where everything should have been closed. Take a {@link #checkpoint()}
+ * when a screen opens or a world is joined and {@link Checkpoint#reportLeaks(String) report} what is still alive
+ * from it when the screen closes or the world is left. Everything still alive when MCEF shuts down is reported
+ * as well.
+ * <p>
+ * Owners that never reached CEF, e.g. an {@link MCEFBrowser} that was constructed but never created, can still
+ * be collected. For those a {@link Cleaner} frees what they held and reports them as leaked.
+ * <p>
+ * With {@link MCEFSettings#isLeakDetection() leak detection} enabled, the stack trace of every allocation is
+ * recorded and included in reports and in {@link #getLive()}, which costs a stack walk per allocation.
+ */
+public final class MCEFResourceTracker {
+    private static final Cleaner CLEANER = Cleaner.create(runnable -> {
+        var thread = new Thread(runnable, "MCEF-Cleaner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Set<State> live = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final AtomicLongArray liveCounts = new AtomicLongArray(Kind.values().length);
+    private static final AtomicLongArray liveBytes = new AtomicLongArray(Kind.values().length);
+    private static final AtomicLongArray leaks = new AtomicLongArray(Kind.values().length);
+
+    private MCEFResourceTracker() {
+    }
+
+    public enum Kind {
+        BROWSER,
+        TEXTURE,
+        DIRECT_BUFFER
+    }
+
+    /**
+     * Starts tracking a resource held by the owner.
+     *
+     * @param description what the resource is, shown in leak reports
+     * @param release     frees the resource, must not reference the owner. Runs on the thread that disposes the
+     *                    resource, or on the cleaner thread if the owner leaked
+     */
+    static Resource track(Object owner, Kind kind, long bytes, String description, Runnable release) {
+        var trace = MCEF.INSTANCE.getSettings().isLeakDetection() ? new Throwable("Allocated here") : null;
+        var state = new State(kind, description, trace, release, sequence.incrementAndGet());
+        state.resize(bytes);
+        live.add(state);
+        liveCounts.incrementAndGet(kind.ordinal());
+        return new Resource(state, CLEANER.register(owner, state));
+    }
+
+    /**
+     * Runs a release that needs the GL context right away on the render thread, or as its next task otherwise.
+     */
+    static Runnable onRenderThread(Runnable release) {
+        return () -> {
+            if (mc.isOnThread()) {
+                release.run();
+            } else {
+                mc.execute(release);
+            }
+        };
+    }
+
+    public static long getLiveCount(Kind kind) {
+        return liveCounts.get(kind.ordinal());
+    }
+
+    /**
+     * @return the bytes held by resources of this kind, textures count their size on the GPU
+     */
+    public static long getLiveBytes(Kind kind) {
+        return liveBytes.get(kind.ordinal());
+    }
+
+    /**
+     * @return how many resources of this kind were reported as leaked since the game started
+     */
+    public static long getLeakCount(Kind kind) {
+        return leaks.get(kind.ordinal());
+    }
+
+    /**
+     * @return the resources that were not disposed yet, oldest first
+     */
+    public static List<LiveResource> getLive() {
+        var now = System.nanoTime();
+        var resources = new ArrayList<LiveResource>(live.size());
+        for (var state : live) {
+            resources.add(state.snapshot(now));
+        }
+        resources.sort((a, b) -> b.age().compareTo(a.age()));
+        return resources;
+    }
+
+    /**
+     * Marks the current point, see {@link Checkpoint#reportLeaks(String)}.
+     */
+    public static Checkpoint checkpoint() {
+        return new Checkpoint(sequence.get());
+    }
+
+    /**
+     * Reports every resource that is still alive as leaked. Called when MCEF shuts down.
+     */
+    static void reportLeaks() {
+        new Checkpoint(0).reportLeaks("shutdown");
+    }
+
+    /**
+     * Logs every resource that was not disposed yet.
+     */
+    public static void logLive() {
+        var resources = getLive();
+        MCEF.INSTANCE.getLogger().info("{} native resources alive", resources.size());
+        for (var resource : resources) {
+            MCEF.INSTANCE.getLogger().info("  {} {} ({} bytes, alive for {}){}", resource.kind(), resource.description(),
+                    resource.bytes(), resource.age(), formatTrace(resource.allocationTrace()));
+        }
+    }
+
+    private static String formatTrace(StackTraceElement[] trace) {
+        if (trace == null) {
+            return "";
+        }
+
+        var builder = new StringBuilder();
+        for (var element : trace) {
+            builder.append("\n\tat ").append(element);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param allocationTrace where the resource was allocated, null if leak detection was disabled at the time
+     */
+    public record LiveResource(Kind kind, String description, long bytes, Duration age,
+                               StackTraceElement[] allocationTrace) {
+    }
+
+    /**
+     * Resources allocated after a point in time, e.g. while a screen was open.
+     */
+    public static final class Checkpoint {
+        private final long sequence;
+
+        private Checkpoint(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * Reports every resource allocated since the checkpoint that is still alive as leaked, e.g. when the screen
+         * that allocated them was closed. Resources that are meant to outlive the checkpoint, such as browsers
+         * kept by a {@link MCEFBrowserPool}, are reported as well, so take checkpoints around code that should
+         * free everything it creates. Each resource is reported once.
+         *
+         * @param context where the leak was found, shown in the log
+         * @return the leaked resources
+         */
+        public List<LiveResource> reportLeaks(String context) {
+            var now = System.nanoTime();
+            var leaked = new ArrayList<LiveResource>();
+            for (var state : live) {
+                if (state.sequence > sequence && !state.disposed.get() && state.reported.compareAndSet(false, true)) {
+                    leaks.incrementAndGet(state.kind.ordinal());
+                    state.logLeak("still alive at " + context);
+                    leaked.add(state.snapshot(now));
+                }
+            }
+            return leaked;
+        }
+    }
+
+    /**
+     * A tracked resource, owned by whoever called {@link #track}.
+     */
+    static final class Resource {
+        private final State state;
+        private final Cleaner.Cleanable cleanable;
+
+        private Resource(State state, Cleaner.Cleanable cleanable) {
+            this.state = state;
+            this.cleanable = cleanable;
+        }
+
+        /**
+         * Updates the size, e.g. once a texture was allocated at a new size.
+         */
+        void resize(long bytes) {
+            state.resize(bytes);
+        }
+
+        /**
+         * Frees the resource now. Calling it again does nothing.
+         */
+        void dispose() {
+            state.disposed.set(true);
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * What the cleaner runs, must never reference the owner or it would never become unreachable.
+     */
+    private static final class State implements Runnable {
+        private final Kind kind;
+        private final String description;
+        private final Throwable trace;
+        private final Runnable release;
+        private final long createdAt = System.nanoTime();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicBoolean disposed = new AtomicBoolean();
+        private final AtomicBoolean reported = new AtomicBoolean();
+        private final long sequence;
+
+        private State(Kind kind, String description, Throwable trace, Runnable release, long sequence) {
+            this.kind = kind;
+            this.description = description;
+            this.trace = trace;
+            this.release = release;
+            this.sequence = sequence;
+        }
+
+        private LiveResource snapshot(long now) {
+            return new LiveResource(kind, description, bytes.get(), Duration.ofNanos(now - createdAt),
+                    trace != null ? trace.getStackTrace() : null);
+        }
+
+        private void logLeak(String reason) {
+            if (trace != null) {
+                MCEF.INSTANCE.getLogger().warn("Leaked {} {}, {}", kind, description, reason, trace);
+            } else {
+                MCEF.INSTANCE.getLogger().warn("Leaked {} {}, {}. Enable leak detection to see where it was allocated",
+                        kind, description, reason);
+            }
+        }
+
+        private void resize(long bytes) {
+            liveBytes.addAndGet(kind.ordinal(), bytes - this.bytes.getAndSet(bytes));
+        }
+
+        @Override
+        public void run() {
+            live.remove(this);
+            liveCounts.decrementAndGet(kind.ordinal());
+            resize(0);
+
+            if (!disposed.get() && reported.compareAndSet(false, true)) {
+                leaks.incrementAndGet(kind.ordinal());
+                logLeak("it was collected without being closed");
+            }
+
+            try {
+                release.run();
+            } catch (Exception e) {
+                MCEF.INSTANCE.getLogger().error("Failed to release {} {}", kind, description, e);
+            }
+        }
+    }
+}
@@ -21,6 +21,8 @@
 package net.ccbluex.liquidbounce.mcef;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -41,8 +43,16 @@ public class MCEFSettings {
             "--enable-widevine-cdm",
             "--off-screen-rendering-enabled"
     );
+    private List<String> customSchemes = new ArrayList<>(List.of("mcef"));
     private File cacheDirectory = null;
+    private long cacheSizeLimit = 512L * 1024 * 1024;
+    private Duration cacheMaxAge = Duration.ofDays(30);
     private File librariesDirectory = null;
+    private boolean gameAudio = true;
+    private boolean leakDetection = false;
+    private ProcessModel processModel = ProcessModel.DEFAULT;
+    private int rendererProcessLimit = 0;
+    private int v8HeapLimit = 0;
 
     public List<String> getHosts() {
         return hosts;
@@ -84,6 +94,22 @@ public class MCEFSettings {
         this.cefSwitches = cefSwitches;
     }
 
+    /**
+     * Schemes registered with Chromium on startup, they can be served with
+     * {@link MCEFApp#registerResourceProvider}. Changes after initialization have no effect.
+     */
+    public List<String> getCustomSchemes() {
+        return customSchemes;
+    }
+
+    public void appendCustomSchemes(String... schemes) {
+        customSchemes.addAll(Arrays.asList(schemes));
+    }
+
+    public void setCustomSchemes(List<String> customSchemes) {
+        this.customSchemes = customSchemes;
+    }
+
     public File getCacheDirectory() {
         return cacheDirectory;
     }
@@ -92,6 +118,28 @@ public class MCEFSettings {
         this.cacheDirectory = cacheDirectory;
     }
 
+    /**
+     * The size the cache directory is pruned down to, in bytes. Half of it goes to Chromium's HTTP cache.
+     */
+    public long getCacheSizeLimit() {
+        return cacheSizeLimit;
+    }
+
+    public void setCacheSizeLimit(long cacheSizeLimit) {
+        this.cacheSizeLimit = cacheSizeLimit;
+    }
+
+    /**
+     * Cache components that were not written to for this long are pruned regardless of their size.
+     */
+    public Duration getCacheMaxAge() {
+        return cacheMaxAge;
+    }
+
+    public void setCacheMaxAge(Duration cacheMaxAge) {
+        this.cacheMaxAge = cacheMaxAge;
+    }
+
     public File getLibrariesDirectory() {
         return librariesDirectory;
     }
@@ -100,4 +148,80 @@ public class MCEFSettings {
         this.librariesDirectory = librariesDirectory;
     }
 
+    /**
+     * Whether browsers play their audio through the game's sound engine instead of Chromium's own output.
+     * The initial value of {@link net.ccbluex.liquidbounce.mcef.audio.MCEFAudioStream#isEnabled()} for new browsers.
+     */
+    public boolean isGameAudio() {
+        return gameAudio;
+    }
+
+    public void setGameAudio(boolean gameAudio) {
+        this.gameAudio = gameAudio;
+    }
+
+    /**
+     * Whether the allocation of every native resource records a stack trace, reported if it leaks,
+     * see {@link MCEFResourceTracker}. Only affects resources allocated afterwards.
+     */
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    public void setLeakDetection(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+    }
+
+    /**
+     * How pages are assigned to renderer processes, applied when CEF is initialized.
+     */
+    public ProcessModel getProcessModel() {
+        return processModel;
+    }
+
+    public void setProcessModel(ProcessModel processModel) {
+        this.processModel = processModel;
+    }
+
+    /**
+     * The maximum number of renderer processes, 0 to let Chromium decide based on the system memory.
+     * Chromium treats this as a soft limit and reuses processes once it is reached, which only works across
+     * sites with {@link ProcessModel#SHARED}. Applied when CEF is initialized.
+     */
+    public int getRendererProcessLimit() {
+        return rendererProcessLimit;
+    }
+
+    public void setRendererProcessLimit(int rendererProcessLimit) {
+        this.rendererProcessLimit = rendererProcessLimit;
+    }
+
+    /**
+     * The maximum size of the V8 old generation per renderer process in megabytes, 0 for V8's default.
+     * Pages exceeding it crash their renderer with an out of memory error. Applied when CEF is initialized.
+     */
+    public int getV8HeapLimit() {
+        return v8HeapLimit;
+    }
+
+    public void setV8HeapLimit(int v8HeapLimit) {
+        this.v8HeapLimit = v8HeapLimit;
+    }
+
+    public enum ProcessModel {
+        /**
+         * Chromium's default, a renderer process per browser and site.
+         */
+        DEFAULT,
+        /**
+         * Browsers showing the same site share a renderer process, e.g. several UI browsers on the same custom scheme.
+         */
+        PROCESS_PER_SITE,
+        /**
+         * Site isolation is disabled, so browsers share renderer processes across sites once the
+         * {@link #getRendererProcessLimit() renderer process limit} is reached, which defaults to one process.
+         */
+        SHARED
+    }
+
 }
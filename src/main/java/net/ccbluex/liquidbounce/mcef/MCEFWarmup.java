@@ -0,0 +1,286 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import com.google.gson.JsonArray;
+import net.ccbluex.liquidbounce.mcef.cache.MCEFResourceCache;
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefQueryCallback;
+import org.cef.handler.CefLoadHandler;
+import org.cef.handler.CefLoadHandlerAdapter;
+import org.cef.handler.CefMessageRouterHandlerAdapter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Prefetches the resources of a {@link MCEFWarmupManifest} while the game is still loading, so the first page
+ * that is shown finds its resources, and ideally its compiled scripts, in a cache.
+ * <p>
+ * Everything runs in parallel. URLs matched by the {@link MCEFResourceCache} are fetched into it, assets of
+ * registered custom schemes are read once so their files are in the OS page cache. Chromium partitions its HTTP
+ * cache by the site of the page, so all other URLs are fetched from within the entry page, loaded in a hidden
+ * browser. Loading it a second time makes V8 write its code cache for the page's scripts.
+ * <p>
+ * {@link #start()} must be called on the render thread, after {@link MCEF#initialize()} and after the resource
+ * providers and request handlers the page depends on were registered.
+ */
+public final class MCEFWarmup {
+    private static final String QUERY_PREFIX = "__mcef_warmup:";
+    private static final int BROWSER_WIDTH = 1280;
+    private static final int BROWSER_HEIGHT = 720;
+    private static final int BROWSER_FRAME_RATE = 10;
+
+    private final MCEFWarmupManifest manifest;
+    private final MCEFResourceCache cache;
+    private final AtomicInteger warmed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile int total = 0;
+    private CompletableFuture<Result> future;
+
+    // render thread only
+    private MCEFBrowser browser;
+    private QueryHandler queryHandler;
+
+    public MCEFWarmup(MCEFWarmupManifest manifest) {
+        this(manifest, null);
+    }
+
+    /**
+     * @param cache the cache to prefetch matching URLs into, null to fetch everything from the entry page
+     */
+    public MCEFWarmup(MCEFWarmupManifest manifest, MCEFResourceCache cache) {
+        this.manifest = manifest;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts the warm-up, calling it again returns the same future.
+     *
+     * @return completes once everything was prefetched or the timeout of the manifest is over, never exceptionally
+     */
+    public synchronized CompletableFuture<Result> start() {
+        if (future != null) {
+            return future;
+        }
+
+        var startedAt = System.nanoTime();
+        var tasks = new ArrayList<CompletableFuture<?>>();
+        var pageUrls = new ArrayList<String>();
+        var executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        for (var url : manifest.urls()) {
+            var scheme = url.substring(0, Math.max(0, url.indexOf(':'))).toLowerCase(Locale.ROOT);
+            if (!scheme.equals("http") && !scheme.equals("https")) {
+                tasks.add(track(url, CompletableFuture.runAsync(() -> readAsset(url), executor)));
+            } else if (cache != null && cache.matches(url)) {
+                tasks.add(track(url, cache.get(url)));
+            } else if (manifest.entryPage() != null) {
+                pageUrls.add(url);
+            } else {
+                MCEF.INSTANCE.getLogger().debug("Not warming up {}, it is not cached and there is no entry page", url);
+                failed.incrementAndGet();
+            }
+        }
+
+        if (manifest.entryPage() != null) {
+            tasks.add(track(manifest.entryPage(), warmEntryPage(pageUrls)));
+        }
+        total = manifest.urls().size() + (manifest.entryPage() != null ? 1 : 0);
+
+        future = CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new))
+                .orTimeout(manifest.timeout().toMillis(), TimeUnit.MILLISECONDS)
+                .handle((ignored, throwable) -> {
+                    if (throwable instanceof TimeoutException) {
+                        MCEF.INSTANCE.getLogger().info("Warm-up timed out after {}", manifest.timeout());
+                    }
+                    executor.shutdown();
+                    mc.execute(this::closeBrowser);
+                    return new Result(total, warmed.get(), failed.get(), Duration.ofNanos(System.nanoTime() - startedAt));
+                });
+        return future;
+    }
+
+    /**
+     * @return the share of the manifest that is done, successful or not, between 0 and 1
+     */
+    public float getProgress() {
+        var total = this.total;
+        return total == 0 ? 0f : Math.min(1f, (warmed.get() + failed.get()) / (float) total);
+    }
+
+    private CompletableFuture<?> track(String url, CompletableFuture<?> task) {
+        return task.handle((ignored, throwable) -> {
+            if (throwable != null) {
+                MCEF.INSTANCE.getLogger().debug("Failed to warm up {}", url, throwable);
+                failed.incrementAndGet();
+            } else {
+                warmed.incrementAndGet();
+            }
+            return null;
+        });
+    }
+
+    private static void readAsset(String url) {
+        try (var resource = MCEF.INSTANCE.getApp().openResource(url)) {
+            if (resource == null) {
+                throw new RuntimeException("No resource at " + url);
+            }
+
+            var buffer = new byte[64 * 1024];
+            while (resource.read(buffer, 0, buffer.length) >= 0) {
+                // only touching the data
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + url, e);
+        }
+    }
+
+    /**
+     * Loads the entry page, reloads it to prime the code cache and then fetches the remaining URLs from within it.
+     */
+    private CompletableFuture<Void> warmEntryPage(List<String> pageUrls) {
+        var done = new CompletableFuture<Void>();
+
+        mc.execute(() -> {
+            if (done.isDone()) {
+                return;
+            }
+
+            try {
+                var client = MCEF.INSTANCE.getClient();
+                browser = MCEF.INSTANCE.createBrowser(manifest.entryPage(), true, BROWSER_WIDTH, BROWSER_HEIGHT,
+                        BROWSER_FRAME_RATE);
+                queryHandler = new QueryHandler(browser, pageUrls.size(), done);
+                client.getMessageRouter().addHandler(queryHandler, true);
+
+                var loads = new AtomicInteger(manifest.primeCodeCache() ? 2 : 1);
+                client.addLoadHandler(browser, new CefLoadHandlerAdapter() {
+                    @Override
+                    public void onLoadEnd(CefBrowser browser, CefFrame frame, int httpStatusCode) {
+                        if (!frame.isMain()) {
+                            return;
+                        }
+
+                        if (loads.decrementAndGet() > 0) {
+                            browser.reload();
+                        } else if (pageUrls.isEmpty()) {
+                            done.complete(null);
+                        } else {
+                            browser.executeJavaScript(fetchScript(pageUrls), browser.getURL(), 0);
+                        }
+                    }
+
+                    @Override
+                    public void onLoadError(CefBrowser browser, CefFrame frame, CefLoadHandler.ErrorCode errorCode,
+                                            String errorText, String failedUrl) {
+                        if (frame.isMain() && errorCode != CefLoadHandler.ErrorCode.ERR_ABORTED) {
+                            done.completeExceptionally(new RuntimeException("Failed to load " + failedUrl + ": " + errorText));
+                        }
+                    }
+                });
+            } catch (Exception e) {
+                done.completeExceptionally(e);
+            }
+        });
+        return done;
+    }
+
+    private static String fetchScript(List<String> urls) {
+        var array = new JsonArray();
+        urls.forEach(array::add);
+
+        // no-cors, so cross-origin resources end up in the cache as well, only their bodies are opaque
+        return "Promise.allSettled(" + array + ".map(url => fetch(url, {mode: 'no-cors', credentials: 'include'})"
+                + ".then(response => response.arrayBuffer())))"
+                + ".then(results => window.cefQuery({request: '" + QUERY_PREFIX
+                + "' + results.filter(result => result.status === 'rejected').length}));";
+    }
+
+    private void closeBrowser() {
+        if (queryHandler != null) {
+            MCEF.INSTANCE.getClient().getMessageRouter().removeHandler(queryHandler);
+            queryHandler = null;
+        }
+        if (browser != null) {
+            browser.close();
+            browser = null;
+        }
+    }
+
+    /**
+     * @param total    the number of URLs in the manifest, plus the entry page
+     * @param warmed   how many of them are in a cache now
+     * @param failed   how many of them could not be prefetched, or were still pending at the timeout if the two
+     *                 do not add up to the total
+     * @param duration how long the warm-up took
+     */
+    public record Result(int total, int warmed, int failed, Duration duration) {
+    }
+
+    /**
+     * Receives the result of the fetches made by the entry page.
+     */
+    private final class QueryHandler extends CefMessageRouterHandlerAdapter {
+        private final CefBrowser browser;
+        private final int count;
+        private final CompletableFuture<Void> done;
+
+        private QueryHandler(CefBrowser browser, int count, CompletableFuture<Void> done) {
+            this.browser = browser;
+            this.count = count;
+            this.done = done;
+        }
+
+        @Override
+        public boolean onQuery(CefBrowser browser, CefFrame frame, long queryId, String request, boolean persistent,
+                               CefQueryCallback callback) {
+            if (browser != this.browser || !request.startsWith(QUERY_PREFIX)) {
+                return false;
+            }
+
+            int failures;
+            try {
+                failures = Math.min(count, Integer.parseInt(request.substring(QUERY_PREFIX.length())));
+            } catch (NumberFormatException e) {
+                failures = count;
+            }
+            warmed.addAndGet(count - failures);
+            failed.addAndGet(failures);
+
+            callback.success("");
+            done.complete(null);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What {@link MCEFWarmup} prefetches.
+ * <p>
+ * As JSON, every field but {@code urls} is optional:
+ * <pre>{@code
+ * {
+ *   "entry": "mcef://ui/index.html",
+ *   "primeCodeCache": true,
+ *   "timeout": 20,
+ *   "urls": ["mcef://ui/app.js", "https://fonts.example.com/inter.woff2"]
+ * }
+ * }</pre>
+ *
+ * @param urls           resources and assets to prefetch, http(s) URLs and URLs of registered custom schemes
+ * @param entryPage      the first page that will be shown, loaded in a hidden browser if not null
+ * @param primeCodeCache whether to load the entry page a second time, V8 only writes its code cache for scripts
+ *                       it has seen before
+ * @param timeout        how long the warm-up may take at most
+ */
+public record MCEFWarmupManifest(List<String> urls, String entryPage, boolean primeCodeCache, Duration timeout) {
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(20);
+
+    public MCEFWarmupManifest {
+        urls = List.copyOf(urls);
+    }
+
+    public static MCEFWarmupManifest of(List<String> urls) {
+        return new MCEFWarmupManifest(urls, null, false, DEFAULT_TIMEOUT);
+    }
+
+    public static MCEFWarmupManifest of(List<String> urls, String entryPage) {
+        return new MCEFWarmupManifest(urls, entryPage, true, DEFAULT_TIMEOUT);
+    }
+
+    public static MCEFWarmupManifest load(Path path) throws IOException {
+        try (var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader);
+        }
+    }
+
+    public static MCEFWarmupManifest parse(Reader reader) {
+        var json = JsonParser.parseReader(reader).getAsJsonObject();
+
+        var urls = new ArrayList<String>();
+        if (json.has("urls")) {
+            for (var url : json.getAsJsonArray("urls")) {
+                urls.add(url.getAsString());
+            }
+        }
+
+        var entryPage = json.has("entry") ? json.get("entry").getAsString() : null;
+        var primeCodeCache = !json.has("primeCodeCache") || json.get("primeCodeCache").getAsBoolean();
+        var timeout = json.has("timeout") ? Duration.ofSeconds(json.get("timeout").getAsLong()) : DEFAULT_TIMEOUT;
+        return new MCEFWarmupManifest(urls, entryPage, primeCodeCache, timeout);
+    }
+
+    public MCEFWarmupManifest withTimeout(Duration timeout) {
+        return new MCEFWarmupManifest(urls, entryPage, primeCodeCache, timeout);
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef;
+
+import net.ccbluex.liquidbounce.mcef.events.MCEFWatchdogEvent;
+import net.ccbluex.liquidbounce.mcef.listeners.MCEFWatchdogListener;
+import org.cef.handler.CefRequestHandler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Notices when the renderer of a watched {@link MCEFBrowser} hangs or crashes and recovers it according to
+ * its {@link MCEFRecoveryPolicy}.
+ * <p>
+ * Crashes are reported by CEF through {@code onRenderProcessTerminated}. Hangs are detected with a heartbeat:
+ * a tiny script that logs a console message, which a hung renderer never gets to run. Input that does not lead
+ * to a paint triggers a heartbeat right away. Without heartbeats, a hang is assumed when input stays unpainted
+ * for the whole timeout, which misses hangs of pages nobody interacts with.
+ * <p>
+ * All checks run on a watchdog thread, recoveries wait out their backoff there and only the recovery itself is
+ * scheduled on the render thread. Listeners are called on either of the two.
+ */
+public final class MCEFWatchdog {
+    static final String HEARTBEAT_PREFIX = "__mcef_heartbeat:";
+    private static final long CHECK_INTERVAL = 250;
+
+    private static volatile MCEFWatchdog instance;
+
+    private final ScheduledExecutorService scheduler;
+    private final Map<MCEFBrowser, Watched> watched = new ConcurrentHashMap<>();
+    private final List<MCEFWatchdogListener> listeners = new CopyOnWriteArrayList<>();
+
+    private MCEFWatchdog() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "MCEF-Watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized MCEFWatchdog getInstance() {
+        if (instance == null) {
+            instance = new MCEFWatchdog();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return the watchdog if anything was ever watched, without starting its thread otherwise
+     */
+    static MCEFWatchdog getInstanceIfPresent() {
+        return instance;
+    }
+
+    public void watch(MCEFBrowser browser) {
+        watch(browser, MCEFRecoveryPolicy.defaults());
+    }
+
+    public void watch(MCEFBrowser browser, MCEFRecoveryPolicy policy) {
+        watched.put(browser, new Watched(browser, policy));
+    }
+
+    /**
+     * Stops watching. Called when the browser is closed.
+     */
+    public void unwatch(MCEFBrowser browser) {
+        watched.remove(browser);
+    }
+
+    public boolean isWatching(MCEFBrowser browser) {
+        return watched.containsKey(browser);
+    }
+
+    public void addListener(MCEFWatchdogListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MCEFWatchdogListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Called by the {@link MCEFClient} for heartbeat console messages.
+     *
+     * @return whether the message was a heartbeat
+     */
+    boolean onConsoleMessage(MCEFBrowser browser, String message) {
+        if (!message.startsWith(HEARTBEAT_PREFIX)) {
+            return false;
+        }
+
+        var entry = watched.get(browser);
+        if (entry != null) {
+            try {
+                var sequence = Long.parseLong(message.substring(HEARTBEAT_PREFIX.length()));
+                if (sequence == entry.heartbeatSequence) {
+                    entry.heartbeatSentAt = 0;
+                    entry.lastHeartbeat = System.nanoTime();
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Called by the {@link MCEFClient} when a renderer process is gone.
+     */
+    void onRendererTerminated(MCEFBrowser browser, CefRequestHandler.TerminationStatus status) {
+        var entry = watched.get(browser);
+        if (entry == null || entry.recovering) {
+            return;
+        }
+
+        emit(new MCEFWatchdogEvent.RendererTerminated(browser, status));
+        // leave the render thread, the backoff is waited out on the watchdog thread
+        scheduler.execute(() -> recover(entry, entry.policy.onCrash()));
+    }
+
+    private void check() {
+        var now = System.nanoTime();
+
+        for (var entry : watched.values()) {
+            try {
+                check(entry, now);
+            } catch (Exception e) {
+                MCEF.INSTANCE.getLogger().error("Watchdog check failed", e);
+            }
+        }
+    }
+
+    private void check(Watched entry, long now) {
+        if (entry.recovering) {
+            return;
+        }
+
+        var browser = entry.browser;
+        var policy = entry.policy;
+        var timeout = policy.hangTimeout().toNanos();
+
+        if (entry.attempts > 0 && now - entry.lastRecovery > policy.stablePeriod().toNanos()) {
+            entry.attempts = 0;
+        }
+
+        // input that has not been painted for a while, either the page ignored it or it never ran
+        var inputTime = browser.getLastInputTime();
+        var unpaintedInput = inputTime != 0 && inputTime > browser.getLastPaintTime() ? now - inputTime : 0;
+
+        if (policy.heartbeatInterval() == null) {
+            if (unpaintedInput > timeout) {
+                hang(entry, Duration.ofNanos(unpaintedInput));
+            }
+            return;
+        }
+
+        if (browser.isLoading()) {
+            // navigation throws away the page that would answer, try again once it settled
+            entry.heartbeatSentAt = 0;
+            return;
+        }
+
+        if (entry.heartbeatSentAt != 0) {
+            if (now - entry.heartbeatSentAt > timeout) {
+                hang(entry, Duration.ofNanos(now - entry.lastHeartbeat));
+            }
+        } else if (now - entry.lastHeartbeat > policy.heartbeatInterval().toNanos() || unpaintedInput > timeout / 2) {
+            entry.heartbeatSequence++;
+            entry.heartbeatSentAt = now;
+            browser.executeJavaScript("console.debug('" + HEARTBEAT_PREFIX + entry.heartbeatSequence + "')",
+                    "mcef://watchdog", 0);
+        }
+    }
+
+    private void hang(Watched entry, Duration unresponsiveFor) {
+        emit(new MCEFWatchdogEvent.HangDetected(entry.browser, unresponsiveFor));
+        recover(entry, entry.policy.onHang());
+    }
+
+    private void recover(Watched entry, MCEFRecoveryPolicy.Action action) {
+        if (action == MCEFRecoveryPolicy.Action.NONE || entry.recovering) {
+            return;
+        }
+
+        var policy = entry.policy;
+        if (entry.attempts >= policy.maxAttempts()) {
+            entry.recovering = true;
+            emit(new MCEFWatchdogEvent.GaveUp(entry.browser, entry.attempts));
+            return;
+        }
+
+        var delay = policy.backoff(entry.attempts);
+        entry.attempts++;
+        entry.recovering = true;
+        emit(new MCEFWatchdogEvent.RecoveryScheduled(entry.browser, action, entry.attempts, delay));
+
+        scheduler.schedule(() -> mc.execute(() -> perform(entry, action)), delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void perform(Watched entry, MCEFRecoveryPolicy.Action action) {
+        var previous = entry.browser;
+        if (!watched.containsKey(previous)) {
+            // closed while the recovery was waiting
+            return;
+        }
+
+        try {
+            switch (action) {
+                case RELOAD -> previous.reload();
+                case RECREATE -> {
+                    var browser = previous.recreate();
+                    entry.browser = browser;
+                    watched.put(browser, entry);
+                }
+                case NONE -> {
+                }
+            }
+        } catch (Exception e) {
+            MCEF.INSTANCE.getLogger().error("Failed to recover browser {}", previous.getURL(), e);
+        }
+
+        var now = System.nanoTime();
+        entry.lastRecovery = now;
+        entry.lastHeartbeat = now;
+        entry.heartbeatSentAt = 0;
+        entry.recovering = false;
+        emit(new MCEFWatchdogEvent.Recovered(entry.browser, previous, action));
+    }
+
+    private void emit(MCEFWatchdogEvent event) {
+        MCEF.INSTANCE.getLogger().warn("Watchdog: {}", event);
+
+        for (var listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (Exception e) {
+                MCEF.INSTANCE.getLogger().error("Watchdog listener failed", e);
+            }
+        }
+    }
+
+    private static final class Watched {
+        private final MCEFRecoveryPolicy policy;
+        private volatile MCEFBrowser browser;
+        private volatile boolean recovering = false;
+        private volatile long heartbeatSequence = 0;
+        private volatile long heartbeatSentAt = 0;
+        private volatile long lastHeartbeat = System.nanoTime();
+        private volatile long lastRecovery = 0;
+        private volatile int attempts = 0;
+
+        private Watched(MCEFBrowser browser, MCEFRecoveryPolicy policy) {
+            this.browser = browser;
+            this.policy = policy;
+        }
+    }
+}
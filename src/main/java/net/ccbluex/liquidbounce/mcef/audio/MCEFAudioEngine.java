@@ -0,0 +1,383 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.audio;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import net.minecraft.sound.SoundCategory;
+import org.lwjgl.openal.ALC10;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+import static org.lwjgl.openal.AL10.*;
+import static org.lwjgl.openal.AL11.AL_LINEAR_DISTANCE;
+import static org.lwjgl.openal.AL11.AL_SAMPLE_OFFSET;
+import static org.lwjgl.system.MemoryUtil.memAllocShort;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Plays {@link MCEFAudioStream}s through OpenAL sources in the context of the game's sound engine.
+ * <p>
+ * Everything runs on one audio thread: every few milliseconds it takes what CEF has written into each stream,
+ * resamples it to the output rate of the device and queues it in short buffers on the stream's source. The
+ * resampling ratio is nudged by up to one percent depending on how far the buffered audio is from the stream's
+ * target latency, so the clocks of CEF and the sound card cannot drift apart. When playback falls far behind,
+ * e.g. after the game froze, the backlog is skipped instead of played late.
+ * <p>
+ * The master volume is applied by the game to the OpenAL listener, sources only apply their category and own volume.
+ * When the game reloads its sound engine, the context changes and every source is recreated in the new one.
+ */
+public final class MCEFAudioEngine {
+    private static final long TICK_INTERVAL = 5;
+    private static final int BUFFER_COUNT = 8;
+    private static final int BUFFER_MILLIS = 10;
+    /**
+     * Buffers queued before a source starts playing, so a single late tick does not cause an underrun.
+     */
+    private static final int PREBUFFER = 3;
+    private static final double MAX_DRIFT_CORRECTION = 0.01;
+    private static final int DEFAULT_OUTPUT_RATE = 48000;
+
+    private static volatile MCEFAudioEngine instance;
+
+    private final ScheduledExecutorService scheduler;
+    // audio thread only
+    private final Map<MCEFAudioStream, Playback> playbacks = new HashMap<>();
+    private long context = 0;
+    private int outputRate = DEFAULT_OUTPUT_RATE;
+
+    private MCEFAudioEngine() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "MCEF-Audio");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::tick, TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized MCEFAudioEngine getInstance() {
+        if (instance == null) {
+            instance = new MCEFAudioEngine();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return the engine if any browser ever played audio, without starting its thread otherwise
+     */
+    static MCEFAudioEngine getInstanceIfPresent() {
+        return instance;
+    }
+
+    /**
+     * @return the rate all streams are resampled to, the mixing rate of the game's OpenAL device
+     */
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    void register(MCEFAudioStream stream) {
+        scheduler.execute(() -> playbacks.computeIfAbsent(stream, Playback::new));
+    }
+
+    void unregister(MCEFAudioStream stream) {
+        scheduler.execute(() -> {
+            var playback = playbacks.remove(stream);
+            if (playback != null) {
+                playback.release();
+            }
+        });
+    }
+
+    private void tick() {
+        if (playbacks.isEmpty()) {
+            return;
+        }
+
+        var current = ALC10.alcGetCurrentContext();
+        if (current == 0) {
+            // the sound engine is not running, streams keep buffering until it is back
+            return;
+        }
+        if (current != context) {
+            // sources of the previous context were destroyed together with it
+            playbacks.values().forEach(Playback::invalidate);
+            context = current;
+            var frequency = ALC10.alcGetInteger(ALC10.alcGetContextsDevice(current), ALC10.ALC_FREQUENCY);
+            outputRate = frequency > 0 ? frequency : DEFAULT_OUTPUT_RATE;
+        }
+
+        var iterator = playbacks.values().iterator();
+        while (iterator.hasNext()) {
+            var playback = iterator.next();
+            try {
+                if (!playback.update()) {
+                    playback.release();
+                    iterator.remove();
+                }
+            } catch (Exception e) {
+                MCEF.INSTANCE.getLogger().error("Failed to update browser audio", e);
+                playback.release();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static float categoryVolume(SoundCategory category) {
+        if (category == SoundCategory.MASTER || mc.options == null) {
+            return 1f;
+        }
+        return mc.options.getSoundVolume(category);
+    }
+
+    private static short toPcm(float sample) {
+        return (short) (Math.max(-1f, Math.min(1f, sample)) * Short.MAX_VALUE);
+    }
+
+    /**
+     * The OpenAL side of one stream, only touched by the audio thread.
+     */
+    private final class Playback {
+        private final MCEFAudioStream stream;
+        private int source = 0;
+        private final int[] buffers = new int[BUFFER_COUNT];
+        private final int[] freeBuffers = new int[BUFFER_COUNT];
+        private int freeCount = 0;
+        private int queued = 0;
+        private boolean playing = false;
+        private boolean mono = false;
+        private float gain = -1f;
+
+        private MCEFAudioStream.Session session;
+        private ShortBuffer output;
+        private float[] input = new float[0];
+        // resampler state, interpolating between the previous and the current input frame
+        private double position = 1;
+        private float previousLeft, previousRight, currentLeft, currentRight;
+
+        private Playback(MCEFAudioStream stream) {
+            this.stream = stream;
+        }
+
+        /**
+         * @return false once the stream stopped and everything was played
+         */
+        boolean update() {
+            var session = stream.getSession();
+            if (session == null) {
+                return false;
+            }
+
+            if (source == 0) {
+                create();
+            }
+            if (session != this.session) {
+                this.session = session;
+                position = 1;
+                previousLeft = previousRight = currentLeft = currentRight = 0f;
+            }
+
+            reclaim();
+            applyParameters();
+
+            var buffer = session.buffer;
+            var buffered = buffer.available() / 2;
+            var target = Math.max(1, session.sampleRate * stream.getTargetLatency() / 1000);
+            if (buffered > target * 4) {
+                stream.onDropped(buffer.skip((buffered - target) * 2) / 2);
+                buffered = target;
+            }
+
+            var error = Math.max(-1.0, Math.min(1.0, (buffered - target) / (double) target));
+            var step = session.sampleRate / (double) outputRate * (1 + error * MAX_DRIFT_CORRECTION);
+            var frames = outputRate * BUFFER_MILLIS / 1000;
+            while (freeCount > 0 && fill(session, frames, step)) {
+                // fill until out of input or buffers
+            }
+
+            if (alGetSourcei(source, AL_SOURCE_STATE) != AL_PLAYING) {
+                if (playing && !session.stopped) {
+                    stream.onUnderrun();
+                }
+                playing = false;
+                if (queued >= PREBUFFER || session.stopped && queued > 0) {
+                    alSourcePlay(source);
+                    playing = true;
+                }
+            }
+
+            var playedOfQueue = queued > 0 ? alGetSourcei(source, AL_SAMPLE_OFFSET) / (double) outputRate : 0;
+            stream.setLatency((buffer.available() / 2.0 / session.sampleRate
+                    + queued * BUFFER_MILLIS / 1000.0 - playedOfQueue) * 1000);
+
+            return !session.stopped || buffer.available() > 0 || queued > 0;
+        }
+
+        private void create() {
+            source = alGenSources();
+            alGenBuffers(buffers);
+            System.arraycopy(buffers, 0, freeBuffers, 0, BUFFER_COUNT);
+            freeCount = BUFFER_COUNT;
+            queued = 0;
+            playing = false;
+            gain = -1f;
+            mono = false;
+        }
+
+        private void reclaim() {
+            var processed = alGetSourcei(source, AL_BUFFERS_PROCESSED);
+            for (int i = 0; i < processed; i++) {
+                freeBuffers[freeCount++] = alSourceUnqueueBuffers(source);
+                queued--;
+            }
+        }
+
+        private void applyParameters() {
+            var gain = stream.getVolume() * categoryVolume(stream.getCategory());
+            if (gain != this.gain) {
+                alSourcef(source, AL_GAIN, gain);
+                this.gain = gain;
+            }
+
+            var position = stream.getPosition();
+            var mono = position != null;
+            if (mono != this.mono) {
+                // all buffers queued on a source must have the same format, drop what was queued in the old one
+                alSourceStop(source);
+                reclaim();
+                playing = false;
+                this.mono = mono;
+            }
+
+            if (position != null) {
+                // the same attenuation the game uses for its own sounds
+                alSourcei(source, AL_SOURCE_RELATIVE, AL_FALSE);
+                alSource3f(source, AL_POSITION, position.x(), position.y(), position.z());
+                alSourcei(source, AL_DISTANCE_MODEL, AL_LINEAR_DISTANCE);
+                alSourcef(source, AL_MAX_DISTANCE, stream.getAttenuation());
+                alSourcef(source, AL_ROLLOFF_FACTOR, 1f);
+                alSourcef(source, AL_REFERENCE_DISTANCE, 0f);
+            } else {
+                alSourcei(source, AL_SOURCE_RELATIVE, AL_TRUE);
+                alSource3f(source, AL_POSITION, 0f, 0f, 0f);
+                alSourcef(source, AL_ROLLOFF_FACTOR, 0f);
+            }
+        }
+
+        /**
+         * Resamples one buffer worth of input and queues it. A stopped stream is flushed with silence
+         * at its end, a running one waits until there is enough input.
+         *
+         * @return false if there was not enough input
+         */
+        private boolean fill(MCEFAudioStream.Session session, int frames, double step) {
+            // count the input frames this buffer consumes, the same way the loop below does
+            var simulated = position;
+            var needed = 0;
+            for (int i = 0; i < frames; i++) {
+                while (simulated >= 1) {
+                    simulated -= 1;
+                    needed++;
+                }
+                simulated += step;
+            }
+
+            var available = session.buffer.available() / 2;
+            if (available < needed && (!session.stopped || available == 0)) {
+                return false;
+            }
+
+            if (input.length < needed * 2) {
+                input = new float[needed * 2];
+            }
+            var read = session.buffer.read(input, 0, needed * 2);
+            Arrays.fill(input, read, needed * 2, 0f);
+
+            var channels = mono ? 1 : 2;
+            if (output == null || output.capacity() < frames * channels) {
+                if (output != null) {
+                    memFree(output);
+                }
+                output = memAllocShort(frames * 2);
+            }
+            output.clear();
+
+            var index = 0;
+            for (int i = 0; i < frames; i++) {
+                while (position >= 1) {
+                    previousLeft = currentLeft;
+                    previousRight = currentRight;
+                    currentLeft = input[index * 2];
+                    currentRight = input[index * 2 + 1];
+                    index++;
+                    position -= 1;
+                }
+
+                var fraction = (float) position;
+                var left = previousLeft + (currentLeft - previousLeft) * fraction;
+                var right = previousRight + (currentRight - previousRight) * fraction;
+                if (mono) {
+                    output.put(toPcm((left + right) * 0.5f));
+                } else {
+                    output.put(toPcm(left));
+                    output.put(toPcm(right));
+                }
+                position += step;
+            }
+            output.flip();
+
+            var target = freeBuffers[--freeCount];
+            alBufferData(target, mono ? AL_FORMAT_MONO16 : AL_FORMAT_STEREO16, output, outputRate);
+            alSourceQueueBuffers(source, target);
+            queued++;
+            return true;
+        }
+
+        /**
+         * Forgets the source after its context was destroyed, it is recreated on the next update.
+         */
+        void invalidate() {
+            source = 0;
+            session = null;
+        }
+
+        void release() {
+            if (source != 0 && ALC10.alcGetCurrentContext() == context) {
+                alSourceStop(source);
+                alDeleteSources(source);
+                alDeleteBuffers(buffers);
+            }
+            source = 0;
+            if (output != null) {
+                memFree(output);
+                output = null;
+            }
+        }
+    }
+}
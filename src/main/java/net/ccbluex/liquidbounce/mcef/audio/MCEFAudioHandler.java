@@ -0,0 +1,80 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.audio;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import net.ccbluex.liquidbounce.mcef.MCEFBrowser;
+import org.cef.browser.CefBrowser;
+import org.cef.handler.CefAudioHandler;
+import org.cef.misc.CefAudioParameters;
+import org.cef.misc.CefChannelLayout;
+import org.cef.misc.DataPointer;
+
+/**
+ * Takes the audio of every {@link MCEFBrowser} whose {@link MCEFAudioStream} is enabled away from Chromium's
+ * own output and into the stream. Installed by the {@link net.ccbluex.liquidbounce.mcef.MCEFClient}.
+ */
+public final class MCEFAudioHandler implements CefAudioHandler {
+    /**
+     * Packets of 10 ms, CEF's default of 1024 frames would add more than 20 ms of latency on its own.
+     */
+    private static final int PACKETS_PER_SECOND = 100;
+
+    @Override
+    public boolean getAudioParameters(CefBrowser browser, CefAudioParameters params) {
+        if (!(browser instanceof MCEFBrowser mcefBrowser) || !mcefBrowser.getAudio().isEnabled()) {
+            // Chromium plays it itself
+            return false;
+        }
+
+        params.channelLayout = CefChannelLayout.CEF_CHANNEL_LAYOUT_STEREO;
+        params.framesPerBuffer = Math.max(128, params.sampleRate / PACKETS_PER_SECOND);
+        return true;
+    }
+
+    @Override
+    public void onAudioStreamStarted(CefBrowser browser, CefAudioParameters params, int channels) {
+        if (browser instanceof MCEFBrowser mcefBrowser) {
+            mcefBrowser.getAudio().start(params.sampleRate, channels);
+        }
+    }
+
+    @Override
+    public void onAudioStreamPacket(CefBrowser browser, DataPointer data, int frames, long pts) {
+        if (browser instanceof MCEFBrowser mcefBrowser) {
+            mcefBrowser.getAudio().write(data.getAddress(), frames);
+        }
+    }
+
+    @Override
+    public void onAudioStreamStopped(CefBrowser browser) {
+        if (browser instanceof MCEFBrowser mcefBrowser) {
+            mcefBrowser.getAudio().stop();
+        }
+    }
+
+    @Override
+    public void onAudioStreamError(CefBrowser browser, String text) {
+        MCEF.INSTANCE.getLogger().warn("Audio stream of {} failed: {}", browser.getURL(), text);
+        onAudioStreamStopped(browser);
+    }
+}
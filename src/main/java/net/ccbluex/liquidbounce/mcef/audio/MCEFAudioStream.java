@@ -0,0 +1,270 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.audio;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import net.ccbluex.liquidbounce.mcef.util.MCEFSampleRingBuffer;
+import net.minecraft.sound.SoundCategory;
+import org.lwjgl.system.Pointer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.system.MemoryUtil.memGetAddress;
+import static org.lwjgl.system.MemoryUtil.memGetFloat;
+
+/**
+ * The audio of one {@link net.ccbluex.liquidbounce.mcef.MCEFBrowser}, played through the game's sound engine.
+ * <p>
+ * CEF hands the PCM of the page to the {@link MCEFAudioHandler}, which writes it into a lock-free
+ * single-producer/single-consumer ring buffer here. The {@link MCEFAudioEngine} thread reads it from there, resamples it and queues it
+ * on an OpenAL source, so neither side ever waits for the other and the game thread is not involved at all.
+ * <p>
+ * The volume follows the game's master volume and the volume of the {@link #setCategory(SoundCategory) category}.
+ * Browsers shown in the world can {@link #setPosition(double, double, double) give their audio a position},
+ * which then fades out with distance like any other sound.
+ */
+public class MCEFAudioStream {
+    private static final int CHANNELS = 2;
+
+    private volatile boolean enabled = MCEF.INSTANCE.getSettings().isGameAudio();
+    private volatile SoundCategory category = SoundCategory.MASTER;
+    private volatile float volume = 1f;
+    private volatile Position position = null;
+    private volatile float attenuation = 16f;
+    private volatile int targetLatency = 40;
+
+    private volatile Session session;
+    // producer only
+    private float[] interleaved = new float[0];
+
+    private final AtomicLong underruns = new AtomicLong();
+    private final AtomicLong overrunFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile double latency = 0;
+
+    /**
+     * Whether audio goes through the game. Only affects streams started afterwards,
+     * CEF decides where a stream goes when the page starts playing.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public SoundCategory getCategory() {
+        return category;
+    }
+
+    /**
+     * The game volume slider the stream follows in addition to the master volume.
+     */
+    public void setCategory(SoundCategory category) {
+        this.category = category;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    public void setVolume(float volume) {
+        this.volume = Math.max(0f, volume);
+    }
+
+    public boolean isPositional() {
+        return position != null;
+    }
+
+    /**
+     * Plays the audio from a point in the world, e.g. the center of the screen the browser is drawn on.
+     * Positional audio is mixed down to mono, OpenAL only spatializes mono sources.
+     */
+    public void setPosition(double x, double y, double z) {
+        position = new Position((float) x, (float) y, (float) z);
+    }
+
+    /**
+     * Plays the audio without a position again, like the game's menu sounds.
+     */
+    public void clearPosition() {
+        position = null;
+    }
+
+    Position getPosition() {
+        return position;
+    }
+
+    public float getAttenuation() {
+        return attenuation;
+    }
+
+    /**
+     * The distance in blocks at which positional audio becomes silent.
+     */
+    public void setAttenuation(float attenuation) {
+        this.attenuation = attenuation;
+    }
+
+    public int getTargetLatency() {
+        return targetLatency;
+    }
+
+    /**
+     * How much audio, in milliseconds, is kept buffered. The playback rate is adjusted slightly to stay close to it,
+     * which keeps the audio in sync with the page instead of drifting when the game stalls.
+     */
+    public void setTargetLatency(int targetLatency) {
+        this.targetLatency = Math.max(10, targetLatency);
+    }
+
+    /**
+     * @return whether the page is currently playing audio
+     */
+    public boolean isPlaying() {
+        var session = this.session;
+        return session != null && !session.stopped;
+    }
+
+    /**
+     * @return how often playback ran dry while the page was playing
+     */
+    public long getUnderrunCount() {
+        return underruns.get();
+    }
+
+    /**
+     * @return frames CEF delivered while the buffer was full, which were lost
+     */
+    public long getOverrunFrames() {
+        return overrunFrames.get();
+    }
+
+    /**
+     * @return frames skipped to get back to the target latency after playback fell far behind
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * @return the time between CEF delivering audio and it being played, in milliseconds
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Called by the {@link MCEFAudioHandler} when the page starts playing.
+     */
+    void start(int sampleRate, int channels) {
+        // one second of audio, the engine drops the oldest samples long before that is reached
+        session = new Session(sampleRate, channels, new MCEFSampleRingBuffer(sampleRate * CHANNELS));
+        MCEFAudioEngine.getInstance().register(this);
+    }
+
+    /**
+     * Called by the {@link MCEFAudioHandler} for every packet, with CEF's planar float samples,
+     * one pointer per channel.
+     */
+    void write(long data, int frames) {
+        var session = this.session;
+        if (session == null || session.stopped || frames <= 0) {
+            return;
+        }
+
+        var length = frames * CHANNELS;
+        if (interleaved.length < length) {
+            interleaved = new float[length];
+        }
+
+        var left = memGetAddress(data);
+        var right = session.channels > 1 ? memGetAddress(data + Pointer.POINTER_SIZE) : left;
+        for (int i = 0; i < frames; i++) {
+            interleaved[i * 2] = memGetFloat(left + i * 4L);
+            interleaved[i * 2 + 1] = memGetFloat(right + i * 4L);
+        }
+
+        var written = session.buffer.write(interleaved, 0, length);
+        if (written < length) {
+            overrunFrames.addAndGet((length - written) / CHANNELS);
+        }
+    }
+
+    /**
+     * Called by the {@link MCEFAudioHandler} when the page stops playing.
+     * What is already buffered still plays.
+     */
+    void stop() {
+        var session = this.session;
+        if (session != null) {
+            session.stopped = true;
+        }
+    }
+
+    /**
+     * Stops playback right away and frees the OpenAL source. Called when the browser is closed.
+     */
+    public void close() {
+        stop();
+        var engine = MCEFAudioEngine.getInstanceIfPresent();
+        if (engine != null) {
+            engine.unregister(this);
+        }
+    }
+
+    Session getSession() {
+        return session;
+    }
+
+    void onUnderrun() {
+        underruns.incrementAndGet();
+    }
+
+    void onDropped(int frames) {
+        droppedFrames.addAndGet(frames);
+    }
+
+    void setLatency(double latency) {
+        this.latency = latency;
+    }
+
+    record Position(float x, float y, float z) {
+    }
+
+    /**
+     * One stream of the page, from CEF starting it to stopping it. Samples are stored as interleaved stereo.
+     */
+    static final class Session {
+        final int sampleRate;
+        final int channels;
+        final MCEFSampleRingBuffer buffer;
+        volatile boolean stopped = false;
+
+        private Session(int sampleRate, int channels, MCEFSampleRingBuffer buffer) {
+            this.sampleRate = sampleRate;
+            this.channels = channels;
+            this.buffer = buffer;
+        }
+    }
+}
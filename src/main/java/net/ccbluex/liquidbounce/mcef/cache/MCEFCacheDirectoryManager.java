@@ -0,0 +1,329 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.cache;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the CEF cache directory ({@link net.ccbluex.liquidbounce.mcef.MCEFSettings#getCacheDirectory()}) bounded.
+ * <p>
+ * Chromium owns the directory while it runs, so nothing in use is ever deleted. {@link #prepare()} runs right
+ * before CEF starts and only does cheap work: it removes lock files left behind by crashed sessions and moves
+ * the components chosen during the previous session into a trash directory. {@link #scanAsync()} then runs in the
+ * background: it empties the trash, measures every component and picks the ones to prune at the next start,
+ * oldest and largest first, until the directory fits the size limit.
+ * <p>
+ * Only components Chromium regenerates on its own are pruned, never cookies or local storage. The HTTP cache
+ * itself is also bounded by Chromium through {@code --disk-cache-size}, see {@link #getHttpCacheSize()}.
+ * Chromium does not expose hit counts for its cache, so only sizes are reported.
+ */
+public class MCEFCacheDirectoryManager {
+    private static final String PRUNE_LIST = "mcef-prune.txt";
+    private static final String TRASH_PREFIX = "mcef-trash-";
+
+    /**
+     * Top-level components that only contain caches, in the order they are given up.
+     */
+    private static final List<String> REGENERABLE = List.of(
+            "Crashpad", "GPUCache", "GrShaderCache", "ShaderCache", "DawnCache", "DawnGraphiteCache",
+            "Code Cache", "Cache"
+    );
+    /**
+     * The lock comes first, the socket and cookie links only go once it is gone.
+     */
+    private static final List<String> LOCK_FILES = List.of("SingletonLock", "SingletonSocket", "SingletonCookie", "lockfile");
+
+    private final Path directory;
+    private final long sizeLimit;
+    private final Duration maxAge;
+
+    private volatile Map<String, Long> componentSizes = Map.of();
+    private volatile long totalSize = -1;
+    private volatile long reclaimed = 0;
+    private volatile List<String> scheduled = List.of();
+
+    public MCEFCacheDirectoryManager(Path directory, long sizeLimit, Duration maxAge) {
+        this.directory = directory;
+        this.sizeLimit = sizeLimit;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * The limit handed to Chromium for its HTTP cache, the rest of the budget is left for the other components.
+     */
+    public long getHttpCacheSize() {
+        return sizeLimit / 2;
+    }
+
+    /**
+     * Prepares the directory for CEF. Must run before CEF starts, finishes in milliseconds.
+     */
+    public void prepare() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        for (var name : LOCK_FILES) {
+            removeStaleLock(directory.resolve(name));
+        }
+
+        var pruneList = directory.resolve(PRUNE_LIST);
+        if (!Files.exists(pruneList)) {
+            return;
+        }
+
+        try {
+            var trash = directory.resolve(TRASH_PREFIX + System.currentTimeMillis());
+            for (var name : Files.readAllLines(pruneList)) {
+                if (!REGENERABLE.contains(name)) {
+                    continue;
+                }
+
+                var component = directory.resolve(name);
+                if (Files.exists(component, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.createDirectories(trash);
+                    // a rename is instant, the actual deletion happens in the background
+                    Files.move(component, trash.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            Files.delete(pruneList);
+        } catch (IOException e) {
+            MCEF.INSTANCE.getLogger().warn("Failed to prune cache directory {}", directory, e);
+        }
+    }
+
+    /**
+     * Chromium refuses to use a directory that looks like it is in use by another process, which is what
+     * the lock files of a crashed session claim. On Linux and macOS the lock is a symlink to {@code host-pid},
+     * on Windows it is a file that cannot be deleted while its owner runs.
+     */
+    private void removeStaleLock(Path lock) {
+        if (!Files.exists(lock, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        try {
+            var name = lock.getFileName().toString();
+            if (name.equals("SingletonLock")) {
+                var target = Files.readSymbolicLink(lock).toString();
+                var separator = target.lastIndexOf('-');
+                if (separator == -1 || !target.substring(0, separator).equals(InetAddress.getLocalHost().getHostName())) {
+                    // held by another machine sharing the directory, not ours to judge
+                    return;
+                }
+
+                var pid = Long.parseLong(target.substring(separator + 1));
+                if (ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+                    return;
+                }
+            } else if (name.startsWith("Singleton") && Files.exists(directory.resolve("SingletonLock"), LinkOption.NOFOLLOW_LINKS)) {
+                return;
+            }
+
+            Files.delete(lock);
+            MCEF.INSTANCE.getLogger().info("Removed stale cache lock {}", lock);
+        } catch (IOException | NumberFormatException | UnsupportedOperationException e) {
+            MCEF.INSTANCE.getLogger().debug("Keeping cache lock {}", lock, e);
+        }
+    }
+
+    /**
+     * Empties the trash and measures the directory on a background thread.
+     */
+    public CompletableFuture<Void> scanAsync() {
+        return CompletableFuture.runAsync(this::scan, runnable -> {
+            var thread = new Thread(runnable, "MCEF-CacheScan");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        });
+    }
+
+    private void scan() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        var sizes = new LinkedHashMap<String, Long>();
+        var lastModified = new LinkedHashMap<String, Long>();
+        long total = 0;
+        long freed = 0;
+
+        try (var children = Files.list(directory)) {
+            for (var child : (Iterable<Path>) children::iterator) {
+                var name = child.getFileName().toString();
+                if (name.startsWith(TRASH_PREFIX)) {
+                    freed += delete(child);
+                    continue;
+                }
+
+                var usage = measure(child);
+                sizes.put(name, usage[0]);
+                lastModified.put(name, usage[1]);
+                total += usage[0];
+            }
+        } catch (IOException e) {
+            MCEF.INSTANCE.getLogger().warn("Failed to scan cache directory {}", directory, e);
+            return;
+        }
+
+        componentSizes = Collections.unmodifiableMap(sizes);
+        totalSize = total;
+        reclaimed = freed;
+        scheduled = choosePrunable(sizes, lastModified, total);
+
+        if (!scheduled.isEmpty()) {
+            try {
+                Files.write(directory.resolve(PRUNE_LIST), scheduled);
+            } catch (IOException e) {
+                MCEF.INSTANCE.getLogger().warn("Failed to schedule cache pruning", e);
+            }
+        }
+
+        MCEF.INSTANCE.getLogger().info("Browser cache uses {} MB, freed {} MB, pruning {} on next start",
+                total >> 20, freed >> 20, scheduled.isEmpty() ? "nothing" : scheduled);
+    }
+
+    private List<String> choosePrunable(Map<String, Long> sizes, Map<String, Long> lastModified, long total) {
+        var now = System.currentTimeMillis();
+        var prunable = new ArrayList<String>();
+
+        for (var name : REGENERABLE) {
+            var modified = lastModified.get(name);
+            if (modified != null && now - modified > maxAge.toMillis()) {
+                prunable.add(name);
+                total -= sizes.get(name);
+            }
+        }
+
+        var candidates = new ArrayList<>(REGENERABLE);
+        candidates.removeIf(name -> !sizes.containsKey(name) || prunable.contains(name));
+        candidates.sort(Comparator.comparingLong((String name) -> sizes.get(name)).reversed());
+        for (var name : candidates) {
+            if (total <= sizeLimit) {
+                break;
+            }
+            prunable.add(name);
+            total -= sizes.get(name);
+        }
+
+        return prunable;
+    }
+
+    /**
+     * @return size in bytes and the newest modification time of everything below the path
+     */
+    private static long[] measure(Path path) throws IOException {
+        var usage = new long[2];
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                usage[0] += attributes.size();
+                usage[1] = Math.max(usage[1], attributes.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return usage;
+    }
+
+    private static long delete(Path path) {
+        var freed = new long[1];
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                    Files.delete(file);
+                    freed[0] += attributes.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            MCEF.INSTANCE.getLogger().warn("Failed to delete {}", path, e);
+        }
+        return freed[0];
+    }
+
+    /**
+     * @return the size of the directory in bytes as of the last scan, or -1 before the first scan finished
+     */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * @return the size of every top-level component as of the last scan
+     */
+    public Map<String, Long> getComponentSizes() {
+        return componentSizes;
+    }
+
+    /**
+     * @return bytes freed by the last scan, from components pruned at startup
+     */
+    public long getReclaimed() {
+        return reclaimed;
+    }
+
+    /**
+     * @return the components that will be pruned on the next start
+     */
+    public List<String> getScheduledForPruning() {
+        return scheduled;
+    }
+
+    public long getSizeLimit() {
+        return sizeLimit;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+}
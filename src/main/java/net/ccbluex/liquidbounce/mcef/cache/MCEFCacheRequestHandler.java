@@ -0,0 +1,117 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.cache;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefCallback;
+import org.cef.handler.CefRequestHandlerAdapter;
+import org.cef.handler.CefResourceHandler;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.handler.CefResourceRequestHandler;
+import org.cef.handler.CefResourceRequestHandlerAdapter;
+import org.cef.misc.BoolRef;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Answers GET requests for URLs matched by a {@link MCEFResourceCache} from the cache.
+ */
+final class MCEFCacheRequestHandler extends CefRequestHandlerAdapter {
+    private final MCEFResourceCache cache;
+    private final CefResourceRequestHandler resourceRequestHandler = new CefResourceRequestHandlerAdapter() {
+        @Override
+        public CefResourceHandler getResourceHandler(CefBrowser browser, CefFrame frame, CefRequest request) {
+            return new ResourceHandler();
+        }
+    };
+
+    MCEFCacheRequestHandler(MCEFResourceCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public CefResourceRequestHandler getResourceRequestHandler(CefBrowser browser, CefFrame frame, CefRequest request,
+                                                               boolean isNavigation, boolean isDownload,
+                                                               String requestInitiator, BoolRef disableDefaultHandling) {
+        if (isDownload || !"GET".equals(request.getMethod()) || request.getHeaderByName("Range") != null) {
+            return null;
+        }
+
+        return cache.matches(request.getURL()) ? resourceRequestHandler : null;
+    }
+
+    private final class ResourceHandler extends CefResourceHandlerAdapter {
+        private volatile MCEFCachedResource resource;
+        private ByteBuffer remaining;
+
+        @Override
+        public boolean processRequest(CefRequest request, CefCallback callback) {
+            var url = request.getURL();
+            cache.get(url).whenComplete((resource, throwable) -> {
+                if (throwable != null) {
+                    MCEF.INSTANCE.getLogger().debug("Failed to load cached resource {}", url, throwable);
+                    callback.cancel();
+                    return;
+                }
+
+                this.resource = resource;
+                callback.Continue();
+            });
+            return true;
+        }
+
+        @Override
+        public void getResponseHeaders(CefResponse response, IntRef responseLength, StringRef redirectUrl) {
+            var resource = this.resource;
+            response.setStatus(resource.status());
+            response.setMimeType(resource.mimeType());
+            resource.headers().forEach((name, value) -> response.setHeaderByName(name, value, true));
+
+            remaining = resource.body().duplicate();
+            responseLength.set(remaining.remaining());
+        }
+
+        @Override
+        public boolean readResponse(byte[] dataOut, int bytesToRead, IntRef bytesRead, CefCallback callback) {
+            if (remaining == null || !remaining.hasRemaining()) {
+                bytesRead.set(0);
+                return false;
+            }
+
+            var length = Math.min(bytesToRead, remaining.remaining());
+            remaining.get(dataOut, 0, length);
+            bytesRead.set(length);
+            return true;
+        }
+
+        @Override
+        public void cancel() {
+            remaining = null;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A response held by the {@link MCEFResourceCache}.
+ * <p>
+ * The body is either a heap buffer or a read-only slice of a memory-mapped disk entry; it is never
+ * modified, so readers must work on a {@link ByteBuffer#duplicate()} of it.
+ *
+ * @param headers   response headers worth passing on to the browser, see {@link MCEFResourceCache#FORWARDED_HEADERS}
+ * @param fetchedAt epoch millis of the last successful fetch or revalidation
+ * @param expiresAt epoch millis after which the resource is stale
+ */
+public record MCEFCachedResource(String url, int status, String mimeType, Map<String, String> headers,
+                                 ByteBuffer body, long fetchedAt, long expiresAt) {
+
+    public String etag() {
+        return headers.get("ETag");
+    }
+
+    public String lastModified() {
+        return headers.get("Last-Modified");
+    }
+
+    public int size() {
+        return body.remaining();
+    }
+
+    public boolean isFresh(long now) {
+        return now < expiresAt;
+    }
+
+    public MCEFCachedResource withExpiry(long fetchedAt, long expiresAt) {
+        return new MCEFCachedResource(url, status, mimeType, headers, body, fetchedAt, expiresAt);
+    }
+}
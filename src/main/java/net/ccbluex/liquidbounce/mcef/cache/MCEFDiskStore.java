@@ -0,0 +1,261 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.cache;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The disk tier of the {@link MCEFResourceCache}.
+ * <p>
+ * Every resource is one file, named after the SHA-256 of its URL: a small header with the metadata
+ * followed by the body. Bodies are memory-mapped when read, so serving them never copies the file
+ * onto the heap first. Entries are written to a temporary file and moved into place, so readers never
+ * see a half-written entry.
+ */
+class MCEFDiskStore {
+    private static final int MAGIC = 0x4D434546; // MCEF
+    private static final int VERSION = 1;
+    private static final String EXTENSION = ".res";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final File directory;
+    private final long limit;
+    private final Map<String, EntryInfo> index = new ConcurrentHashMap<>();
+    private long size = 0;
+
+    MCEFDiskStore(File directory, long limit) {
+        this.directory = directory;
+        this.limit = limit;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            MCEF.INSTANCE.getLogger().warn("Failed to create resource cache directory {}", directory);
+        }
+
+        // left behind by writes that failed halfway, e.g. on a full disk
+        var temps = directory.listFiles((dir, name) -> name.endsWith(TEMP_EXTENSION));
+        if (temps != null) {
+            for (var temp : temps) {
+                if (!temp.delete()) {
+                    MCEF.INSTANCE.getLogger().warn("Failed to delete stale cache file {}", temp);
+                }
+            }
+        }
+
+        var files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files != null) {
+            for (var file : files) {
+                var key = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+                index.put(key, new EntryInfo(file.length(), file.lastModified()));
+                size += file.length();
+            }
+        }
+    }
+
+    MCEFCachedResource read(String url) {
+        var key = keyOf(url);
+        var info = index.get(key);
+        if (info == null) {
+            return null;
+        }
+
+        try (var channel = FileChannel.open(fileOf(key), StandardOpenOption.READ)) {
+            var prefix = readFully(channel, ByteBuffer.allocate(12)).flip();
+            if (prefix.remaining() < 12 || prefix.getInt() != MAGIC || prefix.getInt() != VERSION) {
+                remove(key);
+                return null;
+            }
+
+            var fileSize = channel.size();
+            var headerLength = prefix.getInt();
+            if (headerLength < 0 || 12L + headerLength > fileSize) {
+                // truncated or corrupt
+                remove(key);
+                return null;
+            }
+            var header = readFully(channel, ByteBuffer.allocate(headerLength));
+
+            var in = new DataInputStream(new ByteArrayInputStream(header.array()));
+            var storedUrl = in.readUTF();
+            if (!storedUrl.equals(url)) {
+                // hash collision, treat as a miss
+                return null;
+            }
+
+            var status = in.readInt();
+            var mimeType = in.readUTF();
+            var fetchedAt = in.readLong();
+            var expiresAt = in.readLong();
+            var headerCount = in.readInt();
+            var headers = new LinkedHashMap<String, String>();
+            for (int i = 0; i < headerCount; i++) {
+                headers.put(in.readUTF(), in.readUTF());
+            }
+            var bodyLength = in.readInt();
+            if (bodyLength < 0 || 12L + headerLength + bodyLength > fileSize) {
+                remove(key);
+                return null;
+            }
+
+            // the mapping stays valid after the channel is closed
+            var body = channel.map(FileChannel.MapMode.READ_ONLY, 12 + headerLength, bodyLength);
+            info.lastAccess = System.currentTimeMillis();
+
+            return new MCEFCachedResource(url, status, mimeType, headers, body.asReadOnlyBuffer(), fetchedAt, expiresAt);
+        } catch (IOException e) {
+            MCEF.INSTANCE.getLogger().warn("Failed to read cached resource {}", url, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    void write(MCEFCachedResource resource) {
+        var key = keyOf(resource.url());
+
+        try {
+            var header = new ByteArrayOutputStream();
+            var out = new DataOutputStream(header);
+            out.writeUTF(resource.url());
+            out.writeInt(resource.status());
+            out.writeUTF(resource.mimeType());
+            out.writeLong(resource.fetchedAt());
+            out.writeLong(resource.expiresAt());
+            out.writeInt(resource.headers().size());
+            for (var entry : resource.headers().entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+            out.writeInt(resource.size());
+            out.flush();
+
+            var prefix = ByteBuffer.allocate(12).putInt(MAGIC).putInt(VERSION).putInt(header.size()).flip();
+            var temp = Files.createTempFile(directory.toPath(), key, TEMP_EXTENSION);
+            try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                var body = resource.body().duplicate();
+                var buffers = new ByteBuffer[]{prefix, ByteBuffer.wrap(header.toByteArray()), body};
+                while (body.hasRemaining()) {
+                    channel.write(buffers);
+                }
+            } catch (IOException e) {
+                // e.g. the disk is full, the temp file would never be cleaned up otherwise
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            try {
+                Files.move(temp, fileOf(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Windows refuses to replace files that are still mapped, keep the old entry
+                Files.deleteIfExists(temp);
+                return;
+            }
+
+            var length = 12L + header.size() + resource.size();
+            var previous = index.put(key, new EntryInfo(length, System.currentTimeMillis()));
+            synchronized (this) {
+                size += length - (previous != null ? previous.size : 0);
+            }
+            trim();
+        } catch (IOException e) {
+            MCEF.INSTANCE.getLogger().warn("Failed to write cached resource {}", resource.url(), e);
+        }
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    private synchronized void trim() {
+        if (size <= limit) {
+            return;
+        }
+
+        var entries = index.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().lastAccess))
+                .toList();
+        for (var entry : entries) {
+            if (size <= limit) {
+                break;
+            }
+            remove(entry.getKey());
+        }
+    }
+
+    private synchronized void remove(String key) {
+        var info = index.remove(key);
+        if (info == null) {
+            return;
+        }
+
+        size -= info.size;
+        try {
+            Files.deleteIfExists(fileOf(key));
+        } catch (IOException e) {
+            // still mapped somewhere, it will be overwritten or trimmed on a later run
+            fileOf(key).toFile().deleteOnExit();
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                break;
+            }
+        }
+        return buffer;
+    }
+
+    private Path fileOf(String key) {
+        return new File(directory, key + EXTENSION).toPath();
+    }
+
+    private static String keyOf(String url) {
+        return DigestUtils.sha256Hex(url);
+    }
+
+    private static final class EntryInfo {
+        private final long size;
+        private volatile long lastAccess;
+
+        private EntryInfo(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
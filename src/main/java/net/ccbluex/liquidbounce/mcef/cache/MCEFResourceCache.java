@@ -0,0 +1,389 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.cache;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import net.ccbluex.liquidbounce.mcef.util.MCEFSingleFlight;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.cef.handler.CefRequestHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * A two-tier cache for remotely hosted browser resources, in front of Chromium's own HTTP cache.
+ * <p>
+ * Requests for URLs matching one of the configured patterns are served from a bounded in-memory LRU,
+ * then from a memory-mapped {@link MCEFDiskStore}, and only go to the network on a miss. Stale resources
+ * within the stale-while-revalidate window are served immediately while a conditional request refreshes
+ * them in the background; if the network is unavailable, stale resources are served regardless.
+ * <p>
+ * Resources are fetched by MCEF and not by Chromium, so cookies and credentials of the page are not sent.
+ * Only use patterns for static assets. Installed with {@link net.ccbluex.liquidbounce.mcef.MCEFClient#addRequestHandler(CefRequestHandler)}
+ * and {@link #createRequestHandler()}.
+ */
+public class MCEFResourceCache {
+    /**
+     * Response headers that are stored and passed on to the browser, everything else is dropped.
+     */
+    public static final List<String> FORWARDED_HEADERS = List.of(
+            "ETag", "Last-Modified", "Access-Control-Allow-Origin", "Content-Language"
+    );
+
+    private final List<Pattern> patterns = new CopyOnWriteArrayList<>();
+    private final MemoryTier memory = new MemoryTier();
+    private final MCEFDiskStore disk;
+    private final Fetcher fetcher;
+    private final MCEFSingleFlight<String, MCEFCachedResource> inFlight = new MCEFSingleFlight<>();
+    private final ExecutorService executor;
+
+    private volatile Duration defaultTtl = Duration.ofMinutes(5);
+    private volatile Duration staleWhileRevalidate = Duration.ofDays(7);
+    private volatile int maxMemoryEntrySize = 4 * 1024 * 1024;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder fetchErrors = new LongAdder();
+
+    /**
+     * @param directory the disk tier, or null to only cache in memory
+     * @param diskLimit the maximum size of the disk tier in bytes
+     */
+    public MCEFResourceCache(File directory, long diskLimit) {
+        this(directory, diskLimit, Fetcher.okHttp(new OkHttpClient.Builder()
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .build()));
+    }
+
+    /**
+     * @param fetcher used for all network access, e.g. pointed at a local stand-in server in tests
+     */
+    public MCEFResourceCache(File directory, long diskLimit, Fetcher fetcher) {
+        this.disk = directory != null ? new MCEFDiskStore(directory, diskLimit) : null;
+        this.fetcher = fetcher;
+
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(4, runnable -> {
+            var thread = new Thread(runnable, "MCEF-Cache-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Caches every URL matching the given regular expression.
+     */
+    public void addPattern(String regex) {
+        patterns.add(Pattern.compile(regex));
+    }
+
+    public void setMemoryLimit(long bytes) {
+        memory.setLimit(bytes);
+    }
+
+    /**
+     * Resources larger than this only go to the disk tier.
+     */
+    public void setMaxMemoryEntrySize(int bytes) {
+        this.maxMemoryEntrySize = bytes;
+    }
+
+    /**
+     * How long resources without a Cache-Control max-age stay fresh.
+     */
+    public void setDefaultTtl(Duration defaultTtl) {
+        this.defaultTtl = defaultTtl;
+    }
+
+    /**
+     * How long after expiring a resource is still served while it is refreshed in the background.
+     */
+    public void setStaleWhileRevalidate(Duration staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    public boolean matches(String url) {
+        for (var pattern : patterns) {
+            if (pattern.matcher(url).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public CefRequestHandler createRequestHandler() {
+        return new MCEFCacheRequestHandler(this);
+    }
+
+    /**
+     * Looks up a resource, fetching it if needed. Completes right away on a fresh or revalidatable hit.
+     */
+    public CompletableFuture<MCEFCachedResource> get(String url) {
+        var now = System.currentTimeMillis();
+        var resource = memory.get(url);
+
+        if (resource != null) {
+            memoryHits.increment();
+        } else if (disk != null && (resource = disk.read(url)) != null) {
+            diskHits.increment();
+            memory.put(resource, maxMemoryEntrySize);
+        }
+
+        if (resource == null) {
+            misses.increment();
+            return fetch(url, null);
+        }
+
+        if (resource.isFresh(now)) {
+            return CompletableFuture.completedFuture(resource);
+        }
+
+        if (now < resource.expiresAt() + staleWhileRevalidate.toMillis()) {
+            staleHits.increment();
+            fetch(url, resource);
+            return CompletableFuture.completedFuture(resource);
+        }
+
+        // too old to serve without asking, but still better than nothing if the network is down
+        return fetch(url, resource);
+    }
+
+    private CompletableFuture<MCEFCachedResource> fetch(String url, MCEFCachedResource previous) {
+        return inFlight.run(url, () -> CompletableFuture.supplyAsync(() -> load(url, previous), executor));
+    }
+
+    private MCEFCachedResource load(String url, MCEFCachedResource previous) {
+        var requestHeaders = new LinkedHashMap<String, String>();
+        if (previous != null) {
+            revalidations.increment();
+            if (previous.etag() != null) requestHeaders.put("If-None-Match", previous.etag());
+            if (previous.lastModified() != null) requestHeaders.put("If-Modified-Since", previous.lastModified());
+        }
+
+        Fetcher.Response response;
+        try {
+            response = fetcher.fetch(url, requestHeaders);
+        } catch (IOException e) {
+            fetchErrors.increment();
+            if (previous != null) {
+                MCEF.INSTANCE.getLogger().debug("Serving stale {} after fetch failure", url, e);
+                return previous;
+            }
+            throw new RuntimeException("Failed to fetch " + url, e);
+        }
+
+        var now = System.currentTimeMillis();
+        var cacheControl = response.header("Cache-Control");
+        var expiresAt = now + maxAgeOf(cacheControl);
+
+        if (response.status() == 304 && previous != null) {
+            var refreshed = previous.withExpiry(now, expiresAt);
+            store(refreshed);
+            return refreshed;
+        }
+
+        var headers = new LinkedHashMap<String, String>();
+        for (var name : FORWARDED_HEADERS) {
+            var value = response.header(name);
+            if (value != null) headers.put(name, value);
+        }
+
+        var resource = new MCEFCachedResource(url, response.status(), response.mimeType(), headers,
+                ByteBuffer.wrap(response.body()).asReadOnlyBuffer(), now, expiresAt);
+
+        if (response.status() >= 200 && response.status() < 300) {
+            if (cacheControl == null || !cacheControl.toLowerCase(Locale.ROOT).contains("no-store")) {
+                store(resource);
+            }
+        } else if (previous != null && response.status() >= 500) {
+            // the origin is having a bad day, stick with what we have
+            fetchErrors.increment();
+            return previous;
+        }
+
+        return resource;
+    }
+
+    private void store(MCEFCachedResource resource) {
+        memory.put(resource, maxMemoryEntrySize);
+        if (disk != null) {
+            disk.write(resource);
+        }
+    }
+
+    private long maxAgeOf(String cacheControl) {
+        if (cacheControl != null) {
+            for (var directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.ROOT);
+                if (directive.equals("no-cache")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return Long.parseLong(directive.substring(8)) * 1000L;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+
+        return defaultTtl.toMillis();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return hits on expired resources that were served while being revalidated
+     */
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    public long getFetchErrors() {
+        return fetchErrors.sum();
+    }
+
+    public long getMemorySize() {
+        return memory.size();
+    }
+
+    public long getDiskSize() {
+        return disk != null ? disk.size() : 0;
+    }
+
+    /**
+     * Network access of the cache. The default implementation uses OkHttp.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+        Response fetch(String url, Map<String, String> headers) throws IOException;
+
+        record Response(int status, String mimeType, Map<String, String> headers, byte[] body) {
+            public String header(String name) {
+                for (var entry : headers.entrySet()) {
+                    if (entry.getKey().equalsIgnoreCase(name)) {
+                        return entry.getValue();
+                    }
+                }
+                return null;
+            }
+        }
+
+        static Fetcher okHttp(OkHttpClient client) {
+            return (url, headers) -> {
+                var builder = new Request.Builder().url(url);
+                headers.forEach(builder::header);
+
+                try (var response = client.newCall(builder.build()).execute()) {
+                    var responseHeaders = new LinkedHashMap<String, String>();
+                    for (var name : response.headers().names()) {
+                        responseHeaders.put(name, response.header(name));
+                    }
+
+                    var body = response.body();
+                    var contentType = body.contentType();
+                    var mimeType = contentType != null
+                            ? contentType.type() + "/" + contentType.subtype()
+                            : "application/octet-stream";
+                    return new Response(response.code(), mimeType, responseHeaders, body.bytes());
+                }
+            };
+        }
+    }
+
+    /**
+     * LRU over the total body size of its entries.
+     */
+    private static final class MemoryTier {
+        private final LinkedHashMap<String, MCEFCachedResource> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long limit = 64L * 1024 * 1024;
+        private long size = 0;
+
+        synchronized MCEFCachedResource get(String url) {
+            return entries.get(url);
+        }
+
+        synchronized void put(MCEFCachedResource resource, int maxEntrySize) {
+            var previous = entries.remove(resource.url());
+            if (previous != null) {
+                size -= previous.size();
+            }
+
+            if (resource.size() > maxEntrySize) {
+                return;
+            }
+
+            entries.put(resource.url(), resource);
+            size += resource.size();
+            trim();
+        }
+
+        synchronized void setLimit(long limit) {
+            this.limit = limit;
+            trim();
+        }
+
+        synchronized long size() {
+            return size;
+        }
+
+        private void trim() {
+            var iterator = entries.values().iterator();
+            while (size > limit && iterator.hasNext()) {
+                size -= iterator.next().size();
+                iterator.remove();
+            }
+        }
+    }
+}
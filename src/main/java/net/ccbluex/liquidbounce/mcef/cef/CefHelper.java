@@ -23,15 +23,21 @@ package net.ccbluex.liquidbounce.mcef.cef;
 
 import net.ccbluex.liquidbounce.mcef.MCEF;
 import net.ccbluex.liquidbounce.mcef.MCEFPlatform;
+import net.ccbluex.liquidbounce.mcef.MCEFSettings;
+import net.ccbluex.liquidbounce.mcef.cache.MCEFCacheDirectoryManager;
 import org.cef.CefApp;
 import org.cef.CefClient;
 import org.cef.CefSettings;
+import org.cef.callback.CefSchemeRegistrar;
+import org.cef.handler.CefAppHandlerAdapter;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -45,6 +51,9 @@ public final class CefHelper {
     private static boolean initialized;
     private static CefApp cefAppInstance;
     private static CefClient cefClientInstance;
+    private static MCEFCacheDirectoryManager cacheDirectoryManager;
+    private static String[] preparedSwitches;
+    private static CefSettings preparedSettings;
 
     private static void setUnixExecutable(File file) {
         Set<PosixFilePermission> perms = new HashSet<>();
@@ -60,6 +69,16 @@ public final class CefHelper {
     }
 
     public static boolean init() {
+        return prepare() && start();
+    }
+
+    /**
+     * Checks the natives and starts the CEF processes. Can run on any thread, CEF itself is only initialized
+     * by {@link #start()}.
+     *
+     * @return false if CEF could not be started
+     */
+    public static boolean prepare() {
         var platform = MCEFPlatform.getPlatform();
         var natives = platform.requiredLibraries();
         var settings = MCEF.INSTANCE.getSettings();
@@ -80,7 +99,16 @@ public final class CefHelper {
             setUnixExecutable(jcefHelperRendererFile);
         }
 
-        var cefSwitches = settings.getCefSwitches().toArray(new String[0]);
+        var switches = new ArrayList<>(settings.getCefSwitches());
+        if (settings.getCacheDirectory() != null) {
+            cacheDirectoryManager = new MCEFCacheDirectoryManager(settings.getCacheDirectory().toPath(),
+                    settings.getCacheSizeLimit(), settings.getCacheMaxAge());
+            // cheap, the slow part runs in the background once CEF is up
+            cacheDirectoryManager.prepare();
+            switches.add("--disk-cache-size=" + cacheDirectoryManager.getHttpCacheSize());
+        }
+        addProcessModelSwitches(switches, settings);
+        var cefSwitches = switches.toArray(new String[0]);
 
         for (var nativeLibrary : natives) {
             var nativeFile = new File(platformDirectory, nativeLibrary);
@@ -109,12 +137,75 @@ public final class CefHelper {
             cefSettings.user_agent_product = "MCEF/2";
         }
 
-        cefAppInstance = CefApp.getInstance(cefSwitches, cefSettings);
+        var customSchemes = List.copyOf(settings.getCustomSchemes());
+        CefApp.addAppHandler(new CefAppHandlerAdapter(cefSwitches) {
+            @Override
+            public void onRegisterCustomSchemes(CefSchemeRegistrar registrar) {
+                for (var scheme : customSchemes) {
+                    // standard, secure, CORS and fetch enabled, so pages behave like they would over https
+                    registrar.addCustomScheme(scheme, true, false, false, true, true, false, true);
+                }
+            }
+        });
+
+        preparedSwitches = cefSwitches;
+        preparedSettings = cefSettings;
+        return true;
+    }
+
+    /**
+     * Initializes CEF after {@link #prepare()}. Must run on the thread that pumps the CEF message loop,
+     * which is the render thread, since browsers paint with GL calls directly.
+     */
+    public static boolean start() {
+        if (preparedSettings == null) {
+            throw new IllegalStateException("CEF was not prepared");
+        }
+
+        cefAppInstance = CefApp.getInstance(preparedSwitches, preparedSettings);
         cefClientInstance = cefAppInstance.createClient();
+        preparedSwitches = null;
+        preparedSettings = null;
 
         return initialized = true;
     }
 
+    private static void addProcessModelSwitches(List<String> switches, MCEFSettings settings) {
+        var rendererProcessLimit = settings.getRendererProcessLimit();
+        switch (settings.getProcessModel()) {
+            case PROCESS_PER_SITE -> switches.add("--process-per-site");
+            case SHARED -> {
+                switches.add("--disable-site-isolation-trials");
+                if (rendererProcessLimit <= 0) {
+                    rendererProcessLimit = 1;
+                }
+            }
+            case DEFAULT -> {
+            }
+        }
+
+        if (rendererProcessLimit > 0) {
+            switches.add("--renderer-process-limit=" + rendererProcessLimit);
+        }
+        if (settings.getV8HeapLimit() > 0) {
+            addJsFlag(switches, "--max-old-space-size=" + settings.getV8HeapLimit());
+        }
+    }
+
+    /**
+     * Chromium only reads the last --js-flags switch, so flags are appended to an existing one.
+     */
+    private static void addJsFlag(List<String> switches, String flag) {
+        for (int i = switches.size() - 1; i >= 0; i--) {
+            var cefSwitch = switches.get(i);
+            if (cefSwitch.startsWith("--js-flags=")) {
+                switches.set(i, cefSwitch + " " + flag);
+                return;
+            }
+        }
+        switches.add("--js-flags=" + flag);
+    }
+
     public static void shutdown() {
         if (isInitialized()) {
             initialized = false;
@@ -144,4 +235,11 @@ public final class CefHelper {
     public static CefClient getCefClient() {
         return cefClientInstance;
     }
+
+    /**
+     * @return the manager of the cache directory, or null if no cache directory is set
+     */
+    public static MCEFCacheDirectoryManager getCacheDirectoryManager() {
+        return cacheDirectoryManager;
+    }
 }
@@ -0,0 +1,123 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.channel;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonPrimitive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Structural diff of two JSON trees, producing the ops understood by the page side of {@link MCEFStateSync}.
+ * <p>
+ * Objects are compared key by key and arrays index by index, so a changed leaf produces a single op with its
+ * path instead of a copy of the whole tree. Arrays that changed length are truncated or appended to.
+ */
+public final class MCEFJsonDiff {
+    static final int SET = 0;
+    static final int DELETE = 1;
+    static final int TRUNCATE = 2;
+
+    private MCEFJsonDiff() {
+    }
+
+    /**
+     * @return the ops turning {@code before} into {@code after}, empty if they are equal
+     */
+    public static JsonArray diff(JsonElement before, JsonElement after) {
+        var ops = new JsonArray();
+        diff(before, after, new ArrayList<>(), ops);
+        return ops;
+    }
+
+    private static void diff(JsonElement before, JsonElement after, List<JsonPrimitive> path, JsonArray ops) {
+        if (before == null) before = JsonNull.INSTANCE;
+        if (after == null) after = JsonNull.INSTANCE;
+
+        if (before.isJsonObject() && after.isJsonObject()) {
+            var beforeObject = before.getAsJsonObject();
+            var afterObject = after.getAsJsonObject();
+
+            for (var key : beforeObject.keySet()) {
+                if (!afterObject.has(key)) {
+                    ops.add(op(DELETE, path, new JsonPrimitive(key), null));
+                }
+            }
+
+            for (var entry : afterObject.entrySet()) {
+                var key = new JsonPrimitive(entry.getKey());
+                var previous = beforeObject.get(entry.getKey());
+                if (previous == null) {
+                    ops.add(op(SET, path, key, entry.getValue()));
+                } else {
+                    path.add(key);
+                    diff(previous, entry.getValue(), path, ops);
+                    path.remove(path.size() - 1);
+                }
+            }
+        } else if (before.isJsonArray() && after.isJsonArray()) {
+            var beforeArray = before.getAsJsonArray();
+            var afterArray = after.getAsJsonArray();
+            var common = Math.min(beforeArray.size(), afterArray.size());
+
+            for (int i = 0; i < common; i++) {
+                path.add(new JsonPrimitive(i));
+                diff(beforeArray.get(i), afterArray.get(i), path, ops);
+                path.remove(path.size() - 1);
+            }
+
+            if (afterArray.size() < beforeArray.size()) {
+                ops.add(op(TRUNCATE, path, null, new JsonPrimitive(afterArray.size())));
+            }
+            for (int i = common; i < afterArray.size(); i++) {
+                ops.add(op(SET, path, new JsonPrimitive(i), afterArray.get(i)));
+            }
+        } else if (!before.equals(after)) {
+            // leaf changed or the type differs, replace it as a whole
+            ops.add(op(SET, path, null, after));
+        }
+    }
+
+    /**
+     * @param last appended to the path if not null, so leaf ops do not need to copy the path list first
+     */
+    private static JsonArray op(int kind, List<JsonPrimitive> path, JsonPrimitive last, JsonElement value) {
+        var opPath = new JsonArray(path.size() + 1);
+        for (var segment : path) {
+            opPath.add(segment);
+        }
+        if (last != null) {
+            opPath.add(last);
+        }
+
+        var op = new JsonArray(3);
+        op.add(kind);
+        op.add(opPath);
+        if (kind != DELETE) {
+            op.add(value != null ? value : JsonNull.INSTANCE);
+        }
+        return op;
+    }
+}
@@ -0,0 +1,435 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.channel;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import net.ccbluex.liquidbounce.mcef.MCEFBrowser;
+import net.ccbluex.liquidbounce.mcef.metrics.MCEFHistogram;
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefQueryCallback;
+import org.cef.handler.CefLoadHandlerAdapter;
+import org.cef.network.CefRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * A message channel between Java and the page of a {@link MCEFBrowser}, available as {@code window.mcef.channel}.
+ * <p>
+ * Both sides can emit events and make requests that are answered asynchronously. Messages sent in the same
+ * frame are batched: the page sends everything from one animation frame as a single {@code cefQuery}, and Java
+ * sends everything queued until the start of the next game frame through one persistent query. A message is a
+ * compact JSON array of kind, request id, topic and payload.
+ * <p>
+ * Listeners and request handlers are called on the CEF UI thread, which is the render thread.
+ * Slow work should be moved elsewhere, returning a future from the request handler.
+ */
+public class MCEFMessageChannel {
+    static final String PREFIX = "__mcef_channel:";
+    private static final String SUBSCRIBE = "subscribe";
+    private static final String SCRIPT = loadScript("/mcef/channel.js");
+
+    private static final int EVENT = 0;
+    private static final int REQUEST = 1;
+    private static final int RESPONSE = 2;
+    private static final int ERROR = 3;
+
+    private final MCEFBrowser browser;
+    private final Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+    private final Map<String, RequestHandler> handlers = new ConcurrentHashMap<>();
+    private final Map<Integer, PendingRequest> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    private final Object lock = new Object();
+    private JsonArray outgoing = new JsonArray();
+    private boolean flushScheduled = false;
+    private CefQueryCallback subscription;
+    private long subscriptionId;
+
+    private volatile Duration requestTimeout = Duration.ofSeconds(10);
+    private volatile int maxQueuedMessages = 65536;
+
+    private final LongAdder sentMessages = new LongAdder();
+    private final LongAdder sentBatches = new LongAdder();
+    private final LongAdder receivedMessages = new LongAdder();
+    private final LongAdder receivedBatches = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final MCEFHistogram requestLatency = new MCEFHistogram();
+
+    public MCEFMessageChannel(MCEFBrowser browser) {
+        this.browser = browser;
+
+        browser.getMCEFClient().addLoadHandler(browser, new CefLoadHandlerAdapter() {
+            @Override
+            public void onLoadStart(CefBrowser cefBrowser, CefFrame frame, CefRequest.TransitionType transitionType) {
+                if (frame.isMain()) {
+                    frame.executeJavaScript(SCRIPT, frame.getURL(), 0);
+                }
+            }
+        });
+
+        // in case the page is already there, the script does nothing when it runs twice
+        browser.executeJavaScript(SCRIPT, browser.getURL(), 0);
+    }
+
+    /**
+     * @return the page side of the channel, for pages that want to include it themselves instead of waiting
+     * for the {@code mcef-channel-ready} event
+     */
+    public static String getScript() {
+        return SCRIPT;
+    }
+
+    /**
+     * Sends an event to the listeners of the page registered with {@code mcef.channel.on(topic, listener)}.
+     */
+    public void emit(String topic, JsonElement data) {
+        enqueue(message(EVENT, 0, topic, data));
+    }
+
+    /**
+     * Sends a request to the handler of the page registered with {@code mcef.channel.handle(topic, handler)}.
+     * The future fails when the page does not answer within the {@link #setRequestTimeout(Duration) timeout}
+     * or navigates away.
+     */
+    public CompletableFuture<JsonElement> request(String topic, JsonElement data) {
+        var id = nextId.getAndIncrement();
+        var future = new CompletableFuture<JsonElement>();
+        pending.put(id, new PendingRequest(future, System.nanoTime()));
+
+        if (!enqueue(message(REQUEST, id, topic, data))) {
+            pending.remove(id);
+            future.completeExceptionally(new IllegalStateException("Message queue is full"));
+            return future;
+        }
+
+        future.orTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((result, throwable) -> pending.remove(id));
+        return future;
+    }
+
+    /**
+     * Listens to events the page sends with {@code mcef.channel.emit(topic, data)}.
+     */
+    public void on(String topic, Listener listener) {
+        listeners.computeIfAbsent(topic, key -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+
+    public void off(String topic, Listener listener) {
+        var topicListeners = listeners.get(topic);
+        if (topicListeners != null) {
+            topicListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Answers requests the page makes with {@code mcef.channel.request(topic, data)}, replacing any previous handler.
+     */
+    public void handle(String topic, RequestHandler handler) {
+        handlers.put(topic, handler);
+    }
+
+    public void removeHandler(String topic) {
+        handlers.remove(topic);
+    }
+
+    /**
+     * Sends everything queued so far to the page. Called automatically once per frame.
+     */
+    public void flush() {
+        JsonArray batch;
+        CefQueryCallback callback;
+        synchronized (lock) {
+            flushScheduled = false;
+            if (subscription == null || outgoing.isEmpty()) {
+                // the page is not listening yet, keep everything until it subscribes
+                return;
+            }
+
+            batch = outgoing;
+            outgoing = new JsonArray();
+            callback = subscription;
+        }
+
+        callback.success(batch.toString());
+        sentMessages.add(batch.size());
+        sentBatches.increment();
+    }
+
+    private boolean enqueue(JsonArray message) {
+        synchronized (lock) {
+            if (outgoing.size() >= maxQueuedMessages) {
+                droppedMessages.increment();
+                return false;
+            }
+
+            outgoing.add(message);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                // Runs with the scheduled tasks at the start of the next frame
+                mc.send(this::flush);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Called by the message router of the {@link net.ccbluex.liquidbounce.mcef.MCEFClient}.
+     *
+     * @return whether the query belonged to this channel
+     */
+    public boolean onQuery(CefFrame frame, long queryId, String request, boolean persistent, CefQueryCallback callback) {
+        if (!request.startsWith(PREFIX)) {
+            return false;
+        }
+
+        var body = request.substring(PREFIX.length());
+        if (body.equals(SUBSCRIBE)) {
+            if (!persistent || !frame.isMain()) {
+                callback.failure(400, "Only the main frame can subscribe with a persistent query");
+                return true;
+            }
+
+            synchronized (lock) {
+                subscription = callback;
+                subscriptionId = queryId;
+                if (!outgoing.isEmpty() && !flushScheduled) {
+                    flushScheduled = true;
+                    mc.send(this::flush);
+                }
+            }
+            return true;
+        }
+
+        try {
+            var batch = JsonParser.parseString(body).getAsJsonArray();
+            receivedBatches.increment();
+            receivedMessages.add(batch.size());
+
+            for (var element : batch) {
+                receive(element.getAsJsonArray());
+            }
+            callback.success("");
+        } catch (RuntimeException e) {
+            MCEF.INSTANCE.getLogger().warn("Malformed message batch from {}", browser.getURL(), e);
+            callback.failure(400, String.valueOf(e.getMessage()));
+        }
+        return true;
+    }
+
+    public void onQueryCanceled(long queryId) {
+        synchronized (lock) {
+            if (subscription == null || subscriptionId != queryId) {
+                return;
+            }
+            subscription = null;
+        }
+
+        // the page is gone, nobody is left to answer
+        failPending("Page was unloaded");
+    }
+
+    private void receive(JsonArray message) {
+        var kind = message.get(0).getAsInt();
+        var id = message.get(1).getAsInt();
+        var topic = message.get(2).getAsString();
+        var data = message.size() > 3 ? message.get(3) : JsonNull.INSTANCE;
+
+        switch (kind) {
+            case EVENT -> {
+                var topicListeners = listeners.get(topic);
+                if (topicListeners == null) {
+                    return;
+                }
+
+                for (var listener : topicListeners) {
+                    try {
+                        listener.onMessage(data);
+                    } catch (Exception e) {
+                        MCEF.INSTANCE.getLogger().error("Message listener for {} failed", topic, e);
+                    }
+                }
+            }
+            case REQUEST -> {
+                var handler = handlers.get(topic);
+                if (handler == null) {
+                    enqueue(message(ERROR, id, "", new JsonPrimitive("No handler for " + topic)));
+                    return;
+                }
+
+                CompletableFuture<JsonElement> result;
+                try {
+                    result = handler.handle(data);
+                } catch (Exception e) {
+                    result = CompletableFuture.failedFuture(e);
+                }
+
+                result.whenComplete((response, throwable) -> {
+                    if (throwable != null) {
+                        enqueue(message(ERROR, id, "", new JsonPrimitive(String.valueOf(throwable.getMessage()))));
+                    } else {
+                        enqueue(message(RESPONSE, id, "", response));
+                    }
+                });
+            }
+            case RESPONSE, ERROR -> {
+                var request = pending.remove(id);
+                if (request == null) {
+                    // timed out already
+                    return;
+                }
+
+                requestLatency.record((System.nanoTime() - request.sentAt()) / 1000L);
+                if (kind == RESPONSE) {
+                    request.future().complete(data);
+                } else {
+                    request.future().completeExceptionally(new RuntimeException(data.getAsString()));
+                }
+            }
+            default -> MCEF.INSTANCE.getLogger().warn("Unknown message kind {} from {}", kind, browser.getURL());
+        }
+    }
+
+    private void failPending(String reason) {
+        for (var id : pending.keySet()) {
+            var request = pending.remove(id);
+            if (request != null) {
+                request.future().completeExceptionally(new IllegalStateException(reason));
+            }
+        }
+    }
+
+    /**
+     * Drops everything queued and fails all requests still waiting for an answer.
+     * Called when the browser is closed.
+     */
+    public void close() {
+        synchronized (lock) {
+            subscription = null;
+            outgoing = new JsonArray();
+        }
+        failPending("Browser was closed");
+    }
+
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Limits how many messages are kept while the page is not listening. Further events are dropped
+     * and further requests fail right away.
+     */
+    public void setMaxQueuedMessages(int maxQueuedMessages) {
+        this.maxQueuedMessages = maxQueuedMessages;
+    }
+
+    /**
+     * @return the number of messages waiting for the next flush
+     */
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return outgoing.size();
+        }
+    }
+
+    public int getPendingRequests() {
+        return pending.size();
+    }
+
+    public long getSentMessages() {
+        return sentMessages.sum();
+    }
+
+    public long getSentBatches() {
+        return sentBatches.sum();
+    }
+
+    public long getReceivedMessages() {
+        return receivedMessages.sum();
+    }
+
+    public long getReceivedBatches() {
+        return receivedBatches.sum();
+    }
+
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * @return round-trip times of requests made from Java, in microseconds
+     */
+    public MCEFHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    private static JsonArray message(int kind, int id, String topic, JsonElement data) {
+        var message = new JsonArray(4);
+        message.add(kind);
+        message.add(id);
+        message.add(topic);
+        message.add(data != null ? data : JsonNull.INSTANCE);
+        return message;
+    }
+
+    static String loadScript(String path) {
+        try (var stream = MCEFMessageChannel.class.getResourceAsStream(path)) {
+            if (stream == null) {
+                throw new IllegalStateException("Missing " + path);
+            }
+            return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+        void onMessage(JsonElement data);
+    }
+
+    @FunctionalInterface
+    public interface RequestHandler {
+        CompletableFuture<JsonElement> handle(JsonElement data) throws Exception;
+    }
+
+    private record PendingRequest(CompletableFuture<JsonElement> future, long sentAt) {
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.channel;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import net.ccbluex.liquidbounce.mcef.MCEFBrowser;
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.handler.CefLoadHandlerAdapter;
+import org.cef.network.CefRequest;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Keeps state trees in the page of a {@link MCEFBrowser} in sync with the game, available as {@code window.mcef.state}.
+ * <p>
+ * Java registers a tree under a key, either as a supplier polled at the sync rate or by pushing new versions with
+ * {@link #update(String, JsonElement)}. At every sync the trees that changed are diffed against what the page has
+ * and only the {@link MCEFJsonDiff ops} are sent, all keys together in one message. The page applies them and
+ * notifies the subscribers of {@code mcef.state.subscribe(key, callback)}.
+ * <p>
+ * Suppliers are called on the render thread and must return a new tree every time, a tree that is mutated in place
+ * looks unchanged. The same goes for trees passed to {@link #update(String, JsonElement)}.
+ */
+public class MCEFStateSync {
+    static final String PATCH_TOPIC = "__mcef_state:patch";
+    static final String SNAPSHOT_TOPIC = "__mcef_state:snapshot";
+    private static final String SCRIPT = MCEFMessageChannel.loadScript("/mcef/state.js");
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        var thread = new Thread(runnable, "MCEF-StateSync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MCEFMessageChannel channel;
+    private final Map<String, State> states = new LinkedHashMap<>();
+    private final AtomicBoolean syncQueued = new AtomicBoolean();
+    private ScheduledFuture<?> task;
+    private Duration interval = Duration.ofMillis(50);
+
+    /**
+     * Whether the current page asked for a snapshot, before that there is nobody to send patches to.
+     */
+    private volatile boolean pageReady = false;
+
+    private final LongAdder patchesSent = new LongAdder();
+    private final LongAdder opsSent = new LongAdder();
+    private final LongAdder snapshotsSent = new LongAdder();
+
+    public MCEFStateSync(MCEFBrowser browser) {
+        this.channel = browser.getMessageChannel();
+        channel.handle(SNAPSHOT_TOPIC, data -> CompletableFuture.completedFuture(snapshot()));
+
+        browser.getMCEFClient().addLoadHandler(browser, new CefLoadHandlerAdapter() {
+            @Override
+            public void onLoadStart(CefBrowser cefBrowser, CefFrame frame, CefRequest.TransitionType transitionType) {
+                if (frame.isMain()) {
+                    pageReady = false;
+                    frame.executeJavaScript(SCRIPT, frame.getURL(), 0);
+                }
+            }
+        });
+        browser.executeJavaScript(SCRIPT, browser.getURL(), 0);
+
+        schedule();
+    }
+
+    /**
+     * Syncs the tree returned by the supplier, polled at the {@link #setInterval(Duration) sync rate}.
+     */
+    public synchronized void register(String key, Supplier<JsonElement> supplier) {
+        states.put(key, new State(supplier));
+    }
+
+    /**
+     * Replaces the tree of a key, it reaches the page with the next sync. Registers the key if needed.
+     */
+    public synchronized void update(String key, JsonElement value) {
+        var state = states.computeIfAbsent(key, k -> new State(null));
+        state.next = value;
+    }
+
+    /**
+     * Stops syncing a key. The page sees its value become null.
+     */
+    public synchronized void unregister(String key) {
+        var state = states.get(key);
+        if (state != null) {
+            state.supplier = null;
+            state.next = JsonNull.INSTANCE;
+            state.removed = true;
+        }
+    }
+
+    /**
+     * Diffs all trees and sends the patches. Called automatically at the sync rate.
+     */
+    public synchronized void sync() {
+        syncQueued.set(false);
+        if (!pageReady) {
+            return;
+        }
+
+        var patches = new JsonArray();
+        var iterator = states.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            var state = entry.getValue();
+            var next = state.poll();
+            if (next == null) {
+                continue;
+            }
+
+            var ops = MCEFJsonDiff.diff(state.value, next);
+            if (!ops.isEmpty()) {
+                var patch = new JsonArray(3);
+                patch.add(entry.getKey());
+                patch.add(state.version);
+                patch.add(ops);
+                patches.add(patch);
+                opsSent.add(ops.size());
+
+                state.value = next;
+                state.version++;
+            }
+
+            if (state.removed) {
+                iterator.remove();
+            }
+        }
+
+        if (!patches.isEmpty()) {
+            channel.emit(PATCH_TOPIC, patches);
+            patchesSent.add(patches.size());
+        }
+    }
+
+    private synchronized JsonObject snapshot() {
+        var snapshot = new JsonObject();
+        var iterator = states.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            var state = entry.getValue();
+            var next = state.poll();
+            if (next != null && !next.equals(state.value)) {
+                state.value = next;
+                state.version++;
+            }
+
+            if (state.removed) {
+                iterator.remove();
+                continue;
+            }
+
+            var versioned = new JsonArray(2);
+            versioned.add(state.version);
+            versioned.add(state.value != null ? state.value : JsonNull.INSTANCE);
+            snapshot.add(entry.getKey(), versioned);
+        }
+
+        pageReady = true;
+        snapshotsSent.increment();
+        return snapshot;
+    }
+
+    /**
+     * How often trees are diffed, 50 ms by default to match the game tick rate.
+     */
+    public synchronized void setInterval(Duration interval) {
+        this.interval = interval;
+        schedule();
+    }
+
+    private synchronized void schedule() {
+        if (task != null) {
+            task.cancel(false);
+        }
+
+        task = SCHEDULER.scheduleAtFixedRate(() -> {
+            // do not pile up syncs while the game is lagging
+            if (pageReady && syncQueued.compareAndSet(false, true)) {
+                mc.execute(() -> {
+                    try {
+                        sync();
+                    } catch (Exception e) {
+                        MCEF.INSTANCE.getLogger().error("Failed to sync browser state", e);
+                    }
+                });
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops syncing. Called when the browser is closed.
+     */
+    public synchronized void close() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        pageReady = false;
+        channel.removeHandler(SNAPSHOT_TOPIC);
+    }
+
+    /**
+     * @return the number of per-key patches sent
+     */
+    public long getPatchesSent() {
+        return patchesSent.sum();
+    }
+
+    public long getOpsSent() {
+        return opsSent.sum();
+    }
+
+    public long getSnapshotsSent() {
+        return snapshotsSent.sum();
+    }
+
+    private static final class State {
+        private Supplier<JsonElement> supplier;
+        private JsonElement next;
+        private JsonElement value;
+        private int version = 0;
+        private boolean removed = false;
+
+        private State(Supplier<JsonElement> supplier) {
+            this.supplier = supplier;
+        }
+
+        /**
+         * @return the newest tree, or null if nothing new was pushed
+         */
+        private JsonElement poll() {
+            if (supplier != null) {
+                return supplier.get();
+            }
+
+            var pushed = next;
+            next = null;
+            return pushed;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.console;
+
+import net.ccbluex.liquidbounce.mcef.util.MCEFRingBuffer;
+import org.cef.CefSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves browser console output off the CEF UI thread and keeps chatty pages from flooding the game log.
+ * <p>
+ * Every source (the script URL a message came from) gets a token bucket; messages over its rate are
+ * suppressed right away on the CEF thread, before any display handler sees them. Messages within the rate
+ * that no display handler consumed go into a lock-free ring buffer that a background thread drains every
+ * {@link #setFlushInterval(long, TimeUnit) flush interval}, collapsing consecutive repeats of the same
+ * message into one line with a count before logging them to SLF4J.
+ */
+public class MCEFConsolePipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger("MCEF/Console");
+    /**
+     * Pages can produce any number of distinct sources (e.g. eval'd scripts), so the limiters are reset past this.
+     */
+    private static final int MAX_TRACKED_SOURCES = 1024;
+
+    private final MCEFRingBuffer<Message> buffer;
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private volatile boolean enabled = false;
+    private volatile double messagesPerSecond = 20;
+    private volatile int burst = 50;
+    private volatile long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(250);
+    private Thread thread;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    // flush thread only
+    private Message pending;
+    private int pendingRepeats;
+
+    public MCEFConsolePipeline(int capacity) {
+        buffer = new MCEFRingBuffer<>(capacity);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Disabled by default. When disabled, display handlers see every console message and those none of them
+     * consumed are left to CEF, which writes them to its own log output. When enabled, display handlers only
+     * see messages within the rate limit.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param messagesPerSecond the sustained rate a single source may log at
+     * @param burst             how many messages a source may log at once before the rate applies
+     */
+    public void setRateLimit(double messagesPerSecond, int burst) {
+        this.messagesPerSecond = messagesPerSecond;
+        this.burst = burst;
+        rateLimiters.clear();
+    }
+
+    public void setFlushInterval(long interval, TimeUnit unit) {
+        this.flushIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Checks the rate limit of the given source. Called on the CEF thread before the display handlers.
+     *
+     * @return false if the message should be suppressed
+     */
+    public boolean tryAcquire(String source) {
+        if (rateLimiters.size() > MAX_TRACKED_SOURCES) {
+            rateLimiters.clear();
+        }
+
+        var limiter = rateLimiters.computeIfAbsent(source == null ? "" : source,
+                key -> new RateLimiter(burst));
+        if (limiter.tryAcquire(messagesPerSecond, burst)) {
+            return true;
+        }
+
+        suppressed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Queues a message to be logged. Never blocks; if the buffer is full the message is dropped.
+     */
+    public void submit(int browserId, CefSettings.LogSeverity level, String message, String source, int line) {
+        if (!buffer.offer(new Message(browserId, level, message, source, line))) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        accepted.incrementAndGet();
+        ensureStarted();
+    }
+
+    /**
+     * @return messages that were queued for logging
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     * @return messages lost because the ring buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return messages rejected by the per-source rate limit
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * @return messages that were folded into the repeat count of an identical preceding message
+     */
+    public long getDeduplicated() {
+        return deduplicated.get();
+    }
+
+    private synchronized void ensureStarted() {
+        if (thread == null) {
+            thread = new Thread(this::run, "MCEF-Console");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+
+            try {
+                flush();
+            } catch (Throwable t) {
+                LOGGER.error("Failed to flush browser console output", t);
+            }
+        }
+    }
+
+    private void flush() {
+        Message message;
+        while ((message = buffer.poll()) != null) {
+            if (pending != null && pending.sameAs(message)) {
+                pendingRepeats++;
+                deduplicated.incrementAndGet();
+                continue;
+            }
+
+            emitPending();
+            pending = message;
+            log(message.level, "[{}:{}] {}", message.source, message.line, message.text);
+        }
+
+        // the batch is over, report how often the last message was repeated
+        emitPending();
+        pending = null;
+
+        for (var entry : rateLimiters.entrySet()) {
+            var limiter = entry.getValue();
+            var count = limiter.suppressed;
+            if (count > limiter.reportedSuppressed) {
+                LOGGER.warn("Suppressed {} console messages from {}", count - limiter.reportedSuppressed, entry.getKey());
+                limiter.reportedSuppressed = count;
+            }
+        }
+    }
+
+    private void emitPending() {
+        if (pending != null && pendingRepeats > 0) {
+            log(pending.level, "[{}:{}] {} (repeated {} more times)",
+                    pending.source, pending.line, pending.text, pendingRepeats);
+        }
+        pendingRepeats = 0;
+    }
+
+    private static void log(Level level, String format, Object... arguments) {
+        switch (level) {
+            case ERROR -> LOGGER.error(format, arguments);
+            case WARN -> LOGGER.warn(format, arguments);
+            case DEBUG, TRACE -> LOGGER.debug(format, arguments);
+            default -> LOGGER.info(format, arguments);
+        }
+    }
+
+    private record Message(int browserId, Level level, String text, String source, int line) {
+        Message(int browserId, CefSettings.LogSeverity severity, String text, String source, int line) {
+            this(browserId, levelOf(severity), text, source, line);
+        }
+
+        boolean sameAs(Message other) {
+            return browserId == other.browserId && line == other.line && level == other.level
+                    && Objects.equals(text, other.text) && Objects.equals(source, other.source);
+        }
+
+        private static Level levelOf(CefSettings.LogSeverity severity) {
+            return switch (severity) {
+                case LOGSEVERITY_VERBOSE -> Level.DEBUG;
+                case LOGSEVERITY_WARNING -> Level.WARN;
+                case LOGSEVERITY_ERROR, LOGSEVERITY_FATAL -> Level.ERROR;
+                default -> Level.INFO;
+            };
+        }
+    }
+
+    private static final class RateLimiter {
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+        // written on the CEF thread, read by the flush thread for reporting only
+        private volatile long suppressed;
+        // flush thread only
+        private long reportedSuppressed;
+
+        private RateLimiter(int burst) {
+            tokens = burst;
+        }
+
+        private synchronized boolean tryAcquire(double perSecond, int burst) {
+            var now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) / 1e9 * perSecond);
+            lastRefill = now;
+
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+
+            suppressed++;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.events;
+
+import org.cef.browser.CefBrowser;
+import org.cef.handler.CefLoadHandler;
+import org.cef.network.CefRequest;
+
+/**
+ * Immutable copies of the {@link net.ccbluex.liquidbounce.mcef.MCEFClient} callbacks that
+ * can be delivered asynchronously through the {@link MCEFEventBus}.
+ * <p>
+ * Frames are only valid during the callback itself, so only their URL and whether they are the main
+ * frame are copied. The browser is kept as-is, the Java object stays the same for its whole lifetime.
+ */
+public sealed interface MCEFClientEvent {
+
+    CefBrowser browser();
+
+    record LoadingStateChange(CefBrowser browser, boolean isLoading, boolean canGoBack,
+                              boolean canGoForward) implements MCEFClientEvent {
+    }
+
+    record LoadStart(CefBrowser browser, String frameUrl, boolean isMainFrame,
+                     CefRequest.TransitionType transitionType) implements MCEFClientEvent {
+    }
+
+    record LoadEnd(CefBrowser browser, String frameUrl, boolean isMainFrame,
+                   int httpStatusCode) implements MCEFClientEvent {
+    }
+
+    record LoadError(CefBrowser browser, String frameUrl, boolean isMainFrame, CefLoadHandler.ErrorCode errorCode,
+                     String errorText, String failedUrl) implements MCEFClientEvent {
+    }
+
+    record AddressChange(CefBrowser browser, boolean isMainFrame, String url) implements MCEFClientEvent {
+    }
+
+    record TitleChange(CefBrowser browser, String title) implements MCEFClientEvent {
+    }
+
+    record StatusMessage(CefBrowser browser, String value) implements MCEFClientEvent {
+    }
+}
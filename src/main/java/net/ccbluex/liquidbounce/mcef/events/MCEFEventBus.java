@@ -0,0 +1,214 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.events;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import net.ccbluex.liquidbounce.mcef.listeners.MCEFClientEventListener;
+import org.cef.browser.CefBrowser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers {@link MCEFClientEvent}s to listeners away from the CEF UI thread, so a slow listener
+ * can not stall Chromium's message loop.
+ * <p>
+ * Every subscription has its own bounded queue and is drained by at most one task at a time, so a
+ * listener sees events in order and never concurrently. What happens when a queue is full is decided by
+ * the subscription's {@link OverflowPolicy}. Callbacks that return a value to CEF (tooltips, console
+ * messages, cursor changes, context menu commands) can not be delivered later and stay synchronous.
+ */
+public class MCEFEventBus {
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Sets the executor listeners are called on. Defaults to one virtual thread per drain task.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes to the events of all browsers.
+     */
+    public Subscription subscribe(MCEFClientEventListener listener, SubscriptionOptions options) {
+        return subscribe(null, listener, options);
+    }
+
+    /**
+     * Subscribes to the events of a single browser, or all of them if the browser is null.
+     */
+    public Subscription subscribe(CefBrowser browser, MCEFClientEventListener listener, SubscriptionOptions options) {
+        var subscription = new Subscription(browser, listener, options);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Cheap check used by {@link net.ccbluex.liquidbounce.mcef.MCEFClient} to avoid creating events nobody listens to.
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public void publish(MCEFClientEvent event) {
+        for (var subscription : subscriptions) {
+            if (subscription.browser == null || subscription.browser == event.browser()) {
+                subscription.enqueue(event);
+            }
+        }
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Discards the event that did not fit.
+         */
+        DROP_NEWEST,
+        /**
+         * Discards the oldest queued event to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Delivers the event on the publishing thread, after everything already queued. This slows CEF down
+         * instead of losing events, so use it only for listeners that must see everything.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * @param queueCapacity  the maximum number of events waiting for the listener
+     * @param overflowPolicy what to do with events that do not fit into the queue
+     */
+    public record SubscriptionOptions(int queueCapacity, OverflowPolicy overflowPolicy) {
+        public static SubscriptionOptions defaults() {
+            return new SubscriptionOptions(256, OverflowPolicy.DROP_OLDEST);
+        }
+    }
+
+    public final class Subscription implements AutoCloseable {
+        private final CefBrowser browser;
+        private final MCEFClientEventListener listener;
+        private final OverflowPolicy overflowPolicy;
+        private final ArrayBlockingQueue<MCEFClientEvent> queue;
+        private final AtomicBoolean draining = new AtomicBoolean(false);
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong delivered = new AtomicLong();
+
+        private Subscription(CefBrowser browser, MCEFClientEventListener listener, SubscriptionOptions options) {
+            this.browser = browser;
+            this.listener = listener;
+            this.overflowPolicy = options.overflowPolicy();
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, options.queueCapacity()));
+        }
+
+        private void enqueue(MCEFClientEvent event) {
+            while (!queue.offer(event)) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST -> {
+                        dropped.incrementAndGet();
+                        return;
+                    }
+                    case DROP_OLDEST -> {
+                        if (queue.poll() != null) {
+                            dropped.incrementAndGet();
+                        }
+                    }
+                    case CALLER_RUNS -> {
+                        // wait for the drain task to finish, then catch up here
+                        synchronized (this) {
+                            drain();
+                            deliver(event);
+                        }
+                        return;
+                    }
+                }
+            }
+
+            schedule();
+        }
+
+        private void schedule() {
+            if (draining.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drainTask);
+                } catch (Exception e) {
+                    draining.set(false);
+                    MCEF.INSTANCE.getLogger().error("Failed to schedule event delivery", e);
+                }
+            }
+        }
+
+        private void drainTask() {
+            synchronized (this) {
+                drain();
+            }
+            draining.set(false);
+
+            // an event might have been queued after the last poll but before the flag was cleared
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void drain() {
+            MCEFClientEvent event;
+            while ((event = queue.poll()) != null) {
+                deliver(event);
+            }
+        }
+
+        private void deliver(MCEFClientEvent event) {
+            try {
+                listener.onEvent(event);
+                delivered.incrementAndGet();
+            } catch (Throwable t) {
+                MCEF.INSTANCE.getLogger().error("Event listener failed on {}", event, t);
+            }
+        }
+
+        /**
+         * @return the number of events discarded because the queue was full
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        public long getDelivered() {
+            return delivered.get();
+        }
+
+        public int getQueued() {
+            return queue.size();
+        }
+
+        @Override
+        public void close() {
+            subscriptions.remove(this);
+            queue.clear();
+        }
+    }
+}
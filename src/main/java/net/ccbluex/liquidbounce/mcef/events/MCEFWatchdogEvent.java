@@ -0,0 +1,61 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.events;
+
+import net.ccbluex.liquidbounce.mcef.MCEFBrowser;
+import net.ccbluex.liquidbounce.mcef.MCEFRecoveryPolicy;
+import org.cef.handler.CefRequestHandler;
+
+import java.time.Duration;
+
+/**
+ * What the {@link net.ccbluex.liquidbounce.mcef.MCEFWatchdog} noticed and did about a browser.
+ */
+public sealed interface MCEFWatchdogEvent {
+
+    MCEFBrowser browser();
+
+    /**
+     * @param unresponsiveFor how long the renderer has not answered
+     */
+    record HangDetected(MCEFBrowser browser, Duration unresponsiveFor) implements MCEFWatchdogEvent {
+    }
+
+    record RendererTerminated(MCEFBrowser browser, CefRequestHandler.TerminationStatus status) implements MCEFWatchdogEvent {
+    }
+
+    record RecoveryScheduled(MCEFBrowser browser, MCEFRecoveryPolicy.Action action, int attempt,
+                             Duration delay) implements MCEFWatchdogEvent {
+    }
+
+    /**
+     * @param browser the browser now being watched, a different object than {@code previous} after a recreation
+     */
+    record Recovered(MCEFBrowser browser, MCEFBrowser previous, MCEFRecoveryPolicy.Action action) implements MCEFWatchdogEvent {
+    }
+
+    /**
+     * The maximum number of attempts was reached, the browser is no longer recovered until watched again.
+     */
+    record GaveUp(MCEFBrowser browser, int attempts) implements MCEFWatchdogEvent {
+    }
+}
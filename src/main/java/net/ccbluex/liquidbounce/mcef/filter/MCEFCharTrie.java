@@ -0,0 +1,163 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Immutable character trie in flat arrays. The edges of all nodes live in two shared arrays, node {@code n}
+ * owns the range {@code offsets[n]} to {@code offsets[n + 1]} sorted by character, so walking the trie touches
+ * a few adjacent cache lines instead of two arrays per node. The root is hit for almost every character of the
+ * input and additionally gets a direct lookup table for ASCII.
+ * <p>
+ * Built from a mutable {@link Node} graph once, after that lookups never allocate.
+ * Used as the goto function of the Aho-Corasick automaton and as the reversed domain trie.
+ */
+final class MCEFCharTrie {
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    final int size;
+    private final int[] offsets;
+    private final char[] keys;
+    private final int[] targets;
+    private final int[] rootTable = new int[128];
+
+    private MCEFCharTrie(int[] offsets, char[] keys, int[] targets) {
+        this.size = offsets.length - 1;
+        this.offsets = offsets;
+        this.keys = keys;
+        this.targets = targets;
+
+        Arrays.fill(rootTable, -1);
+        for (int i = offsets[0]; i < offsets[1]; i++) {
+            if (keys[i] < 128) {
+                rootTable[keys[i]] = targets[i];
+            }
+        }
+    }
+
+    /**
+     * @return the child of the node for the character, or -1 if there is none
+     */
+    int next(int node, char c) {
+        if (node == 0 && c < 128) {
+            return rootTable[c];
+        }
+
+        var from = offsets[node];
+        var to = offsets[node + 1];
+        if (to - from <= LINEAR_SCAN_LIMIT) {
+            for (int i = from; i < to; i++) {
+                if (keys[i] == c) {
+                    return targets[i];
+                }
+            }
+            return -1;
+        }
+
+        var index = Arrays.binarySearch(keys, from, to, c);
+        return index >= 0 ? targets[index] : -1;
+    }
+
+    /**
+     * @return the number of edges leaving the node
+     */
+    int edgeCount(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    /**
+     * @return the character of the nth edge of the node
+     */
+    char edgeChar(int node, int edge) {
+        return keys[offsets[node] + edge];
+    }
+
+    /**
+     * @return the target of the nth edge of the node
+     */
+    int edgeTarget(int node, int edge) {
+        return targets[offsets[node] + edge];
+    }
+
+    /**
+     * Mutable node used while building. Node ids are assigned in insertion order, the root is 0.
+     */
+    static final class Node {
+        final int id;
+        final TreeMap<Character, Node> children = new TreeMap<>();
+
+        Node(int id) {
+            this.id = id;
+        }
+    }
+
+    static final class Builder {
+        final List<Node> nodes = new ArrayList<>();
+        final Node root;
+
+        Builder() {
+            root = newNode();
+        }
+
+        Node newNode() {
+            var node = new Node(nodes.size());
+            nodes.add(node);
+            return node;
+        }
+
+        Node child(Node node, char c) {
+            var child = node.children.get(c);
+            if (child == null) {
+                child = newNode();
+                node.children.put(c, child);
+            }
+            return child;
+        }
+
+        MCEFCharTrie build() {
+            var offsets = new int[nodes.size() + 1];
+            var edges = 0;
+            for (var node : nodes) {
+                offsets[node.id] = edges;
+                edges += node.children.size();
+            }
+            offsets[nodes.size()] = edges;
+
+            var keys = new char[edges];
+            var targets = new int[edges];
+            for (var node : nodes) {
+                var i = offsets[node.id];
+                for (var entry : node.children.entrySet()) {
+                    keys[i] = entry.getKey();
+                    targets[i] = entry.getValue().id;
+                    i++;
+                }
+            }
+
+            return new MCEFCharTrie(offsets, keys, targets);
+        }
+    }
+}
@@ -0,0 +1,603 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.filter;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A compiled URL blocklist built from EasyList-style filter rules.
+ * <p>
+ * Rules are split into two structures: {@code ||example.com^} rules and hosts file entries go into a
+ * trie over the reversed host names, so a lookup walks the host of a URL once from its last character.
+ * Every other rule is indexed by its longest literal part in an Aho-Corasick automaton, which finds all of
+ * them in a single pass over the URL. Rules with wildcards, separators or anchors are only checked against
+ * their full pattern once their literal part was found. Exception rules ({@code @@}) are compiled the same
+ * way into a second matcher.
+ * <p>
+ * Matching works directly on the characters of the URL and never allocates. Instances are immutable and
+ * can be used from any thread.
+ * <p>
+ * Supported syntax: {@code ||} domain anchors, {@code |} start and end anchors, {@code *} wildcards,
+ * {@code ^} separators and hosts file lines. Cosmetic rules and regular expressions are skipped, as are
+ * rules with options that depend on the page they are loaded from ({@code domain=}, {@code ~...}) or that
+ * rewrite instead of block. Resource type options are ignored, the rule applies to every subresource.
+ * Paths like {@code /ads/} are treated as such unless they contain characters only a regular expression would.
+ * <p>
+ * Applied to the requests of a browser with a {@link MCEFUrlFilterRequestHandler}.
+ */
+public final class MCEFUrlFilter {
+    private static final MCEFUrlFilter EMPTY = builder().build();
+
+    private final Matcher blocking;
+    private final Matcher exceptions;
+    private final int ruleCount;
+
+    private MCEFUrlFilter(Matcher blocking, Matcher exceptions, int ruleCount) {
+        this.blocking = blocking;
+        this.exceptions = exceptions;
+        this.ruleCount = ruleCount;
+    }
+
+    public static MCEFUrlFilter empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return true if the URL matches a blocking rule and no exception rule
+     */
+    public boolean isBlocked(String url) {
+        var hostStart = hostStart(url);
+        var hostEnd = hostEnd(url, hostStart);
+
+        return blocking.matches(url, hostStart, hostEnd) && !exceptions.matches(url, hostStart, hostEnd);
+    }
+
+    /**
+     * @return the number of rules that were compiled into this filter, exceptions included
+     */
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    private static int hostStart(String url) {
+        var scheme = url.indexOf("://");
+        if (scheme < 0) {
+            return 0;
+        }
+
+        var start = scheme + 3;
+        // skip user info
+        for (int i = start; i < url.length(); i++) {
+            var c = url.charAt(i);
+            if (c == '@') {
+                return i + 1;
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+        }
+        return start;
+    }
+
+    private static int hostEnd(String url, int hostStart) {
+        for (int i = hostStart; i < url.length(); i++) {
+            var c = url.charAt(i);
+            if (c == '/' || c == ':' || c == '?' || c == '#') {
+                return i;
+            }
+        }
+        return url.length();
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    private static boolean isSeparator(char c) {
+        return !(c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c >= 'A' && c <= 'Z'
+                || c == '_' || c == '-' || c == '.' || c == '%' || c > 127);
+    }
+
+    /**
+     * @return true if the host between start and end is the domain or one of its subdomains
+     */
+    private static boolean isHostOf(String domain, String url, int hostStart, int hostEnd) {
+        var offset = hostEnd - domain.length();
+        return offset >= hostStart
+                && url.regionMatches(true, offset, domain, 0, domain.length())
+                && (offset == hostStart || url.charAt(offset - 1) == '.');
+    }
+
+    /**
+     * Matches the pattern against the URL starting exactly at {@code from}, with {@code *} matching any
+     * run of characters and {@code ^} a separator or the end of the URL. Backtracks over the last
+     * wildcard only, which is enough since wildcards never need to give characters back to earlier ones.
+     */
+    private static boolean matchesAt(String pattern, String url, int from, boolean anchorEnd) {
+        var end = url.length();
+        var length = pattern.length();
+        var p = 0;
+        var s = from;
+        var starPattern = -1;
+        var starUrl = -1;
+
+        while (true) {
+            if (p < length) {
+                var pc = pattern.charAt(p);
+                if (pc == '*') {
+                    starPattern = p++;
+                    starUrl = s;
+                    continue;
+                }
+                if (s < end) {
+                    var sc = lower(url.charAt(s));
+                    if (pc == '^' ? isSeparator(sc) : pc == sc) {
+                        p++;
+                        s++;
+                        continue;
+                    }
+                } else if (pc == '^') {
+                    p++;
+                    continue;
+                }
+            } else if (!anchorEnd || s == end) {
+                return true;
+            }
+
+            if (starPattern >= 0 && starUrl < end) {
+                p = starPattern + 1;
+                s = ++starUrl;
+                continue;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A rule that needs more than its literal part to match. Its literal part, the key, is what the
+     * automaton finds, so the pattern only has to be tried where the key was found.
+     *
+     * @param domain    the domain of a {@code ||} rule, the pattern then has to match right after the host
+     * @param pattern   the pattern with {@code *} and {@code ^}, lower case
+     * @param keyPrefix the number of characters the pattern matches at least before the key
+     * @param keyLength the length of the key
+     * @param floating  whether there is a wildcard in front of the key, so the pattern may start anywhere before it
+     */
+    private record PatternRule(String domain, String pattern, int keyPrefix, int keyLength, boolean floating,
+                               boolean anchorStart, boolean anchorEnd) {
+        /**
+         * @param keyEnd the index of the last character of the key in the URL
+         */
+        boolean matches(String url, int keyEnd, int hostStart, int hostEnd) {
+            if (domain != null) {
+                return isHostOf(domain, url, hostStart, hostEnd) && matchesAt(pattern, url, hostEnd, anchorEnd);
+            }
+
+            var start = keyEnd - keyLength + 1 - keyPrefix;
+            if (start < 0) {
+                return false;
+            }
+            if (!floating) {
+                return (!anchorStart || start == 0) && matchesAt(pattern, url, start, anchorEnd);
+            }
+            if (anchorStart) {
+                return matchesAt(pattern, url, 0, anchorEnd);
+            }
+            for (int i = 0; i <= start; i++) {
+                if (matchesAt(pattern, url, i, anchorEnd)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * One compiled rule set: the reversed domain trie and the Aho-Corasick automaton with its rules.
+     */
+    private static final class Matcher {
+        private final MCEFCharTrie domains;
+        private final boolean[] domainEnds;
+        private final MCEFCharTrie automaton;
+        private final int[] fail;
+        /**
+         * Rules found at every automaton state, following the dictionary suffix links.
+         * -1 is a plain substring rule that matches as soon as it is found.
+         */
+        private final int[][] outputs;
+        private final PatternRule[] rules;
+
+        private Matcher(MCEFCharTrie domains, boolean[] domainEnds, MCEFCharTrie automaton, int[] fail,
+                        int[][] outputs, PatternRule[] rules) {
+            this.domains = domains;
+            this.domainEnds = domainEnds;
+            this.automaton = automaton;
+            this.fail = fail;
+            this.outputs = outputs;
+            this.rules = rules;
+        }
+
+        boolean matches(String url, int hostStart, int hostEnd) {
+            return matchesDomain(url, hostStart, hostEnd) || matchesPattern(url, hostStart, hostEnd);
+        }
+
+        private boolean matchesDomain(String url, int hostStart, int hostEnd) {
+            var node = 0;
+            for (int i = hostEnd - 1; i >= hostStart; i--) {
+                node = domains.next(node, lower(url.charAt(i)));
+                if (node < 0) {
+                    return false;
+                }
+                if (domainEnds[node] && (i == hostStart || url.charAt(i - 1) == '.')) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesPattern(String url, int hostStart, int hostEnd) {
+            if (automaton.size == 1) {
+                return false;
+            }
+
+            var state = 0;
+            for (int i = 0; i < url.length(); i++) {
+                var c = lower(url.charAt(i));
+                var next = automaton.next(state, c);
+                while (next < 0 && state != 0) {
+                    state = fail[state];
+                    next = automaton.next(state, c);
+                }
+                state = Math.max(next, 0);
+
+                for (var rule : outputs[state]) {
+                    if (rule < 0 || rules[rule].matches(url, i, hostStart, hostEnd)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Collects rules and compiles them into a {@link MCEFUrlFilter}.
+     */
+    public static final class Builder {
+        private final RuleSet blocking = new RuleSet();
+        private final RuleSet exceptions = new RuleSet();
+        private int skipped = 0;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a single line of a filter list. Comments, cosmetic and unsupported rules are skipped.
+         */
+        public Builder addRule(String line) {
+            var rule = line.strip();
+            if (rule.isEmpty() || rule.startsWith("!") || rule.startsWith("[") || rule.startsWith("#")) {
+                return this;
+            }
+            if (rule.contains("##") || rule.contains("#@#") || rule.contains("#?#") || rule.contains("#$#")) {
+                // cosmetic rules only apply to the page itself
+                skipped++;
+                return this;
+            }
+
+            var hostsEntry = hostsEntry(rule);
+            if (hostsEntry != null) {
+                if (!hostsEntry.equals("localhost") && !hostsEntry.isEmpty()) {
+                    blocking.domains.add(hostsEntry.toLowerCase(Locale.ROOT));
+                }
+                return this;
+            }
+
+            var target = blocking;
+            if (rule.startsWith("@@")) {
+                target = exceptions;
+                rule = rule.substring(2);
+            }
+
+            var options = rule.lastIndexOf('$');
+            if (options >= 0 && options < rule.length() - 1 && !rule.startsWith("/")) {
+                var value = rule.substring(options + 1);
+                if (value.contains("domain=") || value.contains("~") || value.contains("redirect")
+                        || value.contains("csp") || value.contains("removeparam") || value.contains("rewrite")
+                        || value.contains("badfilter") || value.contains("replace")) {
+                    skipped++;
+                    return this;
+                }
+                rule = rule.substring(0, options);
+            }
+
+            if (isRegex(rule)) {
+                // regular expressions cannot be matched without allocating
+                skipped++;
+                return this;
+            }
+
+            if (!target.add(rule.toLowerCase(Locale.ROOT))) {
+                skipped++;
+            }
+            return this;
+        }
+
+        public Builder addRules(Iterable<String> lines) {
+            for (var line : lines) {
+                addRule(line);
+            }
+            return this;
+        }
+
+        /**
+         * Adds every line of a filter list or hosts file.
+         */
+        public Builder addRuleFile(Path path) throws IOException {
+            try (var lines = Files.lines(path, StandardCharsets.UTF_8)) {
+                lines.forEach(this::addRule);
+            }
+            return this;
+        }
+
+        public MCEFUrlFilter build() {
+            if (skipped > 0) {
+                MCEF.INSTANCE.getLogger().debug("Skipped {} unsupported filter rules", skipped);
+            }
+
+            return new MCEFUrlFilter(blocking.compile(), exceptions.compile(), blocking.size() + exceptions.size());
+        }
+
+        /**
+         * Like uBlock Origin, {@code /ads/} is a path and not a regular expression as long as there is nothing
+         * between the slashes that only makes sense in one.
+         */
+        private static boolean isRegex(String rule) {
+            if (rule.length() < 3 || !rule.startsWith("/") || !rule.endsWith("/")) {
+                return false;
+            }
+            for (int i = 1; i < rule.length() - 1; i++) {
+                if ("\\$()[]{}+?|".indexOf(rule.charAt(i)) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String hostsEntry(String rule) {
+            if (!rule.startsWith("0.0.0.0") && !rule.startsWith("127.0.0.1")) {
+                return null;
+            }
+
+            var parts = rule.split("\\s+");
+            if (parts.length < 2) {
+                return null;
+            }
+            return parts[1];
+        }
+    }
+
+    private static final class RuleSet {
+        private final List<String> domains = new ArrayList<>();
+        private final List<String> literals = new ArrayList<>();
+        private final List<String> keys = new ArrayList<>();
+        private final List<PatternRule> rules = new ArrayList<>();
+
+        int size() {
+            return domains.size() + literals.size() + rules.size();
+        }
+
+        /**
+         * @return false if the rule is not supported
+         */
+        boolean add(String rule) {
+            if (rule.startsWith("||")) {
+                var rest = rule.substring(2);
+                var end = 0;
+                while (end < rest.length() && "^/*|:?".indexOf(rest.charAt(end)) < 0) {
+                    end++;
+                }
+
+                var domain = rest.substring(0, end);
+                var tail = rest.substring(end);
+                if (domain.isEmpty() || domain.indexOf('.') < 0 && tail.isEmpty()) {
+                    return false;
+                }
+
+                if (tail.isEmpty() || tail.equals("^") || tail.equals("^|")) {
+                    domains.add(domain);
+                    return true;
+                }
+
+                // the domain is almost always more selective than anything in the path
+                var anchorEnd = tail.endsWith("|");
+                var pattern = anchorEnd ? tail.substring(0, tail.length() - 1) : tail;
+                keys.add(domain);
+                rules.add(new PatternRule(domain, pattern, 0, domain.length(), false, true, anchorEnd));
+                return true;
+            }
+
+            var anchorStart = rule.startsWith("|");
+            var anchorEnd = rule.length() > 1 && rule.endsWith("|");
+            var pattern = rule.substring(anchorStart ? 1 : 0, anchorEnd ? rule.length() - 1 : rule.length());
+
+            var keyOffset = longestLiteral(pattern);
+            var key = pattern.substring(keyOffset, keyOffset + literalLength(pattern, keyOffset));
+            if (key.length() < 3) {
+                // would be checked against nearly every request
+                return false;
+            }
+
+            if (!anchorStart && !anchorEnd && key.length() == pattern.length()) {
+                literals.add(pattern);
+            } else {
+                keys.add(key);
+                var prefix = pattern.substring(0, keyOffset);
+                var wildcards = (int) prefix.chars().filter(c -> c == '*').count();
+                rules.add(new PatternRule(null, pattern, keyOffset - wildcards, key.length(), wildcards > 0,
+                        anchorStart, anchorEnd));
+            }
+            return true;
+        }
+
+        /**
+         * @return the start of the longest run of characters without wildcards or separators
+         */
+        private static int longestLiteral(String pattern) {
+            var best = 0;
+            var bestLength = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                var length = literalLength(pattern, i);
+                if (length > bestLength) {
+                    best = i;
+                    bestLength = length;
+                }
+                i += length;
+            }
+            return best;
+        }
+
+        private static int literalLength(String pattern, int from) {
+            var end = from;
+            while (end < pattern.length() && "*^|".indexOf(pattern.charAt(end)) < 0) {
+                end++;
+            }
+            return end - from;
+        }
+
+        Matcher compile() {
+            // reversed domain trie
+            var domainTrie = new MCEFCharTrie.Builder();
+            var domainEndList = new ArrayList<MCEFCharTrie.Node>();
+            for (var domain : domains) {
+                var node = domainTrie.root;
+                for (int i = domain.length() - 1; i >= 0; i--) {
+                    node = domainTrie.child(node, domain.charAt(i));
+                }
+                domainEndList.add(node);
+            }
+            var domainEnds = new boolean[domainTrie.nodes.size()];
+            for (var node : domainEndList) {
+                domainEnds[node.id] = true;
+            }
+
+            // Aho-Corasick goto function
+            var automaton = new MCEFCharTrie.Builder();
+            var outputLists = new ArrayList<List<Integer>>();
+            outputLists.add(new ArrayList<>());
+            for (var literal : literals) {
+                addOutput(automaton, outputLists, literal, -1);
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                addOutput(automaton, outputLists, keys.get(i), i);
+            }
+
+            var trie = automaton.build();
+            var fail = new int[trie.size];
+            var outputs = new int[trie.size][];
+            outputs[0] = toArray(outputLists.get(0));
+
+            // breadth first, so the failure target of a node is always finished before the node itself
+            var queue = new ArrayDeque<Integer>();
+            for (int i = 0; i < trie.edgeCount(0); i++) {
+                var child = trie.edgeTarget(0, i);
+                fail[child] = 0;
+                outputs[child] = toArray(outputLists.get(child));
+                queue.add(child);
+            }
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                for (int i = 0; i < trie.edgeCount(node); i++) {
+                    var c = trie.edgeChar(node, i);
+                    var child = trie.edgeTarget(node, i);
+                    var state = fail[node];
+                    var next = trie.next(state, c);
+                    while (next < 0 && state != 0) {
+                        state = fail[state];
+                        next = trie.next(state, c);
+                    }
+                    fail[child] = Math.max(next, 0);
+
+                    outputs[child] = merge(outputLists.get(child), outputs[fail[child]]);
+                    queue.add(child);
+                }
+            }
+
+            return new Matcher(domainTrie.build(), domainEnds, trie, fail, outputs,
+                    rules.toArray(PatternRule[]::new));
+        }
+
+        private static void addOutput(MCEFCharTrie.Builder automaton, List<List<Integer>> outputLists,
+                                      String key, int rule) {
+            var node = automaton.root;
+            for (int i = 0; i < key.length(); i++) {
+                node = automaton.child(node, key.charAt(i));
+            }
+            while (outputLists.size() < automaton.nodes.size()) {
+                outputLists.add(new ArrayList<>());
+            }
+            var list = outputLists.get(node.id);
+            if (rule < 0) {
+                // a plain literal makes every other rule on this state irrelevant
+                list.clear();
+                list.add(-1);
+            } else if (!list.contains(-1)) {
+                list.add(rule);
+            }
+        }
+
+        private static int[] merge(List<Integer> own, int[] inherited) {
+            if (own.contains(-1)) {
+                return new int[]{-1};
+            }
+            if (inherited.length > 0 && inherited[0] == -1) {
+                return inherited;
+            }
+
+            var result = Arrays.copyOf(toArray(own), own.size() + inherited.length);
+            System.arraycopy(inherited, 0, result, own.size(), inherited.length);
+            return result;
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            var array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+}
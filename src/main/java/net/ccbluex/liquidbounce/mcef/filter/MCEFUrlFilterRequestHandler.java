@@ -0,0 +1,96 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.filter;
+
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.handler.CefRequestHandlerAdapter;
+import org.cef.handler.CefResourceRequestHandler;
+import org.cef.handler.CefResourceRequestHandlerAdapter;
+import org.cef.misc.BoolRef;
+import org.cef.network.CefRequest;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cancels subresource requests whose URL is blocked by a {@link MCEFUrlFilter}.
+ * Navigations are never blocked, a page the user opened should always load.
+ * <p>
+ * Installed with {@link net.ccbluex.liquidbounce.mcef.MCEFClient#addRequestHandler(org.cef.handler.CefRequestHandler)}.
+ * Add it before other request handlers, the first handler that returns a resource request handler wins.
+ * The filter can be replaced at any time, e.g. after the rule lists were updated.
+ */
+public final class MCEFUrlFilterRequestHandler extends CefRequestHandlerAdapter {
+    private static final CefResourceRequestHandler CANCEL = new CefResourceRequestHandlerAdapter() {
+        @Override
+        public boolean onBeforeResourceLoad(CefBrowser browser, CefFrame frame, CefRequest request) {
+            return true;
+        }
+    };
+
+    private volatile MCEFUrlFilter filter;
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder blocked = new LongAdder();
+
+    public MCEFUrlFilterRequestHandler(MCEFUrlFilter filter) {
+        this.filter = filter;
+    }
+
+    @Override
+    public CefResourceRequestHandler getResourceRequestHandler(CefBrowser browser, CefFrame frame, CefRequest request,
+                                                               boolean isNavigation, boolean isDownload,
+                                                               String requestInitiator, BoolRef disableDefaultHandling) {
+        if (isNavigation || isDownload) {
+            return null;
+        }
+
+        checked.increment();
+        if (!filter.isBlocked(request.getURL())) {
+            return null;
+        }
+
+        blocked.increment();
+        return CANCEL;
+    }
+
+    public MCEFUrlFilter getFilter() {
+        return filter;
+    }
+
+    public void setFilter(MCEFUrlFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return the number of subresource requests checked against the filter
+     */
+    public long getCheckedCount() {
+        return checked.sum();
+    }
+
+    /**
+     * @return the number of subresource requests that were cancelled
+     */
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.metrics;
+
+import java.util.Arrays;
+
+/**
+ * A small fixed-size histogram with logarithmic buckets, four per power of two.
+ * Precision is therefore about 25%, which is plenty for latency and timing distributions
+ * while keeping recording allocation-free and the memory footprint constant.
+ * <p>
+ * The histogram is unit agnostic; callers decide what a recorded value means.
+ */
+public class MCEFHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 48 * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile the percentile to look up, between 0 and 100
+     * @return the upper bound of the bucket that contains the given percentile, capped at the largest recorded value
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        var target = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100d);
+        if (target < 1) target = 1;
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.max(Math.min(upperBoundOf(i), max), min);
+            }
+        }
+
+        return max;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, max=%d".formatted(
+                count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max
+        );
+    }
+
+    private static int bucketOf(long value) {
+        if (value == 0) {
+            return 0;
+        }
+
+        // position of the highest bit, the next SUB_BUCKET_BITS bits select the sub bucket
+        var exponent = 63 - Long.numberOfLeadingZeros(value);
+        var subBucket = exponent >= SUB_BUCKET_BITS
+                ? (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1))
+                : (int) ((value << (SUB_BUCKET_BITS - exponent)) & (SUB_BUCKETS - 1));
+
+        return Math.min(exponent * SUB_BUCKETS + subBucket, BUCKETS - 1);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        var exponent = bucket / SUB_BUCKETS;
+        var subBucket = bucket % SUB_BUCKETS;
+        var lowerBound = ((long) (SUB_BUCKETS + subBucket) << exponent) >> SUB_BUCKET_BITS;
+        var upperBound = (((long) (SUB_BUCKETS + subBucket + 1) << exponent) >> SUB_BUCKET_BITS) - 1;
+        // the smallest buckets are narrower than one unit
+        return Math.max(lowerBound, upperBound);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.metrics;
+
+import net.ccbluex.liquidbounce.mcef.MCEFBrowser;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Measures the time from an input being handed to a {@link MCEFBrowser} until the first
+ * painted frame that follows it. Disabled by default; while disabled, every hook returns right away.
+ * <p>
+ * With the probe enabled, a {@code requestAnimationFrame} callback is injected after every key and
+ * mouse button input. An input is then only matched to a paint once its probe has reported back,
+ * which confirms the renderer has actually processed the input before the damage was produced.
+ * Mouse moves and wheel events are never probed since they arrive far too often.
+ * <p>
+ * All latencies are recorded in microseconds.
+ */
+public class MCEFLatencyTracker {
+    /**
+     * Console messages starting with this prefix are consumed by {@link #onConsoleMessage(String)}.
+     */
+    public static final String PROBE_PREFIX = "__mcef_latency_probe:";
+    private static final int MAX_PENDING = 256;
+
+    private final MCEFBrowser browser;
+    private final Map<InputType, MCEFHistogram> paintLatency = new EnumMap<>(InputType.class);
+    private final Map<InputType, MCEFHistogram> probeLatency = new EnumMap<>(InputType.class);
+    private final ArrayDeque<PendingInput> pending = new ArrayDeque<>();
+    private volatile boolean enabled = false;
+    private volatile boolean probeEnabled = false;
+    private long nextProbeId = 0;
+    private long dropped = 0;
+
+    public MCEFLatencyTracker(MCEFBrowser browser) {
+        this.browser = browser;
+
+        for (var type : InputType.values()) {
+            paintLatency.put(type, new MCEFHistogram());
+            probeLatency.put(type, new MCEFHistogram());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+
+        if (!enabled) {
+            synchronized (this) {
+                pending.clear();
+            }
+        }
+    }
+
+    public boolean isProbeEnabled() {
+        return probeEnabled;
+    }
+
+    /**
+     * Enables the injected {@code requestAnimationFrame} probe, see the class documentation.
+     */
+    public void setProbeEnabled(boolean probeEnabled) {
+        this.probeEnabled = probeEnabled;
+    }
+
+    /**
+     * Called whenever input is handed to the browser, before any queueing.
+     *
+     * @return the probe for this input, or null if it is not probed. It has to be sent the same way as the input
+     * and right after it, so it cannot reach the renderer first
+     */
+    public Runnable onInput(InputType type) {
+        if (!enabled) {
+            return null;
+        }
+
+        var now = System.nanoTime();
+        long probeId = -1;
+
+        synchronized (this) {
+            var last = pending.peekLast();
+            // keep only the first of a run of moves or wheel events, they are all answered by the same paint
+            if (!type.probed && last != null && last.type == type) {
+                return null;
+            }
+
+            if (pending.size() >= MAX_PENDING) {
+                pending.pollFirst();
+                dropped++;
+            }
+
+            var input = new PendingInput(type, now);
+            if (probeEnabled && type.probed) {
+                input.probeId = probeId = nextProbeId++;
+            }
+            pending.addLast(input);
+        }
+
+        if (probeId == -1) {
+            return null;
+        }
+
+        var script = "requestAnimationFrame(function(){console.debug('" + PROBE_PREFIX + probeId + "');});";
+        return () -> browser.executeJavaScript(script, "", 0);
+    }
+
+    /**
+     * Called for every painted frame that contains damage.
+     */
+    public void onPaint() {
+        if (!enabled) {
+            return;
+        }
+
+        var now = System.nanoTime();
+
+        synchronized (this) {
+            var iterator = pending.iterator();
+            while (iterator.hasNext()) {
+                var input = iterator.next();
+                if (input.probeId != -1 && input.probedAt == 0) {
+                    // still waiting for the renderer to see this input
+                    continue;
+                }
+
+                paintLatency.get(input.type).record((now - input.time) / 1000);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if the message was a probe report and should not be passed on
+     */
+    public boolean onConsoleMessage(String message) {
+        if (message == null || !message.startsWith(PROBE_PREFIX)) {
+            return false;
+        }
+
+        long probeId;
+        try {
+            probeId = Long.parseLong(message.substring(PROBE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        var now = System.nanoTime();
+        synchronized (this) {
+            for (var input : pending) {
+                if (input.probeId == probeId) {
+                    input.probedAt = now;
+                    probeLatency.get(input.type).record((now - input.time) / 1000);
+                    break;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the input to paint latency histogram for the given input type, in microseconds
+     */
+    public MCEFHistogram getPaintLatency(InputType type) {
+        return paintLatency.get(type);
+    }
+
+    /**
+     * @return the input to {@code requestAnimationFrame} latency histogram for the given input type, in microseconds
+     */
+    public MCEFHistogram getProbeLatency(InputType type) {
+        return probeLatency.get(type);
+    }
+
+    /**
+     * @return the number of inputs that were discarded because no paint followed them in time
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized void reset() {
+        pending.clear();
+        dropped = 0;
+        paintLatency.values().forEach(MCEFHistogram::reset);
+        probeLatency.values().forEach(MCEFHistogram::reset);
+    }
+
+    public enum InputType {
+        KEY(true),
+        MOUSE_BUTTON(true),
+        MOUSE_MOVE(false),
+        MOUSE_WHEEL(false);
+
+        private final boolean probed;
+
+        InputType(boolean probed) {
+            this.probed = probed;
+        }
+    }
+
+    private static final class PendingInput {
+        private final InputType type;
+        private final long time;
+        private long probeId = -1;
+        private long probedAt = 0;
+
+        private PendingInput(InputType type, long time) {
+            this.type = type;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.metrics;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import org.cef.browser.CefBrowser;
+import org.cef.handler.CefLoadHandler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records how long navigations of main frames take, aggregated per URL. Disabled by default.
+ * <p>
+ * The Java side measures from the navigation request ({@code onBeforeBrowse}) to load start, the first paint
+ * and load end. Once a page has loaded, a probe reads its Navigation Timing entry and reports time to first byte,
+ * DOM interactive, DOM content loaded and the end of the load event back through the console.
+ * <p>
+ * URLs are aggregated without query and fragment, and only the most recently used ones are kept.
+ * Each metric keeps a rolling window of the latest navigations. All times are recorded in microseconds.
+ */
+public class MCEFNavigationTelemetry {
+    /**
+     * Console messages starting with this prefix are consumed by {@link #onConsoleMessage(CefBrowser, String)}.
+     */
+    public static final String PROBE_PREFIX = "__mcef_navtiming:";
+    private static final int MAX_URLS = 256;
+    private static final int WINDOW = 200;
+
+    private final Map<CefBrowser, Navigation> navigations = new ConcurrentHashMap<>();
+    private final Map<String, UrlStats> stats = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UrlStats> eldest) {
+            return size() > MAX_URLS;
+        }
+    };
+    private volatile boolean enabled = false;
+    private long nextNavigationId = 0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+
+        if (!enabled) {
+            navigations.clear();
+        }
+    }
+
+    public void onBeforeBrowse(CefBrowser browser, String url) {
+        navigations.put(browser, new Navigation(nextId(), keyOf(url), System.nanoTime()));
+    }
+
+    public void onLoadStart(CefBrowser browser, String url) {
+        var now = System.nanoTime();
+        var navigation = navigations.get(browser);
+        var key = keyOf(url);
+
+        if (navigation == null || !navigation.url.equals(key)) {
+            // e.g. the initial navigation, or a redirect to another URL, there is no better start than now
+            navigation = new Navigation(nextId(), key, now);
+            navigations.put(browser, navigation);
+        } else {
+            record(navigation, Metric.LOAD_START, (now - navigation.start) / 1000L);
+        }
+        navigation.loadStarted = true;
+    }
+
+    /**
+     * Called on every paint of a browser.
+     */
+    public void onPaint(CefBrowser browser) {
+        var navigation = navigations.get(browser);
+        if (navigation != null && navigation.loadStarted && !navigation.painted) {
+            navigation.painted = true;
+            record(navigation, Metric.FIRST_PAINT, (System.nanoTime() - navigation.start) / 1000L);
+        }
+    }
+
+    public void onLoadEnd(CefBrowser browser) {
+        var navigation = navigations.get(browser);
+        if (navigation == null || !navigation.loadStarted) {
+            return;
+        }
+
+        record(navigation, Metric.LOAD_END, (System.nanoTime() - navigation.start) / 1000L);
+        var urlStats = statsOf(navigation.url);
+        synchronized (stats) {
+            urlStats.loads++;
+        }
+
+        // the load event may still be running, the probe waits until its end is known
+        browser.executeJavaScript("""
+                (function () {
+                    function report() {
+                        var entry = performance.getEntriesByType('navigation')[0];
+                        if (!entry) return;
+                        if (!entry.loadEventEnd) { setTimeout(report, 50); return; }
+                        console.debug('%s%d:' + JSON.stringify([entry.responseStart, entry.domInteractive,
+                            entry.domContentLoadedEventEnd, entry.loadEventEnd]));
+                    }
+                    report();
+                })();""".formatted(PROBE_PREFIX, navigation.id), "mcef://telemetry", 0);
+    }
+
+    public void onLoadError(CefBrowser browser, String url, CefLoadHandler.ErrorCode errorCode) {
+        // aborts are navigations replaced by other navigations, not failures
+        if (errorCode == CefLoadHandler.ErrorCode.ERR_ABORTED) {
+            return;
+        }
+
+        var navigation = navigations.remove(browser);
+        var urlStats = statsOf(navigation != null ? navigation.url : keyOf(url));
+        synchronized (stats) {
+            urlStats.errors++;
+        }
+    }
+
+    /**
+     * @return whether the message was a probe report and should not be shown
+     */
+    public boolean onConsoleMessage(CefBrowser browser, String message) {
+        if (!message.startsWith(PROBE_PREFIX)) {
+            return false;
+        }
+
+        var navigation = navigations.get(browser);
+        try {
+            var separator = message.indexOf(':', PROBE_PREFIX.length());
+            var id = Long.parseLong(message.substring(PROBE_PREFIX.length(), separator));
+            if (navigation == null || navigation.id != id) {
+                // the page navigated again in the meantime
+                return true;
+            }
+
+            var values = message.substring(separator + 2, message.length() - 1).split(",");
+            var metrics = new Metric[]{Metric.TIME_TO_FIRST_BYTE, Metric.DOM_INTERACTIVE,
+                    Metric.DOM_CONTENT_LOADED, Metric.LOAD_EVENT};
+            for (int i = 0; i < metrics.length && i < values.length; i++) {
+                // Navigation Timing values are milliseconds since the navigation started
+                record(navigation, metrics[i], (long) (Double.parseDouble(values[i]) * 1000.0));
+            }
+        } catch (RuntimeException e) {
+            MCEF.INSTANCE.getLogger().debug("Malformed navigation timing report {}", message, e);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the navigation of a closed browser, the aggregated stats are kept.
+     */
+    public void remove(CefBrowser browser) {
+        navigations.remove(browser);
+    }
+
+    /**
+     * @return the stats of a URL without query and fragment, or null if it was never loaded
+     */
+    public Stats getStats(String url) {
+        synchronized (stats) {
+            var urlStats = stats.get(keyOf(url));
+            return urlStats != null ? urlStats.snapshot(keyOf(url)) : null;
+        }
+    }
+
+    /**
+     * @return the stats of all tracked URLs, most recently used last
+     */
+    public List<Stats> getAllStats() {
+        synchronized (stats) {
+            var all = new ArrayList<Stats>(stats.size());
+            stats.forEach((url, urlStats) -> all.add(urlStats.snapshot(url)));
+            return all;
+        }
+    }
+
+    public void reset() {
+        synchronized (stats) {
+            stats.clear();
+        }
+        navigations.clear();
+    }
+
+    private void record(Navigation navigation, Metric metric, long micros) {
+        if (micros >= 0) {
+            statsOf(navigation.url).samples.get(metric).record(micros);
+        }
+    }
+
+    private UrlStats statsOf(String url) {
+        synchronized (stats) {
+            return stats.computeIfAbsent(url, key -> new UrlStats());
+        }
+    }
+
+    private synchronized long nextId() {
+        return nextNavigationId++;
+    }
+
+    private static String keyOf(String url) {
+        if (url == null) {
+            return "";
+        }
+
+        try {
+            var uri = new URI(url);
+            return new URI(uri.getScheme(), uri.getAuthority(), uri.getPath(), null, null).toString();
+        } catch (URISyntaxException e) {
+            var end = url.length();
+            var query = url.indexOf('?');
+            var fragment = url.indexOf('#');
+            if (query != -1) end = query;
+            if (fragment != -1 && fragment < end) end = fragment;
+            return url.substring(0, end);
+        }
+    }
+
+    public enum Metric {
+        // measured in Java from the navigation request
+        LOAD_START,
+        FIRST_PAINT,
+        LOAD_END,
+        // reported by the page, from its own navigation start
+        TIME_TO_FIRST_BYTE,
+        DOM_INTERACTIVE,
+        DOM_CONTENT_LOADED,
+        LOAD_EVENT
+    }
+
+    /**
+     * Percentiles of the latest navigations of a URL, in microseconds.
+     */
+    public record Stats(String url, long loads, long errors, Map<Metric, Percentiles> metrics) {
+        public double getErrorRate() {
+            var total = loads + errors;
+            return total == 0 ? 0 : (double) errors / total;
+        }
+    }
+
+    public record Percentiles(int samples, long p50, long p90, long p99) {
+    }
+
+    private static final class Navigation {
+        private final long id;
+        private final String url;
+        private final long start;
+        private volatile boolean loadStarted = false;
+        private volatile boolean painted = false;
+
+        private Navigation(long id, String url, long start) {
+            this.id = id;
+            this.url = url;
+            this.start = start;
+        }
+    }
+
+    private static final class UrlStats {
+        private final Map<Metric, MCEFRollingSamples> samples = new EnumMap<>(Metric.class);
+        private long loads = 0;
+        private long errors = 0;
+
+        private UrlStats() {
+            for (var metric : Metric.values()) {
+                samples.put(metric, new MCEFRollingSamples(WINDOW));
+            }
+        }
+
+        private Stats snapshot(String url) {
+            var metrics = new EnumMap<Metric, Percentiles>(Metric.class);
+            samples.forEach((metric, window) -> metrics.put(metric, new Percentiles(window.size(),
+                    window.getPercentile(50), window.getPercentile(90), window.getPercentile(99))));
+            return new Stats(url, loads, errors, metrics);
+        }
+    }
+}
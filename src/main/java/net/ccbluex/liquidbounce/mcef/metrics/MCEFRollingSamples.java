@@ -0,0 +1,81 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.metrics;
+
+import java.util.Arrays;
+
+/**
+ * The most recent values of a metric, for percentiles over a rolling window rather than all time
+ * like {@link MCEFHistogram}. The window is small, so percentiles are exact and computed on demand.
+ */
+public class MCEFRollingSamples {
+    private final long[] samples;
+    private int next = 0;
+    private int size = 0;
+    private long total = 0;
+
+    public MCEFRollingSamples(int window) {
+        this.samples = new long[window];
+    }
+
+    public synchronized void record(long value) {
+        samples[next] = value;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+        total++;
+    }
+
+    /**
+     * @return the number of values in the window
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of values ever recorded
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value at the percentile within the window, or 0 if it is empty
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+
+        var sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        var index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+        total = 0;
+    }
+}
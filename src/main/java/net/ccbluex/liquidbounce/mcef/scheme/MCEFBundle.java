@@ -0,0 +1,187 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A read-only view of a bundle written by {@link MCEFBundlePacker}.
+ * <p>
+ * The whole file is memory-mapped once and only the index is parsed up front; entries are served
+ * as slices of the mapping, so opening one costs a map lookup instead of a file system open and seek.
+ * <p>
+ * Layout: magic, version, entry count and index length as ints, the index, then the entry data.
+ * Each index entry holds path, MIME type and ETag as modified UTF-8, a gzip flag, and the offset,
+ * stored length and original length of its data.
+ */
+public final class MCEFBundle {
+    static final int MAGIC = 0x4D434250; // MCBP
+    static final int VERSION = 1;
+    static final int PREFIX_LENGTH = 16;
+    /**
+     * An index entry with empty strings: three UTF lengths, the gzip flag and three ints.
+     */
+    private static final int MIN_ENTRY_LENGTH = 3 * 2 + 1 + 3 * 4;
+
+    private final Path path;
+    private final ByteBuffer mapping;
+    private final Map<String, Entry> entries;
+
+    private MCEFBundle(Path path, ByteBuffer mapping, Map<String, Entry> entries) {
+        this.path = path;
+        this.mapping = mapping;
+        this.entries = entries;
+    }
+
+    public static MCEFBundle open(Path path) throws IOException {
+        ByteBuffer mapping;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Bundle " + path + " is larger than 2 GB");
+            }
+
+            // the mapping stays valid after the channel is closed
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (mapping.limit() < PREFIX_LENGTH || mapping.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a bundle");
+        }
+        if (mapping.getInt(4) != VERSION) {
+            throw new IOException("Unsupported bundle version " + mapping.getInt(4) + " in " + path);
+        }
+
+        var count = mapping.getInt(8);
+        var indexLength = mapping.getInt(12);
+        if (indexLength < 0 || PREFIX_LENGTH + (long) indexLength > mapping.limit()) {
+            throw new IOException("Bundle " + path + " is truncated in its index");
+        }
+        if (count < 0 || (long) count * MIN_ENTRY_LENGTH > indexLength) {
+            throw new IOException("Bundle " + path + " has a corrupt entry count " + count);
+        }
+
+        var index = new byte[indexLength];
+        mapping.get(PREFIX_LENGTH, index);
+
+        var in = new DataInputStream(new ByteArrayInputStream(index));
+        var entries = new HashMap<String, Entry>(count * 2);
+        for (int i = 0; i < count; i++) {
+            var entry = new Entry(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean(),
+                    in.readInt(), in.readInt(), in.readInt());
+
+            if (entry.offset() < 0 || entry.storedLength() < 0
+                    || (long) entry.offset() + entry.storedLength() > mapping.limit()) {
+                throw new IOException("Bundle " + path + " is truncated at " + entry.path());
+            }
+            entries.put(entry.path(), entry);
+        }
+
+        return new MCEFBundle(path, mapping, Collections.unmodifiableMap(entries));
+    }
+
+    public Entry getEntry(String path) {
+        return entries.get(path);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * @return the stored bytes of the entry, compressed if {@link Entry#gzip()} is set
+     */
+    public ByteBuffer slice(Entry entry) {
+        return mapping.slice(entry.offset(), entry.storedLength()).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the entry as a resource, or null if there is none at this path
+     */
+    public MCEFSchemeResource open(String path) throws IOException {
+        var entry = entries.get(path);
+        if (entry == null) {
+            return null;
+        }
+
+        var data = slice(entry);
+        if (!entry.gzip()) {
+            return MCEFSchemeResource.of(data, entry.mimeType(), entry.etag());
+        }
+
+        // Chromium does not decode Content-Encoding on scheme handler responses, so inflate here
+        var stream = new GZIPInputStream(new ByteBufferInputStream(data), 8192);
+        return MCEFSchemeResource.of(stream, entry.length(), entry.mimeType(), entry.etag());
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @param etag    quoted, derived from the original content
+     * @param offset  absolute position of the data in the bundle
+     * @param length  length of the original content
+     */
+    public record Entry(String path, String mimeType, String etag, boolean gzip,
+                        int offset, int storedLength, int length) {
+    }
+
+    private static final class ByteBufferInputStream extends java.io.InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            var count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
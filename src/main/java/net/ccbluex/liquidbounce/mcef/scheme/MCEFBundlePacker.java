@@ -0,0 +1,181 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packs a directory of UI assets into a single {@link MCEFBundle}. Meant to run at build time, e.g. from a Gradle
+ * task of the mod that ships the UI, or with {@code ./gradlew packBundle -PbundleInput=dist -PbundleOutput=ui.bundle}.
+ */
+public class MCEFBundlePacker {
+    /**
+     * Types worth compressing, everything else is usually compressed already.
+     */
+    private static final Set<String> COMPRESSIBLE = Set.of(
+            "text/html", "text/css", "text/javascript", "text/plain", "application/json",
+            "application/xml", "application/wasm", "image/svg+xml"
+    );
+
+    private final TreeMap<String, byte[]> files = new TreeMap<>();
+    private boolean gzip = false;
+
+    /**
+     * Stores compressible entries gzipped when that saves at least an eighth of their size.
+     * Smaller bundles load faster from cold disks, at the cost of inflating those entries on every read.
+     */
+    public MCEFBundlePacker setGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    public MCEFBundlePacker add(String path, byte[] content) {
+        files.put(path, content);
+        return this;
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    public MCEFBundlePacker addDirectory(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            for (var file : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+                var path = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                add(path, Files.readAllBytes(file));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the bundle to a temporary file next to the output and moves it into place,
+     * so a running {@link MCEFBundleResourceProvider} never sees a partial bundle.
+     */
+    public void write(Path output) throws IOException {
+        var entries = new ArrayList<MCEFBundle.Entry>(files.size());
+        var data = new ArrayList<byte[]>(files.size());
+
+        for (var file : files.entrySet()) {
+            var path = file.getKey();
+            var content = file.getValue();
+            var mimeType = MCEFMimeTypes.of(path);
+            var etag = "\"" + DigestUtils.sha256Hex(content).substring(0, 16) + "\"";
+
+            var stored = content;
+            if (gzip && COMPRESSIBLE.contains(mimeType)) {
+                var compressed = compress(content);
+                if (compressed.length < content.length - content.length / 8) {
+                    stored = compressed;
+                }
+            }
+
+            entries.add(new MCEFBundle.Entry(path, mimeType, etag, stored != content, 0, stored.length, content.length));
+            data.add(stored);
+        }
+
+        var indexLength = writeIndex(entries).length;
+        var offset = (long) MCEFBundle.PREFIX_LENGTH + indexLength;
+        for (int i = 0; i < entries.size(); i++) {
+            var entry = entries.get(i);
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Bundle would be larger than 2 GB");
+            }
+
+            entries.set(i, new MCEFBundle.Entry(entry.path(), entry.mimeType(), entry.etag(), entry.gzip(),
+                    (int) offset, entry.storedLength(), entry.length()));
+            offset += entry.storedLength();
+        }
+        // offsets have a fixed width, so the index length does not change by filling them in
+        var index = writeIndex(entries);
+
+        var prefix = ByteBuffer.allocate(MCEFBundle.PREFIX_LENGTH)
+                .putInt(MCEFBundle.MAGIC)
+                .putInt(MCEFBundle.VERSION)
+                .putInt(entries.size())
+                .putInt(index.length)
+                .flip();
+
+        var directory = output.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        var temp = Files.createTempFile(directory, output.getFileName().toString(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeFully(channel, prefix);
+                writeFully(channel, ByteBuffer.wrap(index));
+                for (var bytes : data) {
+                    writeFully(channel, ByteBuffer.wrap(bytes));
+                }
+            }
+
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte[] writeIndex(List<MCEFBundle.Entry> entries) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        for (var entry : entries) {
+            out.writeUTF(entry.path());
+            out.writeUTF(entry.mimeType());
+            out.writeUTF(entry.etag());
+            out.writeBoolean(entry.gzip());
+            out.writeInt(entry.offset());
+            out.writeInt(entry.storedLength());
+            out.writeInt(entry.length());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] compress(byte[] content) throws IOException {
+        var bytes = new ByteArrayOutputStream(content.length / 2);
+        try (var out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
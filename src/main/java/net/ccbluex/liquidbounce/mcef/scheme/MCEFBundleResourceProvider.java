@@ -0,0 +1,75 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Serves a {@link MCEFBundle}. The bundle can be swapped while browsers are using it: requests that
+ * already opened an entry finish on the old mapping, which is released once nothing refers to it anymore.
+ */
+public class MCEFBundleResourceProvider implements MCEFResourceProvider {
+    private volatile MCEFBundle bundle;
+
+    public MCEFBundleResourceProvider(MCEFBundle bundle) {
+        this.bundle = bundle;
+    }
+
+    public MCEFBundleResourceProvider(Path path) throws IOException {
+        this(MCEFBundle.open(path));
+    }
+
+    @Override
+    public MCEFSchemeResource open(String path) throws IOException {
+        return bundle.open(path);
+    }
+
+    public MCEFBundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Replaces the served bundle, e.g. after a UI update was downloaded.
+     */
+    public void swap(MCEFBundle bundle) {
+        this.bundle = bundle;
+    }
+
+    /**
+     * Reopens the bundle from its path, keeping the current one if the new file cannot be read.
+     *
+     * @return whether the bundle was replaced
+     */
+    public boolean reload() {
+        var current = bundle;
+        try {
+            swap(MCEFBundle.open(current.getPath()));
+            return true;
+        } catch (IOException e) {
+            MCEF.INSTANCE.getLogger().error("Failed to reload bundle {}", current.getPath(), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves files from a directory on disk. Files are memory-mapped, so nothing is copied onto the heap
+ * and range requests for media only touch the pages that are actually read. Files too large for a single
+ * mapping are streamed instead.
+ */
+public class MCEFDirectoryResourceProvider implements MCEFResourceProvider {
+    private final Path root;
+
+    public MCEFDirectoryResourceProvider(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public MCEFSchemeResource open(String path) throws IOException {
+        var file = root.resolve(path).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file)) {
+            return null;
+        }
+
+        var channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            var size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                // a ByteBuffer cannot map 2 GiB or more, the stream owns the channel from here on
+                return MCEFSchemeResource.of(Channels.newInputStream(channel), size, MCEFMimeTypes.of(path));
+            }
+
+            // the mapping stays valid after the channel is closed
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            channel.close();
+            return MCEFSchemeResource.of(buffer, MCEFMimeTypes.of(path));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import net.ccbluex.liquidbounce.mcef.util.MCEFSingleFlight;
+import net.minecraft.client.texture.NativeImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves images and binary blobs generated by the game, e.g. skins, item icons or map tiles, to pages by URL.
+ * <p>
+ * Resources are either {@link #put(String, Source) put} at a path or produced on demand by a {@link Resolver} for
+ * all paths below a prefix, which is cheaper for large sets like every item. A {@link Source} only describes the
+ * content and its version, nothing is encoded until a page asks for it. Encoding runs on encoder threads, the CEF
+ * IO thread never waits for it, and the result is kept in an LRU cache for as long as the version stays the same.
+ * The version doubles as ETag, so pages revalidating a resource that did not change get a 304 without any encoding.
+ * <p>
+ * Large blobs are {@link Source#stream(long, String, long, StreamOpener) streamed} from an input stream instead,
+ * without being cached or held in memory as a whole.
+ * <pre>{@code
+ * var provider = new MCEFGeneratedResourceProvider();
+ * provider.addResolver("item/", path -> Source.png(itemVersion, () -> renderItemIcon(path)));
+ * MCEF.INSTANCE.getApp().registerResourceProvider("mcef", "game", provider);
+ * // <img src="mcef://game/item/diamond.png">
+ * }</pre>
+ */
+public class MCEFGeneratedResourceProvider implements MCEFResourceProvider {
+    private final Map<String, Source> sources = new ConcurrentHashMap<>();
+    private final Map<String, Resolver> resolvers = new ConcurrentHashMap<>();
+    private final MCEFSingleFlight<String, Encoded> inFlight = new MCEFSingleFlight<>();
+    private final EncodedCache cache = new EncodedCache();
+    private final ExecutorService executor;
+
+    private volatile int maxEntrySize = 4 * 1024 * 1024;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+
+    public MCEFGeneratedResourceProvider() {
+        var threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+            var thread = new Thread(runnable, "MCEF-Encoder-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Serves the source at the given path, replacing what was there. Put a source with a new version when the
+     * content changed, the old encoding is dropped the next time the path is requested.
+     */
+    public void put(String path, Source source) {
+        sources.put(path, source);
+    }
+
+    public void remove(String path) {
+        sources.remove(path);
+        cache.remove(path);
+    }
+
+    /**
+     * Resolves every path starting with the prefix that was not {@link #put(String, Source) put} explicitly.
+     * The longest matching prefix wins.
+     */
+    public void addResolver(String prefix, Resolver resolver) {
+        resolvers.put(prefix, resolver);
+    }
+
+    public void removeResolver(String prefix) {
+        resolvers.remove(prefix);
+    }
+
+    /**
+     * The total size of encoded resources kept in memory, in bytes.
+     */
+    public void setMemoryLimit(long bytes) {
+        cache.setLimit(bytes);
+    }
+
+    /**
+     * Encoded resources above this size are served once and not cached.
+     */
+    public void setMaxEntrySize(int bytes) {
+        this.maxEntrySize = bytes;
+    }
+
+    /**
+     * Drops every cached encoding, e.g. after a resource reload changed all textures.
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    @Override
+    public MCEFSchemeResource open(String path) throws IOException {
+        try {
+            return openAsync(path).join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to generate " + path, e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<MCEFSchemeResource> openAsync(String path) {
+        var source = sourceOf(path);
+        if (source == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var etag = "\"" + Long.toHexString(source.version()) + "\"";
+        if (source.stream() != null) {
+            // opening a stream may block as well
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return MCEFSchemeResource.of(source.stream().open(), source.length(), source.mimeType(), etag);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        var cached = cache.get(path, source.version());
+        if (cached != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(MCEFSchemeResource.of(cached.data(), source.mimeType(), etag));
+        }
+
+        misses.increment();
+        return encode(path, source).thenApply(encoded -> MCEFSchemeResource.of(encoded.data(), source.mimeType(), etag));
+    }
+
+    private CompletableFuture<Encoded> encode(String path, Source source) {
+        // one encoding per path and version, concurrent requests share it
+        var key = path + '\0' + source.version();
+        return inFlight.run(key, () -> CompletableFuture.supplyAsync(() -> {
+            try {
+                var data = source.encoder().encode().asReadOnlyBuffer();
+                var encoded = new Encoded(source.version(), data);
+                encodedBytes.add(data.remaining());
+                if (data.remaining() <= maxEntrySize) {
+                    cache.put(path, encoded);
+                }
+                return encoded;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    private Source sourceOf(String path) {
+        var source = sources.get(path);
+        if (source != null) {
+            return source;
+        }
+
+        String bestPrefix = null;
+        for (var prefix : resolvers.keySet()) {
+            if (path.startsWith(prefix) && (bestPrefix == null || prefix.length() > bestPrefix.length())) {
+                bestPrefix = prefix;
+            }
+        }
+        if (bestPrefix == null) {
+            return null;
+        }
+
+        var resolver = resolvers.get(bestPrefix);
+        return resolver != null ? resolver.resolve(path) : null;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the bytes produced by encoders so far
+     */
+    public long getEncodedBytes() {
+        return encodedBytes.sum();
+    }
+
+    public long getMemorySize() {
+        return cache.size();
+    }
+
+    /**
+     * Produces the resources below a prefix. Called on the CEF IO thread for every request, so it should only
+     * look up the content and its version and leave the encoding to the returned {@link Source}.
+     */
+    @FunctionalInterface
+    public interface Resolver {
+        /**
+         * @return the source, or null if there is nothing at this path
+         */
+        Source resolve(String path);
+    }
+
+    @FunctionalInterface
+    public interface Encoder {
+        /**
+         * Called on an encoder thread.
+         */
+        ByteBuffer encode() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface StreamOpener {
+        /**
+         * Called on an encoder thread, the stream is closed once the response was sent.
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * What is served at a path. The version identifies the content, e.g. a counter bumped on every change
+     * or a hash, and has to change whenever the content does.
+     *
+     * @param length the length of a streamed source, or -1 if unknown
+     */
+    public record Source(long version, String mimeType, Encoder encoder, StreamOpener stream, long length) {
+
+        public static Source of(long version, String mimeType, Encoder encoder) {
+            return new Source(version, mimeType, encoder, null, -1);
+        }
+
+        public static Source of(long version, String mimeType, byte[] data) {
+            return of(version, mimeType, () -> ByteBuffer.wrap(data));
+        }
+
+        /**
+         * Encodes an image as PNG. The supplier is called on an encoder thread and the image closed afterwards,
+         * so it should hand out a copy if the game keeps using the original.
+         */
+        public static Source png(long version, ImageSupplier image) {
+            return of(version, "image/png", () -> {
+                try (var nativeImage = image.get()) {
+                    return ByteBuffer.wrap(nativeImage.getBytes());
+                }
+            });
+        }
+
+        public static Source stream(long version, String mimeType, long length, StreamOpener stream) {
+            return new Source(version, mimeType, null, stream, length);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ImageSupplier {
+        NativeImage get() throws IOException;
+    }
+
+    private record Encoded(long version, ByteBuffer data) {
+    }
+
+    /**
+     * Encoded resources by path, least recently used first.
+     */
+    private static final class EncodedCache {
+        private final LinkedHashMap<String, Encoded> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long limit = 64L * 1024 * 1024;
+        private long size = 0;
+
+        synchronized Encoded get(String path, long version) {
+            var encoded = entries.get(path);
+            if (encoded == null) {
+                return null;
+            }
+            if (encoded.version() != version) {
+                // outdated, the new version is encoded in its place
+                remove(path);
+                return null;
+            }
+            return encoded;
+        }
+
+        synchronized void put(String path, Encoded encoded) {
+            remove(path);
+            entries.put(path, encoded);
+            size += encoded.data().remaining();
+            trim();
+        }
+
+        synchronized void remove(String path) {
+            var encoded = entries.remove(path);
+            if (encoded != null) {
+                size -= encoded.data().remaining();
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            size = 0;
+        }
+
+        synchronized void setLimit(long limit) {
+            this.limit = limit;
+            trim();
+        }
+
+        synchronized long size() {
+            return size;
+        }
+
+        private void trim() {
+            var iterator = entries.values().iterator();
+            while (size > limit && iterator.hasNext()) {
+                size -= iterator.next().data().remaining();
+                iterator.remove();
+            }
+        }
+    }
+}
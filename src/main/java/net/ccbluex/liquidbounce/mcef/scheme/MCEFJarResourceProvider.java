@@ -0,0 +1,62 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import java.io.IOException;
+
+/**
+ * Serves files packaged in a jar, or anything else visible to a class loader, e.g. {@code assets/mymod/ui}
+ * inside the mod jar. Entries are streamed, never read into a byte array as a whole.
+ */
+public class MCEFJarResourceProvider implements MCEFResourceProvider {
+    private final ClassLoader classLoader;
+    private final String root;
+
+    /**
+     * @param root the directory inside the jar, without leading or trailing slash
+     */
+    public MCEFJarResourceProvider(ClassLoader classLoader, String root) {
+        this.classLoader = classLoader;
+        this.root = root;
+    }
+
+    public MCEFJarResourceProvider(Class<?> owner, String root) {
+        this(owner.getClassLoader(), root);
+    }
+
+    @Override
+    public MCEFSchemeResource open(String path) throws IOException {
+        if (MCEFResourceProvider.isTraversal(path)) {
+            return null;
+        }
+
+        var url = classLoader.getResource(root.isEmpty() ? path : root + "/" + path);
+        if (url == null) {
+            return null;
+        }
+
+        var connection = url.openConnection();
+        // jar entries know their size from the central directory, no need to read them for it
+        var length = connection.getContentLengthLong();
+        return MCEFSchemeResource.of(connection.getInputStream(), length, MCEFMimeTypes.of(path));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import net.minecraft.util.Identifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static net.ccbluex.liquidbounce.mcef.MCEF.mc;
+
+/**
+ * Serves files through Minecraft's resource manager, so resource packs can override the UI.
+ * Resource pack entries do not expose their size, so range requests are answered with the full file.
+ * <p>
+ * The resource manager is swapped out while resource packs reload, so entries are looked up and opened on the
+ * render thread rather than on the CEF IO thread that asks for them. Page requests go through {@link #openAsync},
+ * which leaves the IO thread free until the render thread got to it.
+ */
+public class MCEFResourcePackProvider implements MCEFResourceProvider {
+    /**
+     * How long {@link #open} waits for the render thread before giving up, e.g. while the game is stopping.
+     */
+    private static final long OPEN_TIMEOUT_SECONDS = 10;
+
+    private final String namespace;
+    private final String root;
+
+    /**
+     * @param root the directory inside the namespace, e.g. {@code ui} for {@code assets/<namespace>/ui}
+     */
+    public MCEFResourcePackProvider(String namespace, String root) {
+        this.namespace = namespace;
+        this.root = root;
+    }
+
+    /**
+     * Blocks until the render thread opened the entry, so only meant for callers other than the CEF IO thread.
+     */
+    @Override
+    public MCEFSchemeResource open(String path) throws IOException {
+        var id = identifierOf(path);
+        if (id == null) {
+            return null;
+        }
+
+        var future = submitOpen(id);
+        try {
+            return toResource(future.get(OPEN_TIMEOUT_SECONDS, TimeUnit.SECONDS), path);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw new IOException("Failed to open " + id, e.getCause());
+        } catch (TimeoutException e) {
+            future.thenAccept(MCEFResourcePackProvider::closeQuietly);
+            throw new IOException("Timed out opening " + id + " on the render thread", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted opening " + id, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<MCEFSchemeResource> openAsync(String path) {
+        var id = identifierOf(path);
+        if (id == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return submitOpen(id).thenApply(stream -> toResource(stream, path));
+    }
+
+    private Identifier identifierOf(String path) {
+        var resourcePath = root.isEmpty() ? path : root + "/" + path;
+        if (MCEFResourceProvider.isTraversal(path) || !Identifier.isPathValid(resourcePath)) {
+            return null;
+        }
+        return Identifier.of(namespace, resourcePath);
+    }
+
+    private static CompletableFuture<InputStream> submitOpen(Identifier id) {
+        return mc.submit(() -> {
+            var resource = mc.getResourceManager().getResource(id);
+            if (resource.isEmpty()) {
+                return null;
+            }
+
+            try {
+                return resource.get().getInputStream();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static MCEFSchemeResource toResource(InputStream stream, String path) {
+        return stream != null ? MCEFSchemeResource.of(stream, -1, MCEFMimeTypes.of(path)) : null;
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Supplies the files behind a custom scheme domain, see {@link net.ccbluex.liquidbounce.mcef.MCEFApp#registerResourceProvider}.
+ */
+@FunctionalInterface
+public interface MCEFResourceProvider {
+
+    /**
+     * Opens the resource at the given path. Called on the CEF IO thread.
+     *
+     * @param path the URL path without the leading slash, already URL-decoded
+     * @return the resource, or null if there is none at this path
+     */
+    MCEFSchemeResource open(String path) throws IOException;
+
+    /**
+     * Opens the resource without blocking the CEF IO thread, for providers that have to produce it first.
+     * Requests of pages go through here, by default it simply calls {@link #open(String)}.
+     *
+     * @return completes with the resource, or null if there is none at this path
+     */
+    default CompletableFuture<MCEFSchemeResource> openAsync(String path) {
+        try {
+            return CompletableFuture.completedFuture(open(path));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @return whether the path would escape the root of a provider
+     */
+    static boolean isTraversal(String path) {
+        for (var segment : path.split("[/\\\\]")) {
+            if (segment.equals("..")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
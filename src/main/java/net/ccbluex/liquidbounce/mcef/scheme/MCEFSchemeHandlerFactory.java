@@ -0,0 +1,263 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import net.ccbluex.liquidbounce.mcef.MCEF;
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.callback.CefCallback;
+import org.cef.callback.CefSchemeHandlerFactory;
+import org.cef.handler.CefResourceHandler;
+import org.cef.handler.CefResourceHandlerAdapter;
+import org.cef.misc.IntRef;
+import org.cef.misc.StringRef;
+import org.cef.network.CefRequest;
+import org.cef.network.CefResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Answers custom scheme requests from a {@link MCEFResourceProvider}, including single byte range requests.
+ */
+public class MCEFSchemeHandlerFactory implements CefSchemeHandlerFactory {
+    private static final String INDEX = "index.html";
+
+    private final MCEFResourceProvider provider;
+
+    public MCEFSchemeHandlerFactory(MCEFResourceProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Opens the resource a URL of this factory points to, the same way requests of pages do.
+     *
+     * @return the resource, or null if there is none
+     */
+    public MCEFSchemeResource open(String url) throws IOException {
+        var path = pathOf(url);
+        return path != null ? provider.open(path) : null;
+    }
+
+    private CompletableFuture<MCEFSchemeResource> openAsync(String url) {
+        var path = pathOf(url);
+        return path != null ? provider.openAsync(path) : CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CefResourceHandler create(CefBrowser browser, CefFrame frame, String schemeName, CefRequest request) {
+        return new ResourceHandler();
+    }
+
+    private final class ResourceHandler extends CefResourceHandlerAdapter {
+        // set on whichever thread the provider completed on, read on the IO thread
+        private volatile MCEFSchemeResource resource;
+        private volatile int status;
+        private volatile long start;
+        private volatile long remaining;
+        private boolean cancelled = false;
+
+        @Override
+        public boolean processRequest(CefRequest request, CefCallback callback) {
+            // the request is only valid during this call
+            var url = request.getURL();
+            var ifNoneMatch = request.getHeaderByName("If-None-Match");
+            var range = request.getHeaderByName("Range");
+
+            openAsync(url).whenComplete((resource, throwable) -> {
+                if (throwable != null) {
+                    MCEF.INSTANCE.getLogger().warn("Failed to open {}", url, throwable);
+                    resource = null;
+                }
+
+                synchronized (this) {
+                    if (cancelled) {
+                        // the request went away while the provider was still working on it
+                        closeQuietly(resource);
+                        return;
+                    }
+
+                    this.resource = resource;
+                    if (resource == null) {
+                        status = 404;
+                    } else if (resource.etag() != null && resource.etag().equals(ifNoneMatch)) {
+                        status = 304;
+                    } else {
+                        status = 200;
+                        remaining = resource.length();
+                        if (range != null && !range.isEmpty() && resource.length() >= 0) {
+                            applyRange(range, resource.length());
+                        }
+                    }
+                }
+
+                callback.Continue();
+            });
+            return true;
+        }
+
+        private void applyRange(String header, long length) {
+            if (!header.startsWith("bytes=") || header.indexOf(',') != -1) {
+                // multipart ranges are not worth it for local files, serve everything
+                return;
+            }
+
+            var spec = header.substring(6).trim();
+            var dash = spec.indexOf('-');
+            if (dash == -1) {
+                return;
+            }
+
+            try {
+                long first, last;
+                if (dash == 0) {
+                    // suffix range, the last n bytes
+                    var suffix = Long.parseLong(spec.substring(1));
+                    first = Math.max(0, length - suffix);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+                }
+
+                if (first >= length || first > last) {
+                    status = 416;
+                    return;
+                }
+
+                resource.skip(first);
+                status = 206;
+                start = first;
+                remaining = last - first + 1;
+            } catch (NumberFormatException | IOException e) {
+                // malformed or unseekable, fall back to the full response
+                status = 200;
+            }
+        }
+
+        @Override
+        public void getResponseHeaders(CefResponse response, IntRef responseLength, StringRef redirectUrl) {
+            response.setStatus(status);
+            response.setHeaderByName("Access-Control-Allow-Origin", "*", true);
+
+            switch (status) {
+                case 200, 206 -> {
+                    response.setMimeType(resource.mimeType());
+                    if (resource.etag() != null) {
+                        response.setHeaderByName("ETag", resource.etag(), true);
+                    }
+                    if (resource.length() >= 0) {
+                        response.setHeaderByName("Accept-Ranges", "bytes", true);
+                    }
+                    if (status == 206) {
+                        response.setHeaderByName("Content-Range",
+                                "bytes " + start + "-" + (start + remaining - 1) + "/" + resource.length(), true);
+                    }
+                    // lengths past an int are sent as unknown, CEF then reads until readResponse returns false
+                    responseLength.set(remaining >= 0 && remaining <= Integer.MAX_VALUE ? (int) remaining : -1);
+                }
+                case 304 -> {
+                    response.setHeaderByName("ETag", resource.etag(), true);
+                    responseLength.set(0);
+                }
+                case 416 -> {
+                    response.setHeaderByName("Content-Range", "bytes */" + resource.length(), true);
+                    responseLength.set(0);
+                }
+                default -> {
+                    response.setMimeType("text/plain");
+                    responseLength.set(0);
+                }
+            }
+        }
+
+        @Override
+        public boolean readResponse(byte[] dataOut, int bytesToRead, IntRef bytesRead, CefCallback callback) {
+            if (resource == null || (status != 200 && status != 206) || remaining == 0) {
+                bytesRead.set(0);
+                close();
+                return false;
+            }
+
+            try {
+                var toRead = remaining > 0 ? (int) Math.min(bytesToRead, remaining) : bytesToRead;
+                var read = resource.read(dataOut, 0, toRead);
+                if (read <= 0) {
+                    bytesRead.set(0);
+                    close();
+                    return false;
+                }
+
+                if (remaining > 0) {
+                    remaining -= read;
+                }
+                bytesRead.set(read);
+                return true;
+            } catch (IOException e) {
+                MCEF.INSTANCE.getLogger().warn("Failed to read custom scheme resource", e);
+                bytesRead.set(0);
+                close();
+                return false;
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            close();
+        }
+
+        private synchronized void close() {
+            closeQuietly(resource);
+            resource = null;
+        }
+    }
+
+    private static void closeQuietly(MCEFSchemeResource resource) {
+        if (resource != null) {
+            try {
+                resource.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static String pathOf(String url) {
+        try {
+            var path = new URI(url).getPath();
+            if (path == null) {
+                return null;
+            }
+            if (path.startsWith("/")) {
+                path = path.substring(1);
+            }
+            if (path.isEmpty() || path.endsWith("/")) {
+                path += INDEX;
+            }
+            return path;
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+}
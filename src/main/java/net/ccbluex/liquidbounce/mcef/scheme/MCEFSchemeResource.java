@@ -0,0 +1,146 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An opened resource served through a custom scheme. Read sequentially, the only random access
+ * needed is {@link #skip(long)} to the start of a range request.
+ */
+public interface MCEFSchemeResource extends Closeable {
+
+    /**
+     * @return the length in bytes, or -1 if it is unknown
+     */
+    long length();
+
+    String mimeType();
+
+    /**
+     * @return an entity tag to allow revalidation, or null if the resource has none
+     */
+    default String etag() {
+        return null;
+    }
+
+    void skip(long bytes) throws IOException;
+
+    /**
+     * @return the number of bytes read, or -1 at the end of the resource
+     */
+    int read(byte[] dst, int offset, int length) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * A resource backed by a buffer, typically a memory-mapped file. Reads copy straight out of the mapping.
+     */
+    static MCEFSchemeResource of(ByteBuffer buffer, String mimeType) {
+        return of(buffer, mimeType, null);
+    }
+
+    static MCEFSchemeResource of(ByteBuffer buffer, String mimeType, String etag) {
+        var view = buffer.duplicate();
+
+        return new MCEFSchemeResource() {
+            @Override
+            public long length() {
+                return view.limit();
+            }
+
+            @Override
+            public String mimeType() {
+                return mimeType;
+            }
+
+            @Override
+            public String etag() {
+                return etag;
+            }
+
+            @Override
+            public void skip(long bytes) {
+                view.position((int) Math.min(view.limit(), view.position() + bytes));
+            }
+
+            @Override
+            public int read(byte[] dst, int offset, int length) {
+                if (!view.hasRemaining()) {
+                    return -1;
+                }
+
+                var count = Math.min(length, view.remaining());
+                view.get(dst, offset, count);
+                return count;
+            }
+        };
+    }
+
+    /**
+     * A resource streamed from an {@link InputStream}, e.g. a jar entry.
+     *
+     * @param length the length if known, otherwise -1
+     */
+    static MCEFSchemeResource of(InputStream stream, long length, String mimeType) {
+        return of(stream, length, mimeType, null);
+    }
+
+    static MCEFSchemeResource of(InputStream stream, long length, String mimeType, String etag) {
+        return new MCEFSchemeResource() {
+            @Override
+            public long length() {
+                return length;
+            }
+
+            @Override
+            public String mimeType() {
+                return mimeType;
+            }
+
+            @Override
+            public String etag() {
+                return etag;
+            }
+
+            @Override
+            public void skip(long bytes) throws IOException {
+                stream.skipNBytes(bytes);
+            }
+
+            @Override
+            public int read(byte[] dst, int offset, int length) throws IOException {
+                return stream.read(dst, offset, length);
+            }
+
+            @Override
+            public void close() throws IOException {
+                stream.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An unbounded, lock-free multi-producer/single-consumer queue.
+ * <p>
+ * Any thread may call {@link #offer(Object)}, exactly one thread may call {@link #poll()}. Being linked
+ * instead of array backed, producers never have to wait for the consumer, which is what we want when the
+ * producer is the render thread. Values offered by one thread are polled in the order they were offered.
+ */
+public class MCEFMpscQueue<T> {
+    // producer side
+    private final AtomicReference<Node<T>> tail;
+    // consumer side
+    private Node<T> head;
+
+    public MCEFMpscQueue() {
+        var stub = new Node<T>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Any thread. Once it returns, the value is visible to the consumer.
+     */
+    public void offer(T value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+
+        var node = new Node<>(value);
+        // claim the tail first, then link the previous one to it, publishing the node together with its value.
+        // In between the consumer sees the queue end at the previous node, which is fine, the offer has not returned yet
+        var previous = tail.getAndSet(node);
+        previous.next = node;
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the next value or null if the queue is empty
+     */
+    public T poll() {
+        var next = head.next;
+        if (next == null) {
+            return null;
+        }
+
+        var value = next.value;
+        // the polled node becomes the new stub, drop its value for GC
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    /**
+     * Consumer only. May report a value that is still being offered as missing.
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private static final class Node<T> {
+        private volatile Node<T> next;
+        private T value;
+
+        private Node(T value) {
+            this.value = value;
+        }
+    }
+}
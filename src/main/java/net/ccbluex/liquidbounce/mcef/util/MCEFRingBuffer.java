@@ -0,0 +1,101 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free multi-producer/single-consumer ring buffer.
+ * <p>
+ * Every slot carries a sequence number telling producers and the consumer whose turn it is,
+ * so claiming a slot is a single CAS and nothing ever blocks. When the buffer is full,
+ * {@link #offer(Object)} fails and the caller decides what to do with the value.
+ */
+public class MCEFRingBuffer<T> {
+    private final int mask;
+    private final AtomicReferenceArray<T> values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    // consumer only
+    private long head = 0;
+
+    /**
+     * @param capacity rounded up to the next power of two
+     */
+    public MCEFRingBuffer(int capacity) {
+        var size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        values = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    public boolean offer(T value) {
+        while (true) {
+            var position = tail.get();
+            var index = (int) (position & mask);
+            var difference = sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    values.lazySet(index, value);
+                    // hand the slot to the consumer
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+            // another producer claimed this slot, retry with the new tail
+        }
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the oldest value or null if the buffer is empty
+     */
+    public T poll() {
+        var index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+
+        var value = values.get(index);
+        values.lazySet(index, null);
+        // hand the slot back to the producers, one lap ahead
+        sequences.set(index, head + mask + 1);
+        head++;
+        return value;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
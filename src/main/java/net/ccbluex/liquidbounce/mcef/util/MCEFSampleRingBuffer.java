@@ -0,0 +1,117 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free single-producer/single-consumer ring buffer of float samples.
+ * <p>
+ * Exactly one thread may write and exactly one (possibly other) thread may read. Both only ever
+ * publish their own position, so neither side waits for the other: a full buffer makes
+ * {@link #write(float[], int, int)} write less, an empty one makes {@link #read(float[], int, int)} read less.
+ */
+public class MCEFSampleRingBuffer {
+    private final float[] samples;
+    private final int mask;
+    // written by the producer, read by both
+    private final AtomicLong writePosition = new AtomicLong();
+    // written by the consumer, read by both
+    private final AtomicLong readPosition = new AtomicLong();
+
+    /**
+     * @param capacity in samples, rounded up to the next power of two
+     */
+    public MCEFSampleRingBuffer(int capacity) {
+        var size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        samples = new float[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return the number of samples written, less than {@code length} if the buffer is full
+     */
+    public int write(float[] source, int offset, int length) {
+        var write = writePosition.get();
+        var count = (int) Math.min(length, samples.length - (write - readPosition.get()));
+        if (count <= 0) {
+            return 0;
+        }
+
+        var index = (int) (write & mask);
+        var first = Math.min(count, samples.length - index);
+        System.arraycopy(source, offset, samples, index, first);
+        System.arraycopy(source, offset + first, samples, 0, count - first);
+        // publishes the samples together with the position
+        writePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the number of samples read, less than {@code length} if the buffer runs empty
+     */
+    public int read(float[] target, int offset, int length) {
+        var read = readPosition.get();
+        var count = (int) Math.min(length, writePosition.get() - read);
+        if (count <= 0) {
+            return 0;
+        }
+
+        var index = (int) (read & mask);
+        var first = Math.min(count, samples.length - index);
+        System.arraycopy(samples, index, target, offset, first);
+        System.arraycopy(samples, 0, target, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Consumer only. Drops samples without reading them.
+     *
+     * @return the number of samples skipped
+     */
+    public int skip(int length) {
+        var read = readPosition.get();
+        var count = (int) Math.min(length, writePosition.get() - read);
+        if (count <= 0) {
+            return 0;
+        }
+
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * @return the number of samples that can be read, exact for the consumer, the producer may see fewer having been read
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+}
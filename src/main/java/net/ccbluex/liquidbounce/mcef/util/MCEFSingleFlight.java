@@ -0,0 +1,75 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent asynchronous work by key: while a task for a key is running, callers asking
+ * for the same key get its future instead of starting another one.
+ * <p>
+ * A key is forgotten before its future completes, so a caller that sees a failure and asks again starts
+ * a new attempt rather than getting the failed future back.
+ */
+public final class MCEFSingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param task starts the work, only called if nothing is in flight for the key
+     * @return the future of the task in flight for the key
+     */
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> task) {
+        var existing = inFlight.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        // claim the key before starting, so the task runs once and its completion never happens inside the map
+        var future = new CompletableFuture<V>();
+        existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        try {
+            task.get().whenComplete((value, throwable) -> {
+                inFlight.remove(key, future);
+                if (throwable != null) {
+                    future.completeExceptionally(throwable);
+                } else {
+                    future.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * MCEF message channel, injected into every page of a browser that uses one.
+ *
+ * Messages are compact JSON arrays: [kind, id, topic, data], where kind is
+ * 0 = event, 1 = request, 2 = response, 3 = error response. Everything sent in
+ * the same frame goes to Java as a single cefQuery, and Java pushes its batches
+ * through one persistent query.
+ */
+(function () {
+    if (window.mcef && window.mcef.channel) {
+        return;
+    }
+
+    var PREFIX = "__mcef_channel:";
+    var EVENT = 0, REQUEST = 1, RESPONSE = 2, ERROR = 3;
+
+    var outgoing = [];
+    var scheduled = false;
+    var nextId = 1;
+    var pending = new Map();
+    var listeners = new Map();
+    var handlers = new Map();
+
+    function flush() {
+        scheduled = false;
+        if (outgoing.length === 0) {
+            return;
+        }
+
+        var batch = JSON.stringify(outgoing);
+        outgoing = [];
+        window.cefQuery({
+            request: PREFIX + batch,
+            persistent: false,
+            onSuccess: function () {
+            },
+            onFailure: function (code, message) {
+                console.error("MCEF channel: " + message);
+            }
+        });
+    }
+
+    function send(message) {
+        outgoing.push(message);
+        if (!scheduled) {
+            scheduled = true;
+            // hidden pages get no animation frames
+            if (document.hidden) {
+                setTimeout(flush, 16);
+            } else {
+                requestAnimationFrame(flush);
+            }
+        }
+    }
+
+    function respond(id, promise) {
+        promise.then(function (result) {
+            send([RESPONSE, id, "", result === undefined ? null : result]);
+        }, function (error) {
+            send([ERROR, id, "", String(error && error.message || error)]);
+        });
+    }
+
+    function receive(message) {
+        var kind = message[0], id = message[1], topic = message[2], data = message[3];
+        switch (kind) {
+            case EVENT:
+                var topicListeners = listeners.get(topic);
+                if (topicListeners) {
+                    topicListeners.forEach(function (listener) {
+                        try {
+                            listener(data);
+                        } catch (e) {
+                            console.error(e);
+                        }
+                    });
+                }
+                break;
+            case REQUEST:
+                var handler = handlers.get(topic);
+                if (handler) {
+                    respond(id, new Promise(function (resolve) {
+                        resolve(handler(data));
+                    }));
+                } else {
+                    send([ERROR, id, "", "No handler for " + topic]);
+                }
+                break;
+            case RESPONSE:
+            case ERROR:
+                var request = pending.get(id);
+                if (request) {
+                    pending.delete(id);
+                    if (kind === RESPONSE) {
+                        request.resolve(data);
+                    } else {
+                        request.reject(new Error(data));
+                    }
+                }
+                break;
+        }
+    }
+
+    window.cefQuery({
+        request: PREFIX + "subscribe",
+        persistent: true,
+        onSuccess: function (batch) {
+            JSON.parse(batch).forEach(receive);
+        },
+        onFailure: function (code, message) {
+            console.error("MCEF channel closed: " + message);
+        }
+    });
+
+    window.mcef = window.mcef || {};
+    window.mcef.channel = {
+        emit: function (topic, data) {
+            send([EVENT, 0, topic, data === undefined ? null : data]);
+        },
+        request: function (topic, data) {
+            var id = nextId++;
+            return new Promise(function (resolve, reject) {
+                pending.set(id, {resolve: resolve, reject: reject});
+                send([REQUEST, id, topic, data === undefined ? null : data]);
+            });
+        },
+        on: function (topic, listener) {
+            var topicListeners = listeners.get(topic);
+            if (!topicListeners) {
+                listeners.set(topic, topicListeners = new Set());
+            }
+            topicListeners.add(listener);
+            return function () {
+                topicListeners.delete(listener);
+            };
+        },
+        handle: function (topic, handler) {
+            handlers.set(topic, handler);
+        },
+        flush: flush
+    };
+
+    window.dispatchEvent(new Event("mcef-channel-ready"));
+})();
@@ -0,0 +1,152 @@
+/*
+ * MCEF state sync, applies the patches sent by MCEFStateSync and notifies subscribers.
+ *
+ * A patch is [key, baseVersion, ops]; an op is [0, path, value] to set,
+ * [1, path] to delete or [2, path, length] to truncate an array.
+ */
+(function () {
+    if (window.mcef && window.mcef.state) {
+        return;
+    }
+
+    var SET = 0, DELETE = 1, TRUNCATE = 2;
+
+    var values = new Map();
+    var versions = new Map();
+    var subscribers = new Map();
+    var resyncing = false;
+    var deferred = [];
+
+    function notify(key, ops) {
+        var keySubscribers = subscribers.get(key);
+        if (keySubscribers) {
+            var value = values.get(key);
+            keySubscribers.forEach(function (subscriber) {
+                try {
+                    subscriber(value, ops);
+                } catch (e) {
+                    console.error(e);
+                }
+            });
+        }
+    }
+
+    function apply(root, op) {
+        var path = op[1];
+        if (path.length === 0) {
+            if (op[0] === TRUNCATE) {
+                root.length = op[2];
+                return root;
+            }
+            return op[0] === SET ? op[2] : undefined;
+        }
+
+        var parent = root;
+        for (var i = 0; i < path.length - 1; i++) {
+            parent = parent[path[i]];
+        }
+
+        var last = path[path.length - 1];
+        switch (op[0]) {
+            case SET:
+                parent[last] = op[2];
+                break;
+            case DELETE:
+                delete parent[last];
+                break;
+            case TRUNCATE:
+                parent[last].length = op[2];
+                break;
+        }
+        return root;
+    }
+
+    function resync(channel) {
+        if (resyncing) {
+            return;
+        }
+
+        resyncing = true;
+        channel.request("__mcef_state:snapshot", null).then(function (snapshot) {
+            resyncing = false;
+            Object.keys(snapshot).forEach(function (key) {
+                versions.set(key, snapshot[key][0]);
+                values.set(key, snapshot[key][1]);
+                notify(key, null);
+            });
+
+            // patches that arrived with the snapshot, older ones are already part of it
+            // and newer ones mean something was lost, so only those continuing from it are applied
+            var patches = deferred;
+            deferred = [];
+            patches.forEach(function (patch) {
+                if (patch[1] === versions.get(patch[0])) {
+                    receive(channel, patch);
+                }
+            });
+        }, function (error) {
+            resyncing = false;
+            console.error("MCEF state sync failed: " + error);
+        });
+    }
+
+    function receive(channel, patch) {
+        if (resyncing) {
+            deferred.push(patch);
+            return;
+        }
+
+        var key = patch[0], baseVersion = patch[1], ops = patch[2];
+        if (versions.get(key) !== baseVersion) {
+            // missed a patch or a new key appeared, start over from a snapshot
+            deferred.push(patch);
+            resync(channel);
+            return;
+        }
+
+        var value = values.get(key);
+        ops.forEach(function (op) {
+            value = apply(value, op);
+        });
+        values.set(key, value);
+        versions.set(key, baseVersion + 1);
+        notify(key, ops);
+    }
+
+    function attach(channel) {
+        channel.on("__mcef_state:patch", function (patches) {
+            patches.forEach(function (patch) {
+                receive(channel, patch);
+            });
+        });
+        resync(channel);
+    }
+
+    window.mcef = window.mcef || {};
+    window.mcef.state = {
+        get: function (key) {
+            return values.get(key);
+        },
+        subscribe: function (key, subscriber) {
+            var keySubscribers = subscribers.get(key);
+            if (!keySubscribers) {
+                subscribers.set(key, keySubscribers = new Set());
+            }
+            keySubscribers.add(subscriber);
+            if (values.has(key)) {
+                subscriber(values.get(key), null);
+            }
+            return function () {
+                keySubscribers.delete(subscriber);
+            };
+        }
+    };
+
+    if (window.mcef.channel) {
+        attach(window.mcef.channel);
+    } else {
+        window.addEventListener("mcef-channel-ready", function () {
+            attach(window.mcef.channel);
+        }, {once: true});
+    }
+})();
@@ -0,0 +1,102 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MCEFDiskStoreTest {
+    private static final String URL = "https://example.com/app.js";
+
+    @TempDir
+    Path directory;
+
+    private MCEFDiskStore writeEntry() {
+        var store = new MCEFDiskStore(directory.toFile(), 1024 * 1024);
+        var body = ByteBuffer.wrap("console.log(1)".getBytes(StandardCharsets.UTF_8));
+        store.write(new MCEFCachedResource(URL, 200, "text/javascript", Map.of("ETag", "\"1\""), body, 0, Long.MAX_VALUE));
+        return store;
+    }
+
+    private Path entryFile() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".res")).findFirst().orElseThrow();
+        }
+    }
+
+    @Test
+    void readsWhatWasWritten() {
+        var resource = writeEntry().read(URL);
+
+        assertNotNull(resource);
+        assertEquals("text/javascript", resource.mimeType());
+        assertEquals("\"1\"", resource.etag());
+        assertEquals("console.log(1)", StandardCharsets.UTF_8.decode(resource.body()).toString());
+    }
+
+    @Test
+    void dropsEntriesWithACorruptHeaderLength() throws IOException {
+        writeEntry();
+        var file = entryFile();
+        try (var raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(8);
+            raf.writeInt(-5);
+        }
+
+        var store = new MCEFDiskStore(directory.toFile(), 1024 * 1024);
+        assertNull(store.read(URL));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void dropsTruncatedEntries() throws IOException {
+        writeEntry();
+        var file = entryFile();
+        try (var raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+
+        var store = new MCEFDiskStore(directory.toFile(), 1024 * 1024);
+        assertNull(store.read(URL));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void removesStaleTempFilesOnOpen() throws IOException {
+        writeEntry();
+        var temp = Files.write(directory.resolve("abc123.tmp"), new byte[]{1, 2, 3});
+
+        var store = new MCEFDiskStore(directory.toFile(), 1024 * 1024);
+        assertFalse(Files.exists(temp));
+        assertNotNull(store.read(URL));
+    }
+}
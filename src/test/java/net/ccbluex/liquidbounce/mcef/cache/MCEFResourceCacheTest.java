@@ -0,0 +1,185 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package net.ccbluex.liquidbounce.mcef.cache;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the cache against a local HTTP server standing in for the origin.
+ */
+class MCEFResourceCacheTest {
+    private HttpServer server;
+    private String origin;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile String cacheControl = "max-age=3600";
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        origin = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        var etag = "\"v1\"";
+        var headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", cacheControl);
+
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        var body = ("body of " + exchange.getRequestURI().getPath()).getBytes(StandardCharsets.UTF_8);
+        headers.set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, body.length);
+        try (var out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private MCEFResourceCache newCache(Path directory) {
+        return new MCEFResourceCache(directory != null ? directory.toFile() : null, 16 * 1024 * 1024,
+                MCEFResourceCache.Fetcher.okHttp(new OkHttpClient()));
+    }
+
+    private static String bodyOf(MCEFCachedResource resource) {
+        return StandardCharsets.UTF_8.decode(resource.body().duplicate()).toString();
+    }
+
+    private static MCEFCachedResource get(MCEFResourceCache cache, String url) throws Exception {
+        return cache.get(url).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void servesRepeatedRequestsFromMemory() throws Exception {
+        var cache = newCache(null);
+        var url = origin + "/app.js";
+
+        assertEquals("body of /app.js", bodyOf(get(cache, url)));
+        assertEquals("body of /app.js", bodyOf(get(cache, url)));
+
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getMemoryHits());
+    }
+
+    @Test
+    void servesFromDiskAfterRestart() throws Exception {
+        var url = origin + "/style.css";
+        get(newCache(directory), url);
+
+        var cache = newCache(directory);
+        assertEquals("body of /style.css", bodyOf(get(cache, url)));
+        assertEquals(1, requests.get());
+        assertEquals(1, cache.getDiskHits());
+    }
+
+    @Test
+    void revalidatesExpiredResourcesWithTheirEtag() throws Exception {
+        cacheControl = "max-age=0";
+        var cache = newCache(null);
+        cache.setStaleWhileRevalidate(Duration.ZERO);
+        var url = origin + "/data.json";
+
+        get(cache, url);
+        var revalidated = get(cache, url);
+
+        assertEquals(2, requests.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, cache.getRevalidations());
+        assertEquals("body of /data.json", bodyOf(revalidated));
+    }
+
+    @Test
+    void servesStaleResourcesWhileTheOriginFails() throws Exception {
+        cacheControl = "max-age=0";
+        var cache = newCache(null);
+        cache.setStaleWhileRevalidate(Duration.ZERO);
+        var url = origin + "/image.png";
+        get(cache, url);
+
+        server.stop(0);
+        assertEquals("body of /image.png", bodyOf(get(cache, url)));
+        assertEquals(1, cache.getFetchErrors());
+    }
+
+    @Test
+    void retriesAfterAFailedFetch() throws Exception {
+        var attempts = new AtomicInteger();
+        var cache = new MCEFResourceCache(null, 0, (url, headers) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("offline");
+            }
+            return new MCEFResourceCache.Fetcher.Response(200, "text/plain", java.util.Map.of(),
+                    "online".getBytes(StandardCharsets.UTF_8));
+        });
+        var url = origin + "/retry";
+
+        assertThrows(ExecutionException.class, () -> get(cache, url));
+        assertEquals("online", bodyOf(get(cache, url)));
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void doesNotStoreServerErrors() throws Exception {
+        status = 500;
+        var cache = newCache(null);
+        var url = origin + "/broken";
+
+        assertEquals(500, get(cache, url).status());
+        get(cache, url);
+        assertEquals(2, requests.get());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+package net.ccbluex.liquidbounce.mcef.filter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MCEFUrlFilterTest {
+
+    private static MCEFUrlFilter filter(String... rules) {
+        var builder = MCEFUrlFilter.builder();
+        for (var rule : rules) {
+            builder.addRule(rule);
+        }
+        return builder.build();
+    }
+
+    @Test
+    void domainAnchorMatchesDomainAndSubdomains() {
+        var filter = filter("||example.com^");
+
+        assertTrue(filter.isBlocked("https://example.com/"));
+        assertTrue(filter.isBlocked("https://example.com"));
+        assertTrue(filter.isBlocked("https://ads.example.com/banner.png"));
+        assertTrue(filter.isBlocked("http://EXAMPLE.com:8080/path"));
+        assertTrue(filter.isBlocked("https://user@example.com/"));
+    }
+
+    @Test
+    void domainAnchorIgnoresSuffixesAndOtherHosts() {
+        var filter = filter("||example.com^");
+
+        assertFalse(filter.isBlocked("https://ample.com/"));
+        assertFalse(filter.isBlocked("https://notexample.com/"));
+        assertFalse(filter.isBlocked("https://example.com.evil.net/"));
+        assertFalse(filter.isBlocked("https://other.net/?ref=example.com"));
+        assertFalse(filter("||ample.com^").isBlocked("https://example.com/"));
+        assertTrue(filter("||ample.com^").isBlocked("https://ample.com/"));
+    }
+
+    @Test
+    void exceptionsOverrideBlockingRules() {
+        var filter = filter("||example.com^", "@@||example.com/allowed/");
+
+        assertTrue(filter.isBlocked("https://example.com/ads.js"));
+        assertFalse(filter.isBlocked("https://example.com/allowed/app.js"));
+        assertEquals(2, filter.getRuleCount());
+    }
+
+    @Test
+    void exceptionWithoutBlockingRuleBlocksNothing() {
+        assertFalse(filter("@@||example.com^").isBlocked("https://example.com/"));
+    }
+
+    @Test
+    void startAndEndAnchors() {
+        var start = filter("|https://ads.");
+        assertTrue(start.isBlocked("https://ads.example.com/"));
+        assertFalse(start.isBlocked("https://example.com/?next=https://ads.example.com/"));
+
+        var end = filter(".swf|");
+        assertTrue(end.isBlocked("https://example.com/movie.swf"));
+        assertFalse(end.isBlocked("https://example.com/movie.swf?autoplay=1"));
+    }
+
+    @Test
+    void plainRulesMatchAnywhere() {
+        var filter = filter("/banner/");
+
+        assertTrue(filter.isBlocked("https://example.com/static/banner/top.png"));
+        assertTrue(filter.isBlocked("https://example.com/STATIC/BANNER/top.png"));
+        assertFalse(filter.isBlocked("https://example.com/static/banners.png"));
+    }
+
+    @Test
+    void wildcards() {
+        var filter = filter("/ads/*/track");
+
+        assertTrue(filter.isBlocked("https://example.com/ads/v2/track"));
+        assertTrue(filter.isBlocked("https://example.com/ads//track"));
+        assertFalse(filter.isBlocked("https://example.com/ads/v2/view"));
+        assertFalse(filter.isBlocked("https://example.com/track/ads/"));
+    }
+
+    @Test
+    void separators() {
+        var filter = filter("/pixel^");
+
+        assertTrue(filter.isBlocked("https://example.com/pixel?id=1"));
+        assertTrue(filter.isBlocked("https://example.com/pixel/1"));
+        assertFalse(filter.isBlocked("https://example.com/pixels"));
+        assertFalse(filter.isBlocked("https://example.com/pixel.gif"));
+    }
+
+    @Test
+    void separatorMatchesEndOfUrl() {
+        var filter = filter("/pixel^");
+
+        assertTrue(filter.isBlocked("https://example.com/pixel"));
+        assertTrue(filter("||example.com^").isBlocked("https://example.com"));
+    }
+
+    @Test
+    void hostsFileLines() {
+        var filter = filter(
+                "# hosts file",
+                "0.0.0.0 tracker.example.com",
+                "127.0.0.1 ads.example.net",
+                "127.0.0.1 localhost"
+        );
+
+        assertTrue(filter.isBlocked("https://tracker.example.com/collect"));
+        assertTrue(filter.isBlocked("https://cdn.tracker.example.com/collect"));
+        assertTrue(filter.isBlocked("http://ads.example.net/"));
+        assertFalse(filter.isBlocked("https://example.com/"));
+        assertFalse(filter.isBlocked("http://localhost:8080/"));
+    }
+
+    @Test
+    void skipsRulesThatDependOnThePage() {
+        var filter = filter(
+                "||tracker.com^$domain=example.com",
+                "||other.com^$script,~third-party",
+                "example.com##.banner",
+                "! comment",
+                "/banner[0-9]+/"
+        );
+
+        assertEquals(0, filter.getRuleCount());
+        assertFalse(filter.isBlocked("https://tracker.com/"));
+        assertFalse(filter.isBlocked("https://other.com/"));
+        assertFalse(filter.isBlocked("https://example.com/banner1/"));
+    }
+
+    @Test
+    void ignoresResourceTypeOptions() {
+        var filter = filter("||tracker.com^$script,third-party");
+
+        assertTrue(filter.isBlocked("https://tracker.com/t.js"));
+    }
+
+    @Test
+    void emptyFilterBlocksNothing() {
+        assertFalse(MCEFUrlFilter.empty().isBlocked("https://example.com/"));
+        assertEquals(0, MCEFUrlFilter.empty().getRuleCount());
+    }
+}
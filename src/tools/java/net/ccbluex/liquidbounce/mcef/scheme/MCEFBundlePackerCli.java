@@ -0,0 +1,46 @@
+/*
+ * This file is part of LiquidBounce (https://github.com/CCBlueX/LiquidBounce)
+ *
+ * Copyright (c) 2024 CCBlueX
+ *
+ * LiquidBounce is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * LiquidBounce is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with LiquidBounce. If not, see <https://www.gnu.org/licenses/>.
+ *
+ *
+ */
+package net.ccbluex.liquidbounce.mcef.scheme;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Command line entry point of {@link MCEFBundlePacker}, run by the {@code packBundle} Gradle task.
+ * Not part of the mod.
+ */
+public final class MCEFBundlePackerCli {
+    private MCEFBundlePackerCli() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: MCEFBundlePackerCli <input directory> <output file> [--gzip]");
+            System.exit(1);
+        }
+
+        var packer = new MCEFBundlePacker()
+                .setGzip(args.length > 2 && args[2].equals("--gzip"))
+                .addDirectory(Path.of(args[0]));
+        packer.write(Path.of(args[1]));
+        System.out.println("Packed " + packer.getFileCount() + " files into " + args[1]);
+    }
+}